@@ -0,0 +1,574 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class answers the reporting operations from a columnar copy of
+ * Booking and Repair kept in memory, so reports do not compete with the
+ * writes on the database.  Every column is a primitive array: IDs as ints,
+ * dates as epoch days and prices as long cents, and maintenance companies
+ * dictionary encoded as small ints.  A report is a tight loop over the
+ * columns it needs; tables larger than one chunk are split into chunks
+ * scanned in parallel on a fork/join pool and the partial results merged.
+ *
+ * The copy is refreshed incrementally, by commit order rather than by key,
+ * since keys are leased in blocks and a row with a low key may commit long
+ * after higher ones: refresh reads the rows inserted by the transactions
+ * that were still running at the last refresh or started since, and skips
+ * the keys it already holds.  Those rows are found through the ChangeLog
+ * of sql/invalidation.sql, by its transaction index and the keys, so
+ * incremental refreshes need it installed; nothing else finds them
+ * without scanning the tables.  bookRoom and addRepair also append their
+ * own rows right away.  Maintenance companies are small and are read whole
+ * on every refresh.  Rows changed or deleted in the database are only
+ * seen after a reload, as is everything when the refreshes stopped for
+ * longer than the change log is kept.
+ *
+ * Rows are only ever appended, and a report works on the columns as they
+ * were when it started, so reports never wait for a refresh.
+ *
+ */
+public class AnalyticsStore {
+
+   // rows scanned by one fork/join task
+   static final int CHUNK = 1 << 16;
+
+   private static final ForkJoinPool POOL = new ForkJoinPool ();
+
+   private static final String NO_CHANGE_LOG =
+      "Refreshing the analytics store needs the ChangeLog, install sql/invalidation.sql";
+
+   private final DBProject _db;
+
+   // the columns as of the last append; replaced, never changed in place
+   // below their size
+   private volatile Bookings _bookings = new Bookings (16);
+   private volatile Repairs _repairs = new Repairs (16);
+
+   // cmpID -> company name
+   private volatile Map<Integer, String> _companyNames = new HashMap<Integer, String>();
+
+   // keys already loaded
+   private final BitSet _bookingKeys = new BitSet ();
+   private final BitSet _repairKeys = new BitSet ();
+
+   // the oldest transaction running at the last refresh, or -1 before the
+   // first, the time of the last refresh and whether the change log was
+   // installed then; the rows of older transactions are all loaded
+   private long _xmin = -1;
+   private long _refreshedAt = 0;
+   private boolean _changeLog = false;
+
+   // cmpID -> dictionary code of the company
+   private final Map<Integer, Integer> _companyCodes = new HashMap<Integer, Integer>();
+
+   /**
+    * Creates an empty store; call reload to fill it.
+    *
+    * @param db the database the tables are read from
+    */
+   public AnalyticsStore (DBProject db) {
+      this._db = db;
+   }//end AnalyticsStore
+
+   /**
+    * Reads both tables again into new columns and replaces the current
+    * ones with them once they are complete; reports keep answering from
+    * the current columns meanwhile.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public synchronized void reload () throws SQLException {
+      AnalyticsStore fresh = new AnalyticsStore (this._db);
+      fresh.refresh ();
+      this._bookingKeys.clear ();
+      this._bookingKeys.or (fresh._bookingKeys);
+      this._repairKeys.clear ();
+      this._repairKeys.or (fresh._repairKeys);
+      this._companyCodes.clear ();
+      this._companyCodes.putAll (fresh._companyCodes);
+      this._xmin = fresh._xmin;
+      this._refreshedAt = fresh._refreshedAt;
+      this._changeLog = fresh._changeLog;
+      this._companyNames = fresh._companyNames;
+      this._bookings = fresh._bookings;
+      this._repairs = fresh._repairs;
+   }//end reload
+
+   /**
+    * Appends the rows added to the tables since the last refresh.
+    *
+    * @return the number of rows appended
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public synchronized int refresh () throws SQLException {
+      if (this._xmin >= 0
+          && System.currentTimeMillis () - this._refreshedAt > DBProject.INVALIDATION_RETENTION_MILLIS / 2){
+         // the change log may have been pruned past the last refresh
+         reload ();
+         return this._bookings.size + this._repairs.size;
+      }//end if
+      int appended = 0;
+      long started = System.currentTimeMillis ();
+      PooledConnection conn = this._db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         Statement stmt = conn.getConnection ().createStatement ();
+         try{
+            DBProject.setFetchSize (stmt, DBProject.FETCH_SIZE * 10);
+            ResultSet rs = stmt.executeQuery (
+               "SELECT txid_snapshot_xmin(txid_current_snapshot()), to_regclass('changelog') IS NOT NULL");
+            rs.next ();
+            long xmin = rs.getLong (1);
+            boolean changeLog = rs.getBoolean (2);
+            rs.close ();
+            if (this._xmin >= 0 && !changeLog)
+               throw new SQLException (NO_CHANGE_LOG);
+
+            Map<Integer, String> names = new HashMap<Integer, String>();
+            rs = stmt.executeQuery ("SELECT cmpID, name FROM MaintenanceCompany");
+            while (rs.next ())
+               names.put (rs.getInt (1), rs.getString (2));
+            rs.close ();
+            this._companyNames = names;
+
+            rs = stmt.executeQuery ("SELECT bID, customer, hotelID, roomNo, bookingDate, price FROM Booking"
+                                    + inserted ("Booking", "bID"));
+            while (rs.next ())
+               if (book (rs.getInt (1), rs.getInt (2), rs.getInt (3), EpochDays.parse (rs.getString (5)),
+                         rs.getBigDecimal (6)))
+                  ++appended;
+            rs.close ();
+
+            rs = stmt.executeQuery ("SELECT rID, hotelID, roomNo, mCompany, repairDate FROM Repair"
+                                    + inserted ("Repair", "rID"));
+            while (rs.next ())
+               if (repair (rs.getInt (1), rs.getInt (2), rs.getInt (3), rs.getInt (4),
+                           EpochDays.parse (rs.getString (5))))
+                  ++appended;
+            rs.close ();
+            this._xmin = xmin;
+            this._refreshedAt = started;
+            this._changeLog = changeLog;
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         this._db.release (conn);
+      }//end try
+      return appended;
+   }//end refresh
+
+   /*
+    * Returns the condition on the rows inserted by the transactions from
+    * the last refresh's oldest running one on, or none before the first
+    */
+   private String inserted (String table, String key) {
+      if (this._xmin < 0)
+         return "";
+      return " WHERE " + key + " = ANY(ARRAY(SELECT key::int FROM ChangeLog WHERE txid >= " + this._xmin
+             + " AND tableName = '" + table.toLowerCase () + "' AND op = 'I'))";
+   }//end inserted
+
+   /**
+    * Refreshes the store every period from a background thread.
+    *
+    * @throws java.sql.SQLException when the ChangeLog was not installed at
+    *         the last reload
+    */
+   public void refreshEvery (final long periodMillis) throws SQLException {
+      synchronized (this){
+         if (!this._changeLog)
+            throw new SQLException (NO_CHANGE_LOG);
+      }//end synchronized
+      Thread refresher = new Thread ("analytics-refresh") {
+         public void run () {
+            while (true){
+               try{
+                  Thread.sleep (periodMillis);
+                  refresh ();
+               }catch (InterruptedException e){
+                  return;
+               }catch (SQLException e){
+                  System.err.println ("Cannot refresh analytics: " + e.getMessage ());
+               }//end try
+            }//end while
+         }
+      };
+      refresher.setDaemon (true);
+      refresher.start ();
+   }//end refreshEvery
+
+   /**
+    * Appends a booking unless its key is already loaded.
+    *
+    * @return true if the booking was appended
+    */
+   public synchronized boolean book (int bID, int customer, int hotelID, int epochDay, BigDecimal price) {
+      if (bID >= 0){
+         if (this._bookingKeys.get (bID))
+            return false;
+         this._bookingKeys.set (bID);
+      }//end if
+
+      Bookings b = this._bookings;
+      if (b.size == b.hotel.length)
+         b = b.grow ();
+      b.customer[b.size] = customer;
+      b.hotel[b.size] = hotelID;
+      b.day[b.size] = epochDay;
+      b.cents[b.size] = price.movePointRight (2).longValue ();
+      this._bookings = b.withSize (b.size + 1);
+      return true;
+   }//end book
+
+   /**
+    * Appends a repair unless its key is already loaded.
+    *
+    * @return true if the repair was appended
+    */
+   public synchronized boolean repair (int rID, int hotelID, int roomNo, int mCompany, int epochDay) {
+      if (rID >= 0){
+         if (this._repairKeys.get (rID))
+            return false;
+         this._repairKeys.set (rID);
+      }//end if
+
+      Repairs r = this._repairs;
+      Integer code = this._companyCodes.get (mCompany);
+      if (code == null){
+         code = this._companyCodes.size ();
+         this._companyCodes.put (mCompany, code);
+         if (code == r.companyIDs.length)
+            r = r.growCompanies ();
+         r.companyIDs[code] = mCompany;
+      }//end if
+      if (r.size == r.hotel.length)
+         r = r.grow ();
+      r.hotel[r.size] = hotelID;
+      r.room[r.size] = roomNo;
+      r.company[r.size] = code;
+      r.day[r.size] = epochDay;
+      this._repairs = r.withSize (r.size + 1, this._companyCodes.size ());
+      return true;
+   }//end repair
+
+   /**
+    * Adds or renames a maintenance company.
+    */
+   public synchronized void addCompany (int cmpID, String name) {
+      Map<Integer, String> names = new HashMap<Integer, String>(this._companyNames);
+      names.put (cmpID, name);
+      this._companyNames = names;
+   }//end addCompany
+
+   /**
+    * Passes the number of bookings of the hotel to the handler, like
+    * DBOperations.BOOKED_ROOMS_SQL.
+    */
+   public int bookedRooms (final int hotelID, RowHandler out) throws SQLException {
+      final Bookings b = this._bookings;
+      long count = scan (b.size, new Kernel<Long>() {
+         public Long scan (int from, int to) {
+            int[] hotel = b.hotel;
+            long n = 0;
+            for (int i = from; i < to; ++i)
+               if (hotel[i] == hotelID)
+                  ++n;
+            return n;
+         }
+         public Long merge (Long left, Long right) {
+            return left + right;
+         }
+      });
+      out.start ("count");
+      out.row (count);
+      out.end ();
+      return 1;
+   }//end bookedRooms
+
+   /**
+    * Passes the k highest booking prices of the customer to the handler,
+    * highest first, like DBOperations.TOP_K_CUSTOMER_BOOKINGS_SQL.
+    */
+   public int topKCustomerPrices (final int customer, final int k, RowHandler out) throws SQLException {
+      final Bookings b = this._bookings;
+      long[] top = scan (b.size, new Kernel<long[]>() {
+         public long[] scan (int from, int to) {
+            int[] customers = b.customer;
+            long[] cents = b.cents;
+            long[] found = new long[8];
+            int n = 0;
+            for (int i = from; i < to; ++i){
+               if (customers[i] == customer){
+                  if (n == found.length)
+                     found = Arrays.copyOf (found, n * 2);
+                  found[n++] = cents[i];
+               }//end if
+            }//end for
+            Arrays.sort (found, 0, n);
+            long[] highest = new long[Math.max (0, Math.min (k, n))];
+            for (int i = 0; i < highest.length; ++i)
+               highest[i] = found[n - 1 - i];
+            return highest;
+         }
+         public long[] merge (long[] left, long[] right) {
+            long[] highest = new long[Math.max (0, Math.min (k, left.length + right.length))];
+            for (int i = 0, l = 0, r = 0; i < highest.length; ++i)
+               highest[i] = r >= right.length || (l < left.length && left[l] >= right[r]) ? left[l++] : right[r++];
+            return highest;
+         }
+      });
+      out.start ("price");
+      for (long cents : top)
+         out.row (BigDecimal.valueOf (cents, 2));
+      out.end ();
+      return top.length;
+   }//end topKCustomerPrices
+
+   /**
+    * Passes the total price of the customer's bookings at the hotel between
+    * two days, inclusive, to the handler, or null if there are none, like
+    * DBOperations.TOTAL_COST_SQL.
+    */
+   public int totalCost (final int hotelID, final int customer, final int firstDay, final int lastDay,
+                         RowHandler out) throws SQLException {
+      final Bookings b = this._bookings;
+      long[] total = scan (b.size, new Kernel<long[]>() {
+         public long[] scan (int from, int to) {
+            int[] hotel = b.hotel, customers = b.customer, day = b.day;
+            long[] cents = b.cents;
+            long sum = 0, n = 0;
+            for (int i = from; i < to; ++i){
+               if (hotel[i] == hotelID && customers[i] == customer && day[i] >= firstDay && day[i] <= lastDay){
+                  sum += cents[i];
+                  ++n;
+               }//end if
+            }//end for
+            return new long[] { sum, n };
+         }
+         public long[] merge (long[] left, long[] right) {
+            return new long[] { left[0] + right[0], left[1] + right[1] };
+         }
+      });
+      out.start ("sum");
+      out.row (total[1] == 0 ? null : BigDecimal.valueOf (total[0], 2));
+      out.end ();
+      return 1;
+   }//end totalCost
+
+   /**
+    * Passes the names of the k maintenance companies with the most repairs
+    * to the handler, like DBOperations.TOP_K_MAINTENANCE_COMPANY_SQL.
+    */
+   public int topKCompanies (int k, RowHandler out) throws SQLException {
+      final Repairs r = this._repairs;
+      long[] counts = scan (r.size, new Kernel<long[]>() {
+         public long[] scan (int from, int to) {
+            int[] company = r.company;
+            long[] n = new long[r.companies];
+            for (int i = from; i < to; ++i)
+               ++n[company[i]];
+            return n;
+         }
+         public long[] merge (long[] left, long[] right) {
+            for (int i = 0; i < left.length; ++i)
+               left[i] += right[i];
+            return left;
+         }
+      });
+
+      // companies are grouped by name, as in the query
+      Map<Integer, String> names = this._companyNames;
+      final Map<String, Long> byName = new HashMap<String, Long>();
+      for (int code = 0; code < counts.length; ++code){
+         String name = names.get (r.companyIDs[code]);
+         if (name == null || counts[code] == 0)
+            continue;
+         Long count = byName.get (name);
+         byName.put (name, (count == null ? 0 : count) + counts[code]);
+      }//end for
+      List<String> ranked = new ArrayList<String>(byName.keySet ());
+      Collections.sort (ranked, new Comparator<String>() {
+         public int compare (String a, String b) {
+            return byName.get (b).compareTo (byName.get (a));
+         }
+      });
+
+      out.start ("name");
+      int rows = Math.max (0, Math.min (k, ranked.size ()));
+      for (int i = 0; i < rows; ++i)
+         out.row (ranked.get (i));
+      out.end ();
+      return rows;
+   }//end topKCompanies
+
+   /**
+    * Passes the number of repairs of a room per year to the handler, like
+    * DBOperations.REPAIRS_PER_YEAR_SQL, ordered by year.
+    */
+   public int repairsPerYear (final int hotelID, final int roomNo, RowHandler out) throws SQLException {
+      final Repairs r = this._repairs;
+      Map<Integer, Long> years = scan (r.size, new Kernel<Map<Integer, Long>>() {
+         public Map<Integer, Long> scan (int from, int to) {
+            int[] hotel = r.hotel, room = r.room, day = r.day;
+            Map<Integer, Long> n = new TreeMap<Integer, Long>();
+            for (int i = from; i < to; ++i){
+               if (hotel[i] == hotelID && room[i] == roomNo){
+                  int year = EpochDays.year (day[i]);
+                  Long count = n.get (year);
+                  n.put (year, (count == null ? 0 : count) + 1);
+               }//end if
+            }//end for
+            return n;
+         }
+         public Map<Integer, Long> merge (Map<Integer, Long> left, Map<Integer, Long> right) {
+            for (Map.Entry<Integer, Long> entry : right.entrySet ()){
+               Long count = left.get (entry.getKey ());
+               left.put (entry.getKey (), (count == null ? 0 : count) + entry.getValue ());
+            }//end for
+            return left;
+         }
+      });
+      out.start ("date_part", "count");
+      for (Map.Entry<Integer, Long> entry : years.entrySet ())
+         out.row (entry.getKey (), entry.getValue ());
+      out.end ();
+      return years.size ();
+   }//end repairsPerYear
+
+   /**
+    * Returns the number of bookings and repairs held.
+    */
+   public String getStats () {
+      return this._bookings.size + " bookings, " + this._repairs.size + " repairs";
+   }//end getStats
+
+   /*
+    * Runs a kernel over the rows 0 to size, on the fork/join pool when
+    * there is more than one chunk
+    */
+   private static <R> R scan (int size, Kernel<R> kernel) {
+      if (size <= CHUNK)
+         return kernel.scan (0, size);
+      return POOL.invoke (new ScanTask<R>(kernel, 0, size));
+   }//end scan
+
+   /**
+    * A scan over a range of rows, and how two partial results combine.
+    */
+   interface Kernel<R> {
+      R scan (int from, int to);
+
+      R merge (R left, R right);
+   }//end Kernel
+
+   /**
+    * Splits a scan in halves down to one chunk.
+    */
+   private static class ScanTask<R> extends RecursiveTask<R> {
+      private static final long serialVersionUID = 1L;
+
+      final Kernel<R> kernel;
+      final int from, to;
+
+      ScanTask (Kernel<R> kernel, int from, int to) {
+         this.kernel = kernel;
+         this.from = from;
+         this.to = to;
+      }
+
+      protected R compute () {
+         if (this.to - this.from <= CHUNK)
+            return this.kernel.scan (this.from, this.to);
+         int middle = (this.from + this.to) >>> 1;
+         ScanTask<R> left = new ScanTask<R>(this.kernel, this.from, middle);
+         left.fork ();
+         R right = new ScanTask<R>(this.kernel, middle, this.to).compute ();
+         return this.kernel.merge (left.join (), right);
+      }
+   }//end ScanTask
+
+   /**
+    * The Booking columns.
+    */
+   private static class Bookings {
+      final int[] customer, hotel, day;
+      final long[] cents;
+      final int size;
+
+      Bookings (int capacity) {
+         this (new int[capacity], new int[capacity], new int[capacity], new long[capacity], 0);
+      }
+
+      Bookings (int[] customer, int[] hotel, int[] day, long[] cents, int size) {
+         this.customer = customer;
+         this.hotel = hotel;
+         this.day = day;
+         this.cents = cents;
+         this.size = size;
+      }
+
+      Bookings grow () {
+         int capacity = this.hotel.length * 2;
+         return new Bookings (Arrays.copyOf (this.customer, capacity), Arrays.copyOf (this.hotel, capacity),
+                              Arrays.copyOf (this.day, capacity), Arrays.copyOf (this.cents, capacity), this.size);
+      }
+
+      Bookings withSize (int size) {
+         return new Bookings (this.customer, this.hotel, this.day, this.cents, size);
+      }
+   }//end Bookings
+
+   /**
+    * The Repair columns, with the cmpID of each company code.
+    */
+   private static class Repairs {
+      final int[] hotel, room, company, day;
+      final int[] companyIDs;
+      final int size, companies;
+
+      Repairs (int capacity) {
+         this (new int[capacity], new int[capacity], new int[capacity], new int[capacity], new int[16], 0, 0);
+      }
+
+      Repairs (int[] hotel, int[] room, int[] company, int[] day, int[] companyIDs, int size, int companies) {
+         this.hotel = hotel;
+         this.room = room;
+         this.company = company;
+         this.day = day;
+         this.companyIDs = companyIDs;
+         this.size = size;
+         this.companies = companies;
+      }
+
+      Repairs grow () {
+         int capacity = this.hotel.length * 2;
+         return new Repairs (Arrays.copyOf (this.hotel, capacity), Arrays.copyOf (this.room, capacity),
+                             Arrays.copyOf (this.company, capacity), Arrays.copyOf (this.day, capacity),
+                             this.companyIDs, this.size, this.companies);
+      }
+
+      Repairs growCompanies () {
+         return new Repairs (this.hotel, this.room, this.company, this.day,
+                             Arrays.copyOf (this.companyIDs, this.companyIDs.length * 2), this.size, this.companies);
+      }
+
+      Repairs withSize (int size, int companies) {
+         return new Repairs (this.hotel, this.room, this.company, this.day, this.companyIDs, size, companies);
+      }
+   }//end Repairs
+
+}//end AnalyticsStore
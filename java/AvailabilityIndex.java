@@ -0,0 +1,171 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps an in-memory index of which rooms are booked on which
+ * day, so room availability is answered without a query.  For every hotel
+ * it numbers the rooms and keeps, per day with bookings, a bitmap with one
+ * bit per room.  A hotel with ten rooms therefore needs a single word per
+ * booked day, and days without bookings need nothing.
+ *
+ * The index is built from Room and Booking when the program starts and is
+ * updated by addRoom and bookRoom.  Rooms only enter it through addRoom;
+ * bookings of rooms it does not hold, such as those moved to room 0 when
+ * their room was deleted, are ignored, so they never count as rooms.
+ *
+ */
+public class AvailabilityIndex {
+
+   // hotelID -> rooms and bookings of the hotel
+   private final ConcurrentHashMap<Integer, Hotel> _hotels = new ConcurrentHashMap<Integer, Hotel>();
+
+   /**
+    * Reads every room and booking from the database into the index.
+    *
+    * @param db the connected database
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void load (DBProject db) throws SQLException {
+      PooledConnection conn = db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         Statement stmt = conn.getConnection ().createStatement ();
+         try{
+            DBProject.setFetchSize (stmt, DBProject.FETCH_SIZE * 10);
+            ResultSet rs = stmt.executeQuery ("SELECT hotelID, roomNo FROM Room");
+            while (rs.next ())
+               addRoom (rs.getInt (1), rs.getInt (2));
+            rs.close ();
+
+            rs = stmt.executeQuery ("SELECT hotelID, roomNo, bookingDate FROM Booking");
+            while (rs.next ())
+               book (rs.getInt (1), rs.getInt (2), EpochDays.parse (rs.getString (3)));
+            rs.close ();
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         db.release (conn);
+      }//end try
+   }//end load
+
+   /**
+    * Adds a room to the index.
+    */
+   public void addRoom (int hotelID, int roomNo) {
+      hotel (hotelID).addRoom (roomNo);
+   }//end addRoom
+
+   /**
+    * Marks a room as booked on the given day, if the index holds the room.
+    */
+   public void book (int hotelID, int roomNo, int epochDay) {
+      Hotel hotel = this._hotels.get (hotelID);
+      if (hotel != null)
+         hotel.book (roomNo, epochDay);
+   }//end book
+
+   /**
+    * Returns true if the room has a booking on the given day.
+    */
+   public boolean isBooked (int hotelID, int roomNo, int epochDay) {
+      Hotel hotel = this._hotels.get (hotelID);
+      return hotel != null && hotel.isBooked (roomNo, epochDay);
+   }//end isBooked
+
+   /**
+    * Returns the number of rooms of the hotel with no booking on the day.
+    */
+   public int availableCount (int hotelID, int epochDay) {
+      Hotel hotel = this._hotels.get (hotelID);
+      return hotel == null ? 0 : hotel.availableCount (epochDay);
+   }//end availableCount
+
+   /**
+    * Returns the numbers of the rooms of the hotel with no booking on the
+    * day, in the order the rooms were added.
+    */
+   public int[] availableRooms (int hotelID, int epochDay) {
+      Hotel hotel = this._hotels.get (hotelID);
+      return hotel == null ? new int[0] : hotel.availableRooms (epochDay);
+   }//end availableRooms
+
+   private Hotel hotel (int hotelID) {
+      Hotel hotel = this._hotels.get (hotelID);
+      if (hotel == null){
+         Hotel created = new Hotel ();
+         hotel = this._hotels.putIfAbsent (hotelID, created);
+         if (hotel == null)
+            hotel = created;
+      }//end if
+      return hotel;
+   }//end hotel
+
+   /**
+    * The rooms of one hotel and the bitmap of booked rooms per day.
+    */
+   private static class Hotel {
+      // bit number -> roomNo
+      int[] rooms = new int[8];
+      int roomCount = 0;
+
+      // roomNo -> bit number
+      final Map<Integer, Integer> bits = new HashMap<Integer, Integer>();
+
+      // epoch day -> rooms booked that day
+      final Map<Integer, BitSet> booked = new HashMap<Integer, BitSet>();
+
+      synchronized int addRoom (int roomNo) {
+         Integer bit = this.bits.get (roomNo);
+         if (bit != null)
+            return bit.intValue ();
+         if (this.roomCount == this.rooms.length){
+            int[] grown = new int[this.rooms.length * 2];
+            System.arraycopy (this.rooms, 0, grown, 0, this.roomCount);
+            this.rooms = grown;
+         }//end if
+         this.rooms[this.roomCount] = roomNo;
+         this.bits.put (roomNo, this.roomCount);
+         return this.roomCount++;
+      }
+
+      synchronized void book (int roomNo, int epochDay) {
+         Integer bit = this.bits.get (roomNo);
+         if (bit == null)
+            return;
+         BitSet day = this.booked.get (epochDay);
+         if (day == null){
+            day = new BitSet (this.roomCount);
+            this.booked.put (epochDay, day);
+         }//end if
+         day.set (bit);
+      }
+
+      synchronized boolean isBooked (int roomNo, int epochDay) {
+         Integer bit = this.bits.get (roomNo);
+         BitSet day = this.booked.get (epochDay);
+         return bit != null && day != null && day.get (bit);
+      }
+
+      synchronized int availableCount (int epochDay) {
+         BitSet day = this.booked.get (epochDay);
+         return this.roomCount - (day == null ? 0 : day.cardinality ());
+      }
+
+      synchronized int[] availableRooms (int epochDay) {
+         BitSet day = this.booked.get (epochDay);
+         int[] free = new int[availableCount (epochDay)];
+         int n = 0;
+         for (int bit = 0; bit < this.roomCount; ++bit)
+            if (day == null || !day.get (bit))
+               free[n++] = this.rooms[bit];
+         return free;
+      }
+   }//end Hotel
+
+}//end AvailabilityIndex
@@ -0,0 +1,99 @@
+import java.sql.SQLException;
+
+/**
+ * This class maintains the booked-room rollups, BookingDayRollup and
+ * BookingMonthRollup, which hold the number of bookings per hotel and day
+ * and per hotel and month.  bookRoom adds to both in the same transaction
+ * as the booking, so occupancy counts cost one index lookup instead of an
+ * aggregate over the hotel's booking history.
+ *
+ * If the rollups ever drift from Booking (for example after bookings were
+ * loaded or deleted by hand) they can be rebuilt with
+ *
+ *    java BookingRollups <dbname> <port> <user>
+ *
+ */
+public class BookingRollups {
+
+   static final String RECORD_DAY_SQL =
+      "INSERT INTO BookingDayRollup VALUES (?, ?::date, 1) "
+      + "ON CONFLICT (hotelID, day) DO UPDATE SET booked = BookingDayRollup.booked + 1";
+   static final String RECORD_MONTH_SQL =
+      "INSERT INTO BookingMonthRollup VALUES (?, date_trunc('month', ?::date)::date, 1) "
+      + "ON CONFLICT (hotelID, month) DO UPDATE SET booked = BookingMonthRollup.booked + 1";
+   // the same for several bookings of one hotel and day
+   static final String RECORD_DAY_COUNT_SQL =
+      "INSERT INTO BookingDayRollup VALUES (?, ?::date, ?) "
+      + "ON CONFLICT (hotelID, day) DO UPDATE SET booked = BookingDayRollup.booked + EXCLUDED.booked";
+   static final String RECORD_MONTH_COUNT_SQL =
+      "INSERT INTO BookingMonthRollup VALUES (?, date_trunc('month', ?::date)::date, ?) "
+      + "ON CONFLICT (hotelID, month) DO UPDATE SET booked = BookingMonthRollup.booked + EXCLUDED.booked";
+
+   static final String[] REBUILD_SQL = {
+      "LOCK TABLE Booking IN SHARE MODE",
+      "DELETE FROM BookingDayRollup",
+      "DELETE FROM BookingMonthRollup",
+      "INSERT INTO BookingDayRollup SELECT hotelID, bookingDate, COUNT(*) FROM Booking GROUP BY hotelID, bookingDate",
+      "INSERT INTO BookingMonthRollup SELECT hotelID, date_trunc('month', bookingDate)::date, COUNT(*) FROM Booking GROUP BY 1, 2",
+   };
+
+   private BookingRollups () {
+   }//end BookingRollups
+
+   /**
+    * Counts one new booking in the rollups.  Must run in the transaction
+    * that inserts the booking.
+    *
+    * @param conn the connection the booking was inserted on
+    * @param hotelID the hotel of the booking
+    * @param bookingDate the booking date as YYYY-MM-DD
+    * @throws java.sql.SQLException when the rollups cannot be updated
+    */
+   public static void record (PooledConnection conn, int hotelID, String bookingDate) throws SQLException {
+      conn.executeUpdate (RECORD_DAY_SQL, hotelID, bookingDate);
+      conn.executeUpdate (RECORD_MONTH_SQL, hotelID, bookingDate);
+   }//end record
+
+   /**
+    * Recomputes both rollups from Booking in one transaction.  Bookings are
+    * blocked while the rollups are rebuilt.
+    *
+    * @param db the connected database
+    * @throws java.sql.SQLException when the rebuild fails
+    */
+   public static void rebuild (DBProject db) throws SQLException {
+      PooledConnection conn = db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         for (String sql : REBUILD_SQL)
+            conn.executeUpdate (sql);
+         conn.getConnection ().commit ();
+      }finally{
+         db.release (conn);
+      }//end try
+   }//end rebuild
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + BookingRollups.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         DBProject.loadDriver ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         long start = System.nanoTime ();
+         rebuild (esql);
+         System.out.printf ("Rollups rebuilt in %.1f s%n", (System.nanoTime () - start) / 1e9);
+      }catch (Exception e){
+         System.err.println ("Rebuild failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BookingRollups
@@ -0,0 +1,293 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class rebuilds the database from sql/create.sql and the files in
+ * data/ without copying the files into the database server's folder.
+ *
+ * The create script is split into its statements and run in phases:
+ *
+ *    1. the DROP and CREATE statements that precede the data
+ *    2. every COPY, replaced by streaming the CSV file from the client;
+ *       the tables have no foreign keys yet, so they all load in parallel
+ *    3. the remaining statements (UPDATE, sequences, ...) in script order
+ *    4. the ALTER TABLE statements that add the foreign keys
+ *    5. optionally an index script, such as sql/create_indexes.sql
+ *
+ * Each file is read line by line and sent as batched inserts in a single
+ * transaction per table, so files of any size load in constant memory.
+ * The loader reports the number of rows and rows per second for each table.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> [dataDir] [createScript] [indexScript]
+ *
+ */
+public class BulkLoader {
+
+   // rows sent to the server per executeBatch call
+   static final int BATCH_SIZE = 1000;
+
+   // COPY <table>(<columns>) FROM '<file>' ...
+   private static final Pattern COPY = Pattern.compile (
+      "(?is)COPY\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*FROM\\s+'([^']+)'.*");
+
+   private final DBProject _db;
+   private final File _dataDir;
+
+   /**
+    * Creates a loader reading the CSV files from the given folder
+    *
+    * @param db the connected database
+    * @param dataDir the folder holding the CSV files named by the script
+    */
+   public BulkLoader (DBProject db, File dataDir) {
+      this._db = db;
+      this._dataDir = dataDir;
+   }//end BulkLoader
+
+   /**
+    * Runs a create script, loading the data of its COPY statements from the
+    * data folder.
+    *
+    * @param createScript the schema and data script, e.g. sql/create.sql
+    * @param indexScript an index script run after the load, or null
+    * @throws java.lang.Exception when a statement or a table load fails
+    */
+   public void load (File createScript, File indexScript) throws Exception {
+      List<String> schema = new ArrayList<String>();
+      List<String> afterLoad = new ArrayList<String>();
+      List<String> constraints = new ArrayList<String>();
+      List<Matcher> copies = new ArrayList<Matcher>();
+
+      for (String sql : readStatements (createScript)){
+         Matcher copy = COPY.matcher (sql);
+         if (copy.matches ())
+            copies.add (copy);
+         else if (sql.toUpperCase ().startsWith ("ALTER TABLE"))
+            constraints.add (sql);
+         else if (copies.isEmpty ())
+            schema.add (sql);
+         else
+            afterLoad.add (sql);
+      }//end for
+
+      long start = System.nanoTime ();
+      System.out.println ("Creating schema...");
+      run (schema);
+
+      System.out.println ("Loading " + copies.size () + " tables...");
+      ExecutorService workers = Executors.newFixedThreadPool (
+            Math.max (1, Math.min (copies.size (), DBProject.POOL_MAX_SIZE)));
+      try{
+         List<Future<String>> loads = new ArrayList<Future<String>>();
+         for (final Matcher copy : copies){
+            loads.add (workers.submit (new Callable<String>() {
+               public String call () throws Exception {
+                  return loadTable (copy.group (1), copy.group (2), new File (BulkLoader.this._dataDir, copy.group (3)));
+               }
+            }));
+         }//end for
+         for (Future<String> load : loads){
+            try{
+               System.out.println (load.get ());
+            }catch (ExecutionException e){
+               throw (Exception) e.getCause ();
+            }//end try
+         }//end for
+      }finally{
+         workers.shutdownNow ();
+      }//end try
+
+      System.out.println ("Running post-load statements...");
+      run (afterLoad);
+      System.out.println ("Adding " + constraints.size () + " constraints...");
+      run (constraints);
+      if (indexScript != null){
+         System.out.println ("Creating indexes...");
+         run (readStatements (indexScript));
+      }//end if
+      System.out.printf ("Done in %.1f s%n", (System.nanoTime () - start) / 1e9);
+   }//end load
+
+   /*
+    * Streams one CSV file into a table and returns a summary line
+    */
+   private String loadTable (String table, String columnList, File file) throws SQLException, IOException {
+      long start = System.nanoTime ();
+      long rows = 0;
+      PooledConnection pooled = this._db.borrow ();
+      try{
+         Connection conn = pooled.getConnection ();
+         String[] columns = columnList.split (",");
+         for (int i = 0; i < columns.length; ++i)
+            columns[i] = columns[i].trim ();
+
+         // cast every value to its column type, so text values are accepted
+         // for numeric, date and enum columns
+         String[] types = columnTypes (conn, table, columns);
+         StringBuilder sql = new StringBuilder ("INSERT INTO ").append (table).append (" (");
+         StringBuilder values = new StringBuilder ();
+         for (int i = 0; i < columns.length; ++i){
+            if (i > 0){
+               sql.append (", ");
+               values.append (", ");
+            }//end if
+            sql.append (columns[i]);
+            values.append ("?::").append (types[i]);
+         }//end for
+         sql.append (") VALUES (").append (values).append (')');
+
+         conn.setAutoCommit (false);
+         PreparedStatement stmt = conn.prepareStatement (sql.toString ());
+         BufferedReader reader = new BufferedReader (
+               new InputStreamReader (new FileInputStream (file), "UTF-8"), 1 << 16);
+         try{
+            String line;
+            while ((line = reader.readLine ()) != null){
+               if (line.isEmpty ())
+                  continue;
+               String[] fields = line.split (",", -1);
+               for (int i = 0; i < columns.length; ++i){
+                  String value = i < fields.length ? fields[i] : null;
+                  if (value == null || value.equals ("\\N"))
+                     stmt.setNull (i + 1, Types.VARCHAR);
+                  else
+                     stmt.setString (i + 1, value);
+               }//end for
+               stmt.addBatch ();
+               if (++rows % BATCH_SIZE == 0)
+                  stmt.executeBatch ();
+            }//end while
+            stmt.executeBatch ();
+            conn.commit ();
+         }finally{
+            reader.close ();
+            stmt.close ();
+         }//end try
+      }finally{
+         this._db.release (pooled);
+      }//end try
+
+      double seconds = (System.nanoTime () - start) / 1e9;
+      return String.format ("  %-20s %10d rows in %7.2f s (%.0f rows/s)",
+            table, rows, seconds, rows / Math.max (seconds, 1e-9));
+   }//end loadTable
+
+   /*
+    * Returns the database type name of each column, e.g. numeric or date
+    */
+   private static String[] columnTypes (Connection conn, String table, String[] columns) throws SQLException {
+      StringBuilder sql = new StringBuilder ("SELECT ");
+      for (int i = 0; i < columns.length; ++i)
+         sql.append (i > 0 ? ", " : "").append (columns[i]);
+      sql.append (" FROM ").append (table).append (" WHERE false");
+
+      Statement stmt = conn.createStatement ();
+      try{
+         ResultSetMetaData rsmd = stmt.executeQuery (sql.toString ()).getMetaData ();
+         String[] types = new String[columns.length];
+         for (int i = 0; i < columns.length; ++i)
+            types[i] = rsmd.getColumnTypeName (i + 1);
+         return types;
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end columnTypes
+
+   /*
+    * Runs statements one after another on one connection
+    */
+   private void run (List<String> statements) throws SQLException {
+      PooledConnection pooled = this._db.borrow ();
+      try{
+         Statement stmt = pooled.getConnection ().createStatement ();
+         try{
+            for (String sql : statements)
+               stmt.execute (sql);
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         this._db.release (pooled);
+      }//end try
+   }//end run
+
+   /*
+    * Splits a SQL script into statements, dropping comments
+    */
+   static List<String> readStatements (File script) throws IOException {
+      List<String> statements = new ArrayList<String>();
+      StringBuilder current = new StringBuilder ();
+      BufferedReader reader = new BufferedReader (new FileReader (script));
+      try{
+         boolean quoted = false;
+         String line;
+         while ((line = reader.readLine ()) != null){
+            for (int i = 0; i < line.length (); ++i){
+               char c = line.charAt (i);
+               if (c == '\'')
+                  quoted = !quoted;
+               if (!quoted && c == '-' && i + 1 < line.length () && line.charAt (i + 1) == '-')
+                  break;
+               if (!quoted && c == ';'){
+                  if (current.toString ().trim ().length () > 0)
+                     statements.add (current.toString ().trim ());
+                  current.setLength (0);
+               }else{
+                  current.append (c);
+               }//end if
+            }//end for
+            current.append ('\n');
+         }//end while
+      }finally{
+         reader.close ();
+      }//end try
+      if (current.toString ().trim ().length () > 0)
+         statements.add (current.toString ().trim ());
+      return statements;
+   }//end readStatements
+
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 6) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + BulkLoader.class.getName () +
+            " <dbname> <port> <user> [dataDir] [createScript] [indexScript]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         DBProject.loadDriver ();
+         File dataDir = new File (args.length > 3 ? args[3] : "../data");
+         File createScript = new File (args.length > 4 ? args[4] : "../sql/create.sql");
+         File indexScript = args.length > 5 ? new File (args[5]) : null;
+
+         esql = new DBProject (args[0], args[1], args[2], "");
+         new BulkLoader (esql, dataDir).load (createScript, indexScript);
+      }catch (Exception e){
+         System.err.println ("Load failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BulkLoader
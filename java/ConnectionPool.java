@@ -0,0 +1,358 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical connections to the
+ * database.  Operations borrow a connection, run their statements on it and
+ * give it back, so several sessions or worker threads can run at the same
+ * time without sharing one connection.
+ *
+ * The pool keeps at least minSize connections open and never more than
+ * maxSize, validates connections that have been idle for a while before
+ * handing them out, closes connections that stay idle beyond the idle
+ * timeout, reports connections that are held longer than the leak threshold
+ * and records how long callers wait for a connection.
+ *
+ */
+public class ConnectionPool {
+
+   // connections idle for less than this are handed out without validation
+   static final long VALIDATION_INTERVAL_MILLIS = 1000;
+
+   // how often idle eviction and leak detection run
+   static final long MAINTENANCE_INTERVAL_MILLIS = 5000;
+
+   // one borrow in this many records its call site for the leak report,
+   // a power of two; a leak that repeats is soon caught at a sampled borrow
+   static final int BORROW_SITE_SAMPLE = 64;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutMillis;
+   private final long _borrowTimeoutMillis;
+   private final long _leakThresholdMillis;
+   private final int _statementCacheSize;
+   private final int _serverPrepareThreshold;
+
+   // idle connections, most recently released first
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+   // connections currently handed out
+   private final List<PooledConnection> _borrowed = new ArrayList<PooledConnection>();
+
+   private final ReentrantLock _lock = new ReentrantLock ();
+   private final Condition _available = this._lock.newCondition ();
+
+   // number of connections open or being opened
+   private int _total = 0;
+   private boolean _closed = false;
+
+   // borrow statistics
+   private long _borrowCount = 0;
+   private long _waitCount = 0;
+   private long _timeoutCount = 0;
+   private long _totalWaitNanos = 0;
+   private long _maxWaitNanos = 0;
+
+   private final Thread _maintenance;
+
+   // receives every parameterized statement run on a borrowed connection
+   private volatile WorkloadRecorder _recorder = null;
+
+   /**
+    * Creates a new connection pool and opens the minimum number of
+    * connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open while idle
+    * @param maxSize the maximum number of open connections
+    * @param idleTimeoutMillis idle time after which surplus connections close
+    * @param borrowTimeoutMillis how long borrow waits for a free connection
+    * @param leakThresholdMillis hold time after which a borrow is reported,
+    *        or 0 to turn leak detection off
+    * @param statementCacheSize the number of statements kept per connection
+    * @param serverPrepareThreshold uses after which a statement is prepared
+    *        on the server
+    * @throws java.sql.SQLException when the initial connections fail to open
+    */
+   public ConnectionPool (String url, String user, String passwd,
+                          int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis,
+                          long leakThresholdMillis,
+                          int statementCacheSize, int serverPrepareThreshold) throws SQLException {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._leakThresholdMillis = leakThresholdMillis;
+      this._statementCacheSize = statementCacheSize;
+      this._serverPrepareThreshold = serverPrepareThreshold;
+
+      for (int i = 0; i < minSize; ++i){
+         this._idle.push (open ());
+         ++this._total;
+      }//end for
+
+      this._maintenance = new Thread (new Runnable () {
+         public void run () {
+            maintain ();
+         }
+      }, "ConnectionPool-maintenance");
+      this._maintenance.setDaemon (true);
+      this._maintenance.start ();
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection from the pool, opening a new one if none is idle
+    * and the pool is below its maximum size, or waiting for one to be
+    * released otherwise.
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection becomes available in
+    *         time or a new connection fails to open
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime ();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos (this._borrowTimeoutMillis);
+      boolean waited = false;
+
+      while (true){
+         PooledConnection conn = null;
+         boolean create = false;
+
+         this._lock.lock ();
+         try{
+            while (conn == null && !create){
+               if (this._closed)
+                  throw new SQLException ("Connection pool is closed");
+               if (!this._idle.isEmpty ()){
+                  conn = this._idle.pop ();
+               }else if (this._total < this._maxSize){
+                  ++this._total;
+                  create = true;
+               }else{
+                  long remaining = deadline - System.nanoTime ();
+                  if (remaining <= 0){
+                     ++this._timeoutCount;
+                     throw new SQLException ("Timed out after " + this._borrowTimeoutMillis
+                           + " ms waiting for a database connection (" + this._maxSize + " in use)");
+                  }//end if
+                  waited = true;
+                  try{
+                     this._available.awaitNanos (remaining);
+                  }catch (InterruptedException e){
+                     Thread.currentThread ().interrupt ();
+                     throw new SQLException ("Interrupted while waiting for a database connection");
+                  }//end try
+               }//end if
+            }//end while
+         }finally{
+            this._lock.unlock ();
+         }//end try
+
+         if (create){
+            try{
+               conn = open ();
+            }catch (SQLException e){
+               discard ();
+               throw e;
+            }//end try
+         }else if (System.currentTimeMillis () - conn.lastReleasedAt > VALIDATION_INTERVAL_MILLIS
+               && !conn.isValid ()){
+            // stale connection, drop it and try again
+            conn.close ();
+            discard ();
+            continue;
+         }//end if
+
+         checkOut (conn, System.nanoTime () - start, waited);
+         return conn;
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  Connections that were left
+    * inside a transaction are rolled back, and closed connections are
+    * dropped.
+    *
+    * @param conn the connection to give back
+    */
+   public void release (PooledConnection conn) {
+      boolean healthy;
+      try{
+         healthy = !conn.getConnection ().isClosed ();
+         if (healthy && !conn.getConnection ().getAutoCommit ()){
+            conn.getConnection ().rollback ();
+            conn.getConnection ().setAutoCommit (true);
+         }//end if
+      }catch (SQLException e){
+         healthy = false;
+      }//end try
+
+      this._lock.lock ();
+      try{
+         this._borrowed.remove (conn);
+         conn.borrowSite = null;
+         if (healthy && !this._closed){
+            conn.lastReleasedAt = System.currentTimeMillis ();
+            this._idle.push (conn);
+            this._available.signal ();
+            return;
+         }//end if
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      conn.close ();
+      discard ();
+   }//end release
+
+   /**
+    * Records the statements run on connections borrowed from now on, or
+    * stops recording when the recorder is null.
+    */
+   public void setRecorder (WorkloadRecorder recorder) {
+      this._recorder = recorder;
+   }//end setRecorder
+
+   /**
+    * Returns a one line summary of the pool size and borrow statistics.
+    */
+   public String getStats () {
+      this._lock.lock ();
+      try{
+         double avgWaitMillis = this._borrowCount == 0 ? 0.0
+               : this._totalWaitNanos / 1e6 / this._borrowCount;
+         return String.format ("open=%d idle=%d borrowed=%d borrows=%d waits=%d timeouts=%d "
+               + "avgWaitMs=%.3f maxWaitMs=%.3f",
+               this._total, this._idle.size (), this._borrowed.size (), this._borrowCount,
+               this._waitCount, this._timeoutCount, avgWaitMillis, this._maxWaitNanos / 1e6);
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end getStats
+
+   /**
+    * Closes every idle connection and stops handing out new ones.
+    * Connections still borrowed are closed when they are released.
+    */
+   public void close () {
+      this._maintenance.interrupt ();
+      List<PooledConnection> idle;
+      this._lock.lock ();
+      try{
+         this._closed = true;
+         idle = new ArrayList<PooledConnection>(this._idle);
+         this._total -= idle.size ();
+         this._idle.clear ();
+         this._available.signalAll ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      for (PooledConnection conn : idle)
+         conn.close ();
+   }//end close
+
+   // opens a new physical connection
+   private PooledConnection open () throws SQLException {
+      return new PooledConnection (DriverManager.getConnection (this._url, this._user, this._passwd),
+            this._statementCacheSize, this._serverPrepareThreshold);
+   }//end open
+
+   // records a connection being handed out
+   private void checkOut (PooledConnection conn, long waitNanos, boolean waited) {
+      this._lock.lock ();
+      try{
+         conn.borrowedAt = System.currentTimeMillis ();
+         // filling in a stack trace costs too much to do on every borrow
+         conn.borrowSite = this._leakThresholdMillis > 0 && (this._borrowCount & (BORROW_SITE_SAMPLE - 1)) == 0
+            ? new Throwable ("Connection borrowed here") : null;
+         conn.leakReported = false;
+         conn.recorder = this._recorder;
+         this._borrowed.add (conn);
+         ++this._borrowCount;
+         if (waited)
+            ++this._waitCount;
+         this._totalWaitNanos += waitNanos;
+         this._maxWaitNanos = Math.max (this._maxWaitNanos, waitNanos);
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end checkOut
+
+   // forgets a connection that was closed or failed to open
+   private void discard () {
+      this._lock.lock ();
+      try{
+         --this._total;
+         this._available.signal ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end discard
+
+   /*
+    * Periodically closes surplus idle connections and reports borrowed
+    * connections held longer than the leak threshold.
+    */
+   private void maintain () {
+      while (!Thread.currentThread ().isInterrupted ()){
+         try{
+            Thread.sleep (MAINTENANCE_INTERVAL_MILLIS);
+         }catch (InterruptedException e){
+            return;
+         }//end try
+
+         List<PooledConnection> expired = new ArrayList<PooledConnection>();
+         long now = System.currentTimeMillis ();
+         this._lock.lock ();
+         try{
+            // the oldest idle connections sit at the tail of the deque
+            Iterator<PooledConnection> it = this._idle.descendingIterator ();
+            while (it.hasNext () && this._total - expired.size () > this._minSize){
+               PooledConnection conn = it.next ();
+               if (now - conn.lastReleasedAt < this._idleTimeoutMillis)
+                  break;
+               it.remove ();
+               expired.add (conn);
+            }//end while
+            this._total -= expired.size ();
+            if (!expired.isEmpty ())
+               this._available.signalAll ();
+
+            for (PooledConnection conn : this._borrowed){
+               if (this._leakThresholdMillis > 0 && !conn.leakReported
+                   && now - conn.borrowedAt > this._leakThresholdMillis){
+                  conn.leakReported = true;
+                  System.err.println ("Possible connection leak: connection held for "
+                        + (now - conn.borrowedAt) + " ms"
+                        + (conn.borrowSite == null ? " (borrow site not sampled)" : ""));
+                  if (conn.borrowSite != null)
+                     conn.borrowSite.printStackTrace ();
+               }//end if
+            }//end for
+         }finally{
+            this._lock.unlock ();
+         }//end try
+
+         for (PooledConnection conn : expired)
+            conn.close ();
+      }//end while
+   }//end maintain
+
+}//end ConnectionPool
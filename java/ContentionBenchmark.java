@@ -0,0 +1,195 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This class measures how bookings scale with threads under the
+ * reservation ledger.  For 1, 2, 4, ... threads up to the given maximum it
+ * runs
+ *
+ *    - spread: every thread books rooms of its own hotel, through a ledger
+ *      with as many lock stripes as the one bookRoom uses
+ *    - one lock: the same bookings through a ledger with a single lock,
+ *      i.e. a table lock
+ *    - hot room: every thread books the same room on different days
+ *
+ * in memory: lock the room, check the availability index, mark the room
+ * booked, unlock.  It prints bookings per second and the speedup over one
+ * thread; spread should grow with the threads up to the number of cores,
+ * while one lock and hot room stay flat.
+ *
+ * With a database it then runs spread through DBOperations.bookRoom, on
+ * rooms of the database and days far after the loaded bookings, so the
+ * database and the connection pool are part of the measurement.  That adds
+ * rows, so run it against a scratch database.
+ *
+ * Usage: java ContentionBenchmark [threads=<cores>] [seconds=3]
+ *        [<dbname> <port> <user>]
+ *
+ */
+public class ContentionBenchmark {
+
+   // the days a room is booked on in memory before the bookings repeat
+   static final int DAYS = 3650;
+
+   // the first day booked in the database, 2100-01-01
+   static final int FIRST_DB_DAY = EpochDays.parse ("2100-01-01");
+
+   /**
+    * One booking attempt of a thread.
+    */
+   private interface Booker {
+      void book (int thread, long n) throws SQLException;
+   }//end Booker
+
+   /*
+    * Runs the booker on the given number of threads for the given time
+    * and returns the bookings per second
+    */
+   private static double run (final Booker booker, int threads, final long millis) throws Exception {
+      final AtomicLong done = new AtomicLong ();
+      final CountDownLatch start = new CountDownLatch (1);
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t){
+         final int thread = t;
+         workers[t] = new Thread ("booker-" + t) {
+            public void run () {
+               long n = 0;
+               try{
+                  start.await ();
+                  long end = System.currentTimeMillis () + millis;
+                  while (System.currentTimeMillis () < end)
+                     booker.book (thread, n++);
+               }catch (Exception e){
+                  synchronized (failure){
+                     failure[0] = e;
+                  }//end synchronized
+               }//end try
+               done.addAndGet (n);
+            }
+         };
+         workers[t].start ();
+      }//end for
+      long started = System.nanoTime ();
+      start.countDown ();
+      for (Thread worker : workers)
+         worker.join ();
+      double seconds = (System.nanoTime () - started) / 1e9;
+      if (failure[0] != null)
+         throw failure[0];
+      return done.get () / seconds;
+   }//end run
+
+   /*
+    * Books in memory through the ledger; every thread has its own hotel,
+    * or all of them share one room
+    */
+   private static Booker memory (final ReservationLedger ledger, final boolean hotRoom, int threads) {
+      final AvailabilityIndex availability = new AvailabilityIndex ();
+      for (int hotelID = 0; hotelID < threads; ++hotelID)
+         for (int roomNo = 1; roomNo <= 100; ++roomNo)
+            availability.addRoom (hotelID, roomNo);
+      return new Booker () {
+         public void book (int thread, long n) {
+            int hotelID = hotRoom ? 0 : thread;
+            int roomNo = hotRoom ? 1 : 1 + (int) (n / DAYS % 100);
+            int day = (int) (hotRoom ? (n * 64 + thread) % (DAYS * 64) : n % DAYS);
+            Lock room = ledger.lock (hotelID, roomNo);
+            try{
+               if (!availability.isBooked (hotelID, roomNo, day))
+                  availability.book (hotelID, roomNo, day);
+            }finally{
+               room.unlock ();
+            }//end try
+         }
+      };
+   }//end memory
+
+   private static void report (String name, int threads, double rate, double single) {
+      System.out.printf ("%-10s %7d %14.0f %8.2fx%n", name, threads, rate, rate / single);
+   }//end report
+
+   public static void main (String[] args) {
+      int maxThreads = Runtime.getRuntime ().availableProcessors ();
+      long millis = 3000;
+      int at = 0;
+      for (; at < args.length && args[at].indexOf ('=') > 0; ++at){
+         String[] option = args[at].split ("=", 2);
+         if (option[0].equals ("threads"))
+            maxThreads = Integer.parseInt (option[1]);
+         else if (option[0].equals ("seconds"))
+            millis = Long.parseLong (option[1]) * 1000;
+         else{
+            System.err.println ("Unrecognized option: " + args[at]);
+            return;
+         }//end if
+      }//end for
+      if (args.length - at != 0 && args.length - at != 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + ContentionBenchmark.class.getName () +
+            " [threads=<cores>] [seconds=3] [<dbname> <port> <user>]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         int stripes = DBOperations.RESERVATION_STRIPES_PER_CORE * Runtime.getRuntime ().availableProcessors ();
+         System.out.printf ("%-10s %7s %14s %9s%n", "workload", "threads", "bookings/s", "speedup");
+         String[] names = { "spread", "one lock", "hot room" };
+         for (int w = 0; w < names.length; ++w){
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2){
+               Booker booker = memory (new ReservationLedger (w == 1 ? 1 : stripes), w == 2, threads);
+               double rate = run (booker, threads, millis);
+               if (threads == 1)
+                  single = rate;
+               report (names[w], threads, rate, single);
+            }//end for
+         }//end for
+
+         if (args.length - at == 3) {
+            DBProject.loadDriver ();
+            esql = new DBProject (args[at], args[at + 1], args[at + 2], "");
+            final DBOperations ops = esql.getOperations ();
+            ops.loadIndexes ();
+            final Object[] customer = esql.executeQueryForResult (
+                  "SELECT fName, lName FROM Customer GROUP BY fName, lName HAVING COUNT(*) = 1 LIMIT 1")
+                  .getRows ().get (0);
+            final List<Object[]> rooms = esql.executeQueryForResult (
+                  "SELECT hotelID::int, roomNo::int FROM Room WHERE roomNo <> 0 ORDER BY hotelID, roomNo LIMIT 1024")
+                  .getRows ();
+            final AtomicLong nextDay = new AtomicLong (FIRST_DB_DAY);
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2){
+               // every thread has its rooms, every run its days
+               final int count = threads;
+               final long firstDay = nextDay.getAndAdd (20000);
+               Booker booker = new Booker () {
+                  public void book (int thread, long n) throws SQLException {
+                     int perThread = Math.max (1, rooms.size () / count);
+                     Object[] room = rooms.get ((thread * perThread + (int) (n % perThread)) % rooms.size ());
+                     String date = EpochDays.format ((int) (firstDay + n / perThread));
+                     ops.bookRoom ((Integer) room[0], ((String) customer[0]).trim (),
+                                   ((String) customer[1]).trim (), (Integer) room[1], date, 1, "100.00");
+                  }
+               };
+               double rate = run (booker, threads, millis);
+               if (threads == 1)
+                  single = rate;
+               report ("database", threads, rate, single);
+            }//end for
+            System.out.println (ops.getLedger ().getStats ());
+            System.out.println (esql.getPoolStats ());
+         }//end if
+      }catch (Exception e){
+         System.err.println ("Benchmark failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end ContentionBenchmark
@@ -0,0 +1,121 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class resolves customer names to customer IDs from memory.  It keeps
+ * a hash index on the (fName, lName) pair, built from Customer when the
+ * program starts and updated by addCustomer, so booking and reporting
+ * operations no longer look known customers up with a query.  A name it
+ * does not hold is looked up in Customer through Customer_Name_Index and
+ * the customers found are added, so customers inserted by other programs
+ * since the load resolve too.
+ *
+ * Names are compared with trailing blanks removed, the way Postgres
+ * compares the CHAR(30) name columns.  A name shared by several customers
+ * is reported as ambiguous instead of resolving to one of them.
+ *
+ */
+public class CustomerDirectory {
+
+   // "fName\0lName" -> customer IDs with that name
+   private final Map<String, int[]> _byName = new HashMap<String, int[]>();
+
+   // the database names missing from the directory are looked up in, set
+   // by load
+   private volatile DBProject _db = null;
+
+   private static final String BY_NAME_SQL =
+      "SELECT customerID, fName, lName FROM Customer WHERE fName = ? AND lName = ?";
+
+   /**
+    * Reads every customer from the database into the directory.
+    *
+    * @param db the connected database
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public void load (DBProject db) throws SQLException {
+      this._db = db;
+      PooledConnection conn = db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         Statement stmt = conn.getConnection ().createStatement ();
+         try{
+            DBProject.setFetchSize (stmt, DBProject.FETCH_SIZE * 10);
+            ResultSet rs = stmt.executeQuery ("SELECT customerID, fName, lName FROM Customer");
+            while (rs.next ())
+               add (rs.getInt (1), rs.getString (2), rs.getString (3));
+            rs.close ();
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         db.release (conn);
+      }//end try
+   }//end load
+
+   /**
+    * Adds a customer to the directory.
+    */
+   public synchronized void add (int customerID, String firstName, String lastName) {
+      String key = key (firstName, lastName);
+      int[] ids = this._byName.get (key);
+      if (ids == null){
+         this._byName.put (key, new int[] { customerID });
+         return;
+      }//end if
+      for (int id : ids)
+         if (id == customerID)
+            return;
+      int[] grown = new int[ids.length + 1];
+      System.arraycopy (ids, 0, grown, 0, ids.length);
+      grown[ids.length] = customerID;
+      this._byName.put (key, grown);
+   }//end add
+
+   /**
+    * Returns the ID of the one customer with the given name, looking it up
+    * in the database when the directory does not hold it.
+    *
+    * @throws java.sql.SQLException when no customer or more than one
+    *         customer has the name
+    */
+   public int resolve (String firstName, String lastName) throws SQLException {
+      int[] ids = lookup (firstName, lastName);
+      DBProject db = this._db;
+      if (ids == null && db != null){
+         for (Object[] row : db.executeQueryForResult (BY_NAME_SQL, firstName, lastName).getRows ())
+            add (((Number) row[0]).intValue (), (String) row[1], (String) row[2]);
+         ids = lookup (firstName, lastName);
+      }//end if
+      if (ids == null)
+         throw new SQLException ("User does not exist");
+      if (ids.length > 1){
+         StringBuilder sb = new StringBuilder ("Ambiguous customer name ")
+            .append (firstName.trim ()).append (' ').append (lastName.trim ())
+            .append (": matches customers");
+         for (int i = 0; i < ids.length; ++i)
+            sb.append (i == 0 ? " " : ", ").append (ids[i]);
+         throw new SQLException (sb.toString ());
+      }//end if
+      return ids[0];
+   }//end resolve
+
+   private synchronized int[] lookup (String firstName, String lastName) {
+      return this._byName.get (key (firstName, lastName));
+   }//end lookup
+
+   private static String key (String firstName, String lastName) {
+      return stripTrailing (firstName) + '\0' + stripTrailing (lastName);
+   }//end key
+
+   private static String stripTrailing (String s) {
+      int end = s.length ();
+      while (end > 0 && s.charAt (end - 1) == ' ')
+         --end;
+      return s.substring (0, end);
+   }//end stripTrailing
+
+}//end CustomerDirectory
@@ -0,0 +1,425 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures the throughput and latency of the sixteen hotel
+ * operations through DBOperations, the same code path the menu and the
+ * service mode use, so the connection pool, statement cache, in-memory
+ * indexes and result streaming are all part of what is measured.
+ *
+ * Parameters are drawn at random from the loaded data: hotels, rooms,
+ * customers with a unique name, companies, staff, repairs and the range of
+ * booking dates.  The data scale is therefore the size of the database the
+ * benchmark runs against; load a larger dataset with BulkLoader to measure
+ * at a larger scale.  The table sizes are printed with the results.
+ *
+ * Each operation runs on the given number of threads, first for a warmup
+ * period that is not measured, then for the measured period.  For every
+ * operation the benchmark reports operations per second, mean and
+ * percentile latencies in microseconds, and the number of failed calls.
+ *
+ * The write operations add rows, so run the benchmark against a scratch
+ * database.
+ *
+ * Usage: java DBBenchmark <dbname> <port> <user> [threads=4] [warmup=2]
+ *        [seconds=10] [sample=10000] [ops=bookRoom,numberOfBookedRooms,...]
+ *
+ */
+public class DBBenchmark {
+
+   static final String[] TABLES = {
+      "Hotel", "Room", "Customer", "Staff", "MaintenanceCompany", "Booking", "Repair",
+      "Request", "Assigned"
+   };
+
+   private final DBProject _db;
+   private final DBOperations _ops;
+
+   // parameter values sampled from the database
+   private int[] _hotels;
+   private int[][] _rooms;
+   private String[][] _customers;
+   private String[] _companies;
+   private int[] _companyIDs;
+   private int[] _cleaners;
+   private int[] _managers;
+   private int[] _repairs;
+   private int _firstDay;
+   private int _lastDay;
+
+   // keys for the rows the write operations add
+   private AtomicInteger _nextCustomer;
+   private AtomicInteger _nextRoom;
+   private AtomicInteger _nextCompany;
+   private AtomicInteger _nextRepair;
+
+   /**
+    * Creates a benchmark for the given database.
+    *
+    * @param db the connected database, with its indexes loaded
+    */
+   public DBBenchmark (DBProject db) {
+      this._db = db;
+      this._ops = db.getOperations ();
+   }//end DBBenchmark
+
+   /**
+    * Samples the parameter values from the database.
+    *
+    * @param sample the most values to sample per kind of parameter
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void prepare (int sample) throws SQLException {
+      this._hotels = ints (this._db.executeQueryForResult (
+            "SELECT hotelID FROM Hotel ORDER BY random() LIMIT ?", sample), 0);
+      QueryResult rooms = this._db.executeQueryForResult (
+            "SELECT hotelID, roomNo FROM Room ORDER BY random() LIMIT ?", sample);
+      this._rooms = new int[][] { ints (rooms, 0), ints (rooms, 1) };
+      QueryResult names = this._db.executeQueryForResult (
+            "SELECT fName, lName FROM Customer GROUP BY fName, lName HAVING COUNT(*) = 1 ORDER BY random() LIMIT ?",
+            sample);
+      this._customers = new String[][] { strings (names, 0), strings (names, 1) };
+      QueryResult companies = this._db.executeQueryForResult (
+            "SELECT MIN(cmpID), name FROM MaintenanceCompany GROUP BY name HAVING COUNT(*) = 1 ORDER BY random() LIMIT ?",
+            sample);
+      this._companyIDs = ints (companies, 0);
+      this._companies = strings (companies, 1);
+      this._cleaners = ints (this._db.executeQueryForResult (
+            "SELECT SSN FROM Staff WHERE role = 'HouseCleaning' ORDER BY random() LIMIT ?", sample), 0);
+      this._managers = ints (this._db.executeQueryForResult (
+            "SELECT SSN FROM Staff WHERE role = 'Manager' ORDER BY random() LIMIT ?", sample), 0);
+      this._repairs = ints (this._db.executeQueryForResult (
+            "SELECT rID FROM Repair ORDER BY random() LIMIT ?", sample), 0);
+
+      QueryResult dates = this._db.executeQueryForResult (
+            "SELECT MIN(bookingDate), MAX(bookingDate) FROM Booking");
+      Object[] range = dates.getRows ().get (0);
+      this._firstDay = range[0] == null ? EpochDays.of (2000, 1, 1) : EpochDays.parse (range[0].toString ());
+      this._lastDay = range[1] == null ? EpochDays.of (2020, 12, 31) : EpochDays.parse (range[1].toString ());
+
+      this._nextCustomer = new AtomicInteger (max ("customerID", "Customer"));
+      this._nextRoom = new AtomicInteger (max ("roomNo", "Room"));
+      this._nextCompany = new AtomicInteger (max ("cmpID", "MaintenanceCompany"));
+      this._nextRepair = new AtomicInteger (max ("rID", "Repair"));
+   }//end prepare
+
+   /**
+    * Prints the number of rows of every table.
+    */
+   public void printScale () throws SQLException {
+      StringBuilder sb = new StringBuilder ("Data:");
+      for (String table : TABLES){
+         Integer rows = this._db.executeScalarInt ("SELECT COUNT(*) FROM " + table);
+         sb.append (' ').append (table).append ('=').append (rows);
+      }//end for
+      System.out.println (sb);
+   }//end printScale
+
+   /**
+    * Returns the operations, in the order of the main menu.
+    */
+   List<Operation> operations () {
+      List<Operation> ops = new ArrayList<Operation>();
+      ops.add (new Operation ("addCustomer") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int id = _nextCustomer.incrementAndGet ();
+            _ops.addCustomer (id, "bench" + id, "bench", "bench", "0", "1990-01-01", "Other");
+         }
+      });
+      ops.add (new Operation ("addRoom") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.addRoom (pick (r, _hotels), _nextRoom.incrementAndGet (), "Suite");
+         }
+      });
+      ops.add (new Operation ("addMaintenanceCompany") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int id = _nextCompany.incrementAndGet ();
+            _ops.addMaintenanceCompany (id, "bench" + id, "bench", "TRUE");
+         }
+      });
+      ops.add (new Operation ("addRepair") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int room = r.nextInt (_rooms[0].length);
+            _ops.addRepair (_nextRepair.incrementAndGet (), _rooms[0][room], _rooms[1][room],
+                  pick (r, _companyIDs), date (r), "bench", "Small");
+         }
+      });
+      ops.add (new Operation ("bookRoom") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int room = r.nextInt (_rooms[0].length);
+            int customer = r.nextInt (_customers[0].length);
+            _ops.bookRoom (_rooms[0][room], _customers[0][customer], _customers[1][customer],
+                  _rooms[1][room], date (r), 1 + r.nextInt (4), (50 + r.nextInt (450)) + ".00");
+         }
+      });
+      ops.add (new Operation ("assignHouseCleaningToRoom") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int room = r.nextInt (_rooms[0].length);
+            _ops.assignHouseCleaningToRoom (pick (r, _cleaners), _rooms[0][room], _rooms[1][room]);
+         }
+      });
+      ops.add (new Operation ("repairRequest") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.repairRequest (pick (r, _repairs), pick (r, _managers), date (r));
+         }
+      });
+      ops.add (new Operation ("numberOfAvailableRooms") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.numberOfAvailableRooms (pick (r, _hotels), date (r), out);
+         }
+      });
+      ops.add (new Operation ("numberOfBookedRooms") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.numberOfBookedRooms (pick (r, _hotels), out);
+         }
+      });
+      ops.add (new Operation ("listHotelRoomBookingsForAWeek") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.listHotelRoomBookingsForAWeek (pick (r, _hotels), date (r), out);
+         }
+      });
+      ops.add (new Operation ("topKHighestRoomPriceForADateRange") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int first = day (r);
+            _ops.topKHighestRoomPriceForADateRange (10, EpochDays.format (first),
+                  EpochDays.format (first + 30), out);
+         }
+      });
+      ops.add (new Operation ("topKHighestPriceBookingsForACustomer") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int customer = r.nextInt (_customers[0].length);
+            _ops.topKHighestPriceBookingsForACustomer (_customers[0][customer],
+                  _customers[1][customer], 10, out);
+         }
+      });
+      ops.add (new Operation ("totalCostForCustomer") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int customer = r.nextInt (_customers[0].length);
+            int first = day (r);
+            _ops.totalCostForCustomer (pick (r, _hotels), _customers[0][customer],
+                  _customers[1][customer], EpochDays.format (first), EpochDays.format (first + 365), out);
+         }
+      });
+      ops.add (new Operation ("listRepairsMade") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.listRepairsMade (_companies[r.nextInt (_companies.length)], out);
+         }
+      });
+      ops.add (new Operation ("topKMaintenanceCompany") {
+         void run (Random r, RowHandler out) throws SQLException {
+            _ops.topKMaintenanceCompany (10, out);
+         }
+      });
+      ops.add (new Operation ("numberOfRepairsForEachRoomPerYear") {
+         void run (Random r, RowHandler out) throws SQLException {
+            int room = r.nextInt (_rooms[0].length);
+            _ops.numberOfRepairsForEachRoomPerYear (_rooms[0][room], _rooms[1][room], out);
+         }
+      });
+      return ops;
+   }//end operations
+
+   /**
+    * Runs one operation on the given number of threads for the warmup
+    * period and then for the measured period, and prints one result line.
+    */
+   public void run (final Operation op, int threads, int warmupSeconds, int seconds) throws InterruptedException {
+      if (!hasParameters ()){
+         System.out.printf ("%-36s skipped, the database has no rows to draw parameters from%n", op.name);
+         return;
+      }//end if
+      LatencyHistogram latencies = new LatencyHistogram ();
+      AtomicLong errors = new AtomicLong ();
+      String[] firstError = new String[1];
+      phase (op, threads, warmupSeconds, new LatencyHistogram (), new AtomicLong (), new String[1]);
+      long start = System.nanoTime ();
+      phase (op, threads, seconds, latencies, errors, firstError);
+      double elapsed = (System.nanoTime () - start) / 1e9;
+
+      System.out.printf ("%-36s %10.1f %9.1f %9.1f %9.1f %9.1f %9.1f %7d%n", op.name,
+            latencies.getCount () / elapsed, latencies.getMean () / 1e3,
+            latencies.getPercentile (50) / 1e3, latencies.getPercentile (95) / 1e3,
+            latencies.getPercentile (99) / 1e3, latencies.getMax () / 1e3, errors.get ());
+      if (firstError[0] != null)
+         System.out.println ("   first error: " + firstError[0]);
+   }//end run
+
+   /*
+    * Calls the operation from every thread until the period is over
+    */
+   private void phase (final Operation op, int threads, int seconds, final LatencyHistogram latencies,
+                       final AtomicLong errors, final String[] firstError) throws InterruptedException {
+      final long end = System.nanoTime () + seconds * 1000000000L;
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t){
+         final Random random = new Random (t * 7919L + op.name.hashCode ());
+         workers[t] = new Thread (op.name + "-" + t) {
+            public void run () {
+               Sink sink = new Sink ();
+               long now = System.nanoTime ();
+               while (now < end){
+                  try{
+                     op.run (random, sink);
+                  }catch (Exception e){
+                     errors.incrementAndGet ();
+                     synchronized (firstError){
+                        if (firstError[0] == null)
+                           firstError[0] = e.getMessage ();
+                     }//end synchronized
+                  }//end try
+                  long done = System.nanoTime ();
+                  latencies.record (done - now);
+                  now = done;
+               }//end while
+            }
+         };
+         workers[t].start ();
+      }//end for
+      for (Thread worker : workers)
+         worker.join ();
+   }//end phase
+
+   private boolean hasParameters () {
+      return this._hotels.length > 0 && this._rooms[0].length > 0 && this._customers[0].length > 0
+         && this._companies.length > 0 && this._cleaners.length > 0 && this._managers.length > 0
+         && this._repairs.length > 0;
+   }//end hasParameters
+
+   private String date (Random r) {
+      return EpochDays.format (day (r));
+   }//end date
+
+   private int day (Random r) {
+      return this._firstDay + r.nextInt (Math.max (1, this._lastDay - this._firstDay + 1));
+   }//end day
+
+   private static int pick (Random r, int[] values) {
+      return values[r.nextInt (values.length)];
+   }//end pick
+
+   private int max (String column, String table) throws SQLException {
+      Integer max = this._db.executeScalarInt ("SELECT MAX(" + column + ") FROM " + table);
+      return max == null ? 0 : max.intValue ();
+   }//end max
+
+   private static int[] ints (QueryResult result, int column) {
+      int[] values = new int[result.getRowCount ()];
+      for (int i = 0; i < values.length; ++i)
+         values[i] = ((Number) result.getRows ().get (i)[column]).intValue ();
+      return values;
+   }//end ints
+
+   private static String[] strings (QueryResult result, int column) {
+      String[] values = new String[result.getRowCount ()];
+      for (int i = 0; i < values.length; ++i)
+         values[i] = result.getRows ().get (i)[column].toString ();
+      return values;
+   }//end strings
+
+   /**
+    * One benchmarked operation, called with a per-thread random source and
+    * a handler that reads and discards the rows.
+    */
+   abstract static class Operation {
+      final String name;
+
+      Operation (String name) {
+         this.name = name;
+      }
+
+      abstract void run (Random r, RowHandler out) throws SQLException;
+   }//end Operation
+
+   /**
+    * Reads every column of every row and throws the values away, so the
+    * cost of fetching a result is measured without the cost of printing it.
+    */
+   static class Sink implements RowHandler {
+      long values = 0;
+
+      public void start (ResultSetMetaData rsmd) {
+      }
+
+      public void start (String... columns) {
+      }
+
+      public void row (ResultSet rs) throws SQLException {
+         int numCol = rs.getMetaData ().getColumnCount ();
+         for (int i = 1; i <= numCol; ++i)
+            if (rs.getObject (i) != null)
+               ++this.values;
+      }
+
+      public void row (Object... values) {
+         this.values += values.length;
+      }
+
+      public void end () {
+      }
+   }//end Sink
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + DBBenchmark.class.getName () +
+            " <dbname> <port> <user> [threads=4] [warmup=2] [seconds=10] [sample=10000]" +
+            " [ops=<operation>,...]");
+         return;
+      }//end if
+
+      int threads = 4, warmup = 2, seconds = 10, sample = 10000;
+      List<String> only = null;
+      for (int i = 3; i < args.length; ++i){
+         String[] option = args[i].split ("=", 2);
+         if (option.length != 2){
+            System.err.println ("Unrecognized option: " + args[i]);
+            return;
+         }//end if
+         if (option[0].equals ("threads"))
+            threads = Integer.parseInt (option[1]);
+         else if (option[0].equals ("warmup"))
+            warmup = Integer.parseInt (option[1]);
+         else if (option[0].equals ("seconds"))
+            seconds = Integer.parseInt (option[1]);
+         else if (option[0].equals ("sample"))
+            sample = Integer.parseInt (option[1]);
+         else if (option[0].equals ("ops"))
+            only = Arrays.asList (option[1].split (","));
+         else{
+            System.err.println ("Unrecognized option: " + args[i]);
+            return;
+         }//end if
+      }//end for
+
+      DBProject esql = null;
+      try{
+         DBProject.loadDriver ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         esql.getOperations ().loadIndexes ();
+         DBBenchmark bench = new DBBenchmark (esql);
+         bench.printScale ();
+         bench.prepare (sample);
+         System.out.printf ("threads=%d warmup=%ds seconds=%ds, latencies in microseconds%n",
+               threads, warmup, seconds);
+         System.out.printf ("%-36s %10s %9s %9s %9s %9s %9s %7s%n", "operation", "ops/s", "mean",
+               "p50", "p95", "p99", "max", "errors");
+         for (Operation op : bench.operations ())
+            if (only == null || only.contains (op.name))
+               bench.run (op, threads, warmup, seconds);
+         System.out.println (esql.getPoolStats ());
+      }catch (Exception e){
+         System.err.println ("Benchmark failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end DBBenchmark
@@ -0,0 +1,819 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This class implements the seventeen hotel operations of the main menu as
+ * plain methods that take their inputs as arguments.  The interactive menu
+ * in DBProject collects the inputs from the keyboard and calls these
+ * methods, and the service mode calls them for each request it receives.
+ *
+ * Every method is safe to call from several threads at once; each call
+ * borrows its own connection from the pool.
+ *
+ * When the functions of sql/functions.sql are installed, bookRoom,
+ * assignHouseCleaningToRoom and repairRequest call them, so each write is
+ * a single round trip that returns the new row.
+ *
+ * The reports that query the database are read with readQuery, which may
+ * send them to a replica; the writes mark the calling thread as having
+ * written, so its next reads see its writes.
+ *
+ * With a result cache set, those reports are answered from it while the
+ * tables they read are unchanged; every write tells the cache which table
+ * it changed.  The changes other instances make reach the caches through
+ * applyChanges (see InvalidationBus).
+ *
+ */
+public class DBOperations {
+
+   static final String ADD_CUSTOMER_SQL =
+      "INSERT INTO Customer VALUES (?, ?, ?, ?, ?::numeric, ?::date, ?::GenderType)";
+   static final String ADD_ROOM_SQL =
+      "INSERT INTO Room VALUES (?, ?, ?)";
+   static final String ADD_MAINTENANCE_COMPANY_SQL =
+      "INSERT INTO MaintenanceCompany VALUES (?, ?, ?, ?::boolean)";
+   static final String ADD_REPAIR_SQL =
+      "INSERT INTO Repair VALUES (?, ?, ?, ?, ?::date, ?, ?)";
+   static final String BOOK_ROOM_SQL =
+      "INSERT INTO Booking VALUES (?, ?, ?, ?, ?::date, ?, ?::numeric)";
+   static final String ASSIGN_SQL =
+      "INSERT INTO Assigned VALUES (?, ?, ?, ?)";
+   static final String FREE_ROOMS_SQL =
+      "SELECT R.roomNo FROM Room R WHERE R.hotelID = ? AND R.roomType = ? AND R.roomNo <> 0 AND NOT EXISTS "
+      + "(SELECT 1 FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate = ?::date) "
+      + "ORDER BY R.roomNo";
+   static final String REPAIR_REQUEST_SQL =
+      "INSERT INTO Request VALUES (?, ?, ?, ?::date)";
+   // the server-side functions of sql/functions.sql
+   static final String BOOK_ROOM_FUNCTION_SQL =
+      "SELECT * FROM book_room(?, ?, ?, ?, ?, ?::date, ?, ?::numeric)";
+   static final String ASSIGN_FUNCTION_SQL =
+      "SELECT * FROM assign_house_cleaning(?, ?, ?, ?)";
+   static final String REPAIR_REQUEST_FUNCTION_SQL =
+      "SELECT * FROM repair_request(?, ?, ?, ?::date)";
+   static final String FUNCTIONS_INSTALLED_SQL =
+      "SELECT COUNT(DISTINCT proname)::int FROM pg_proc WHERE proname IN ('book_room', 'assign_house_cleaning', 'repair_request')";
+   static final String BOOKED_ROOMS_SQL =
+      "SELECT COALESCE(SUM(booked), 0) AS count FROM BookingMonthRollup WHERE hotelID = ?";
+   static final String BOOKINGS_FOR_A_WEEK_SQL =
+      "SELECT Booking.roomNo FROM Booking WHERE (Booking.hotelID = ? AND Booking.bookingDate BETWEEN ?::date AND ?::date + 7) GROUP BY Booking.roomNo";
+   static final String TOP_K_CUSTOMER_BOOKINGS_SQL =
+      "SELECT b.price FROM Booking AS b WHERE b.customer = ? ORDER BY b.price DESC LIMIT ?";
+   static final String TOTAL_COST_SQL =
+      "SELECT SUM(price) FROM Booking WHERE Booking.hotelID = ? AND Booking.customer = ? AND Booking.bookingDate BETWEEN ?::date AND ?::date";
+   static final String REPAIRS_MADE_SQL =
+      "SELECT repairType, hotelID, roomNo FROM Repair WHERE Repair.mCompany=(SELECT cmpID FROM MaintenanceCompany WHERE MaintenanceCompany.name = ?)";
+   static final String TOP_K_MAINTENANCE_COMPANY_SQL =
+      "SELECT M.name FROM maintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY COUNT(*) DESC LIMIT ?";
+   static final String REPAIRS_PER_YEAR_SQL =
+      "SELECT DATE_PART('year', repairDate), COUNT(*) FROM Repair WHERE Repair.hotelID = ? AND Repair.roomNo = ? GROUP BY DATE_PART('year', repairDate)";
+
+   // the tables each cached report reads; the booking rollups change
+   // only with Booking
+   private static final String[] BOOKING_TABLES = { "Booking" };
+   private static final String[] REPAIR_TABLES = { "Repair" };
+   private static final String[] REPAIR_COMPANY_TABLES = { "Repair", "MaintenanceCompany" };
+
+   // the rows other instances inserted, by key; Room is keyed "hotelID,roomNo"
+   // and gets one array per key column, so its primary key is used
+   static final String CHANGED_CUSTOMERS_SQL =
+      "SELECT customerID, fName, lName FROM Customer WHERE customerID = ANY(?::numeric[])";
+   static final String CHANGED_ROOMS_SQL =
+      "SELECT hotelID, roomNo, roomType FROM Room "
+      + "WHERE (hotelID, roomNo) IN (SELECT * FROM unnest(?::numeric[], ?::numeric[]))";
+   static final String CHANGED_COMPANIES_SQL =
+      "SELECT cmpID, name FROM MaintenanceCompany WHERE cmpID = ANY(?::numeric[])";
+   static final String CHANGED_REPAIRS_SQL =
+      "SELECT rID, hotelID, roomNo, mCompany, repairDate FROM Repair WHERE rID = ANY(?::numeric[])";
+   static final String CHANGED_BOOKINGS_SQL =
+      "SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking WHERE bID = ANY(?::numeric[])";
+
+   // room locks per core of the reservation ledger
+   static final int RESERVATION_STRIPES_PER_CORE = 64;
+
+   // how often bookRooms chooses rooms again when others booked the ones
+   // it chose
+   static final int GROUP_BOOKING_ATTEMPTS = 3;
+
+   // the tables the in-memory indexes are built from; they only take
+   // inserts, so any other change of these reloads them
+   private static final List<String> INDEXED_TABLES =
+      Arrays.asList ("customer", "room", "maintenancecompany", "repair", "booking");
+
+   // the database the operations run against
+   private final DBProject _db;
+
+   // source of new keys for Booking, Assigned and Request
+   private final IdAllocator _ids;
+
+   // booked rooms per hotel and day, answers room availability
+   private volatile AvailabilityIndex _availability = new AvailabilityIndex ();
+
+   // bookings per day ordered by price, answers top k prices for a range
+   private volatile TopKPriceIndex _topPrices = new TopKPriceIndex ();
+
+   // locks a room while its booking is decided, so it is booked at most
+   // once per day
+   private final ReservationLedger _ledger =
+      new ReservationLedger (RESERVATION_STRIPES_PER_CORE * Runtime.getRuntime ().availableProcessors ());
+
+   // customer IDs by name, resolves the names given to the operations
+   private volatile CustomerDirectory _customers = new CustomerDirectory ();
+
+   // latency, error, row and round trip counts per operation
+   private final Metrics _metrics = new Metrics ();
+
+   // columnar copy of Booking and Repair answering the reports, or null
+   // to answer them from the database
+   private volatile AnalyticsStore _analytics = null;
+
+   // commits bookings, repairs and assignments in groups, or null to
+   // commit each on its own
+   private volatile GroupCommitter _writes = null;
+
+   // true when the functions of sql/functions.sql are installed
+   private volatile boolean _serverFunctions = false;
+
+   // recent report results, or null to read every report from the database
+   private volatile ResultCache _cache = null;
+
+   /**
+    * Creates the operations for the given database
+    *
+    * @param db the connected database
+    * @param ids the allocator new booking, assignment and request keys
+    *        are taken from
+    */
+   public DBOperations (DBProject db, IdAllocator ids) {
+      this._db = db;
+      this._ids = ids;
+   }//end DBOperations
+
+   /**
+    * Builds the in-memory indexes from the current contents of the
+    * database.  Must be called before the operations are used.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void loadIndexes () throws SQLException {
+      this._availability.load (this._db);
+      this._topPrices.load (this._db);
+      this._customers.load (this._db);
+      Integer functions = this._db.executeScalarInt (FUNCTIONS_INSTALLED_SQL);
+      this._serverFunctions = functions != null && functions == 3;
+   }//end loadIndexes
+
+   /**
+    * Builds the in-memory indexes again and drops the cached results,
+    * for when changes of the database may have been missed.  The
+    * analytics store is reloaded too.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void reloadCaches () throws SQLException {
+      AvailabilityIndex availability = new AvailabilityIndex ();
+      availability.load (this._db);
+      TopKPriceIndex topPrices = new TopKPriceIndex ();
+      topPrices.load (this._db);
+      CustomerDirectory customers = new CustomerDirectory ();
+      customers.load (this._db);
+      this._availability = availability;
+      this._topPrices = topPrices;
+      this._customers = customers;
+
+      AnalyticsStore analytics = this._analytics;
+      if (analytics != null)
+         analytics.reload ();
+      ResultCache cache = this._cache;
+      if (cache != null)
+         cache.clear ();
+   }//end reloadCaches
+
+   /**
+    * Applies changes made to the database by other programs: the cached
+    * results of the changed tables are dropped and the inserted rows are
+    * added to the in-memory indexes.  Rows this program inserted itself
+    * may be passed again.
+    *
+    * @param inserted table name in lower case -> keys of the inserted rows
+    * @param rewritten the tables with updated or deleted rows
+    * @return true if every cache was reloaded because an indexed table
+    *         was rewritten
+    * @throws java.sql.SQLException when the changed rows cannot be read
+    */
+   public boolean applyChanges (Map<String, List<String>> inserted, Set<String> rewritten) throws SQLException {
+      for (String table : rewritten){
+         if (INDEXED_TABLES.contains (table)){
+            reloadCaches ();
+            return true;
+         }//end if
+         changed (table);
+      }//end for
+      for (String table : inserted.keySet ())
+         changed (table);
+
+      // rooms before bookings, which are only indexed for known rooms
+      List<String> keys = inserted.get ("customer");
+      if (keys != null)
+         for (Object[] row : changedRows (CHANGED_CUSTOMERS_SQL, keys))
+            this._customers.add (intValue (row[0]), (String) row[1], (String) row[2]);
+      keys = inserted.get ("room");
+      if (keys != null){
+         for (Object[] row : changedRows (CHANGED_ROOMS_SQL, keys)){
+            this._availability.addRoom (intValue (row[0]), intValue (row[1]));
+            this._topPrices.addRoom (intValue (row[0]), intValue (row[1]), (String) row[2]);
+         }//end for
+      }//end if
+      keys = inserted.get ("booking");
+      if (keys != null){
+         AnalyticsStore analytics = this._analytics;
+         for (Object[] row : changedRows (CHANGED_BOOKINGS_SQL, keys)){
+            int day = EpochDays.parse (row[4].toString ());
+            BigDecimal price = (BigDecimal) row[6];
+            this._availability.book (intValue (row[2]), intValue (row[3]), day);
+            this._topPrices.book (intValue (row[0]), intValue (row[1]), intValue (row[2]), intValue (row[3]),
+                                  day, intValue (row[5]), price.toPlainString ());
+            if (analytics != null)
+               analytics.book (intValue (row[0]), intValue (row[1]), intValue (row[2]), day, price);
+         }//end for
+      }//end if
+
+      AnalyticsStore analytics = this._analytics;
+      if (analytics != null){
+         keys = inserted.get ("maintenancecompany");
+         if (keys != null)
+            for (Object[] row : changedRows (CHANGED_COMPANIES_SQL, keys))
+               analytics.addCompany (intValue (row[0]), (String) row[1]);
+         keys = inserted.get ("repair");
+         if (keys != null)
+            for (Object[] row : changedRows (CHANGED_REPAIRS_SQL, keys))
+               analytics.repair (intValue (row[0]), intValue (row[1]), intValue (row[2]), intValue (row[3]),
+                                 EpochDays.parse (row[4].toString ()));
+      }//end if
+      return false;
+   }//end applyChanges
+
+   /**
+    * Returns the metrics of the operations.
+    */
+   public Metrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * Returns the ledger that keeps rooms from being booked twice a day.
+    */
+   public ReservationLedger getLedger () {
+      return this._ledger;
+   }//end getLedger
+
+   /**
+    * Answers the reporting operations from the given analytics store, or
+    * from the database again when it is null.
+    */
+   public void setAnalytics (AnalyticsStore analytics) {
+      this._analytics = analytics;
+   }//end setAnalytics
+
+   /**
+    * Commits bookRoom, addRepair and assignHouseCleaningToRoom through the
+    * given group committer, or each on its own again when it is null.
+    */
+   public void setGroupCommitter (GroupCommitter writes) {
+      this._writes = writes;
+   }//end setGroupCommitter
+
+   /**
+    * Answers the reports that query the database from the given cache
+    * while their tables are unchanged, or always from the database when it
+    * is null.
+    */
+   public void setResultCache (ResultCache cache) {
+      this._cache = cache;
+      this._metrics.setCache (cache);
+   }//end setResultCache
+
+   public void addCustomer (int customerID, String firstName, String lastName, String address,
+                            String phone, String dateOfBirth, String gender) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("addCustomer");
+      try{
+         this._db.executeUpdate (ADD_CUSTOMER_SQL, customerID, firstName, lastName, address,
+               phone, dateOfBirth, gender);
+         this._customers.add (customerID, firstName, lastName);
+         changed ("Customer");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end addCustomer
+
+   public void addRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("addRoom");
+      try{
+         this._db.executeUpdate (ADD_ROOM_SQL, hotelID, roomNo, roomType);
+         this._availability.addRoom (hotelID, roomNo);
+         this._topPrices.addRoom (hotelID, roomNo, roomType);
+         changed ("Room");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end addRoom
+
+   public void addMaintenanceCompany (int cmpID, String name, String address,
+                                      String isCertified) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("addMaintenanceCompany");
+      try{
+         this._db.executeUpdate (ADD_MAINTENANCE_COMPANY_SQL, cmpID, name, address, isCertified);
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            analytics.addCompany (cmpID, name);
+         changed ("MaintenanceCompany");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end addMaintenanceCompany
+
+   public void addRepair (int rID, int hotelID, int roomNo, int mCompany, String repairDate,
+                          String description, String repairType) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("addRepair");
+      try{
+         GroupCommitter writes = this._writes;
+         if (writes != null)
+            writes.commit (new GroupCommitter.Write ().add (ADD_REPAIR_SQL, rID, hotelID, roomNo, mCompany,
+                  repairDate, description, repairType));
+         else
+            this._db.executeUpdate (ADD_REPAIR_SQL, rID, hotelID, roomNo, mCompany, repairDate,
+                  description, repairType);
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null){
+            try{
+               analytics.repair (rID, hotelID, roomNo, mCompany, EpochDays.parse (repairDate));
+            }catch (IllegalArgumentException e){
+               // a date form only the server reads; the next refresh adds it
+            }//end try
+         }//end if
+         changed ("Repair");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end addRepair
+
+   /**
+    * Books a room for the customer with the given name.
+    *
+    * @return the ID of the new booking
+    * @throws java.sql.SQLException when no customer or several customers
+    *         have the name, the room is already booked on the date, or the
+    *         insert fails
+    * @throws java.lang.IllegalArgumentException when the date or price is
+    *         malformed
+    */
+   public int bookRoom (int hotelID, String firstName, String lastName, int roomNo,
+                        String bookingDate, int noOfPeople, String price) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("bookRoom");
+      try{
+         int day = EpochDays.parse (bookingDate);
+         new BigDecimal (price.trim ());
+         int bID = this._ids.nextId ("Booking");
+         String date = EpochDays.format (day);
+         int customer;
+
+         // one booking per room and day: the room stays locked until its
+         // booking is in the availability index
+         Lock room = this._ledger.lock (hotelID, roomNo);
+         try{
+            AvailabilityIndex availability = this._availability;
+            if (availability.isBooked (hotelID, roomNo, day))
+               throw this._ledger.conflict (hotelID, roomNo, date);
+            try{
+               // the booking and its rollup counts commit together
+               GroupCommitter writes = this._writes;
+               if (writes == null && this._serverFunctions){
+                  // resolves the customer, inserts and counts the booking in one call
+                  Object[] booked = this._db.executeQueryForResult (BOOK_ROOM_FUNCTION_SQL, bID, hotelID,
+                        firstName, lastName, roomNo, date, noOfPeople, price).getRows ().get (0);
+                  customer = ((Number) booked[1]).intValue ();
+               }else if (writes != null){
+                  customer = this._customers.resolve (firstName, lastName);
+                  writes.commit (new GroupCommitter.Write ()
+                        .add (BOOK_ROOM_SQL, bID, customer, hotelID, roomNo, date, noOfPeople, price)
+                        .add (BookingRollups.RECORD_DAY_SQL, hotelID, date)
+                        .add (BookingRollups.RECORD_MONTH_SQL, hotelID, date));
+               }else{
+                  customer = this._customers.resolve (firstName, lastName);
+                  PooledConnection conn = this._db.borrow ();
+                  try{
+                     conn.getConnection ().setAutoCommit (false);
+                     conn.executeUpdate (BOOK_ROOM_SQL, bID, customer, hotelID, roomNo, date, noOfPeople, price);
+                     BookingRollups.record (conn, hotelID, date);
+                     conn.getConnection ().commit ();
+                     Metrics.countRoundTrips (1);
+                  }finally{
+                     this._db.release (conn);
+                  }//end try
+               }//end if
+            }catch (SQLException e){
+               if (!ReservationLedger.isConflict (e))
+                  throw e;
+               // booked by another program since the index was loaded
+               availability.book (hotelID, roomNo, day);
+               throw this._ledger.conflict (hotelID, roomNo, date);
+            }//end try
+            availability.book (hotelID, roomNo, day);
+         }finally{
+            room.unlock ();
+         }//end try
+         this._topPrices.book (bID, customer, hotelID, roomNo, day, noOfPeople, price);
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            analytics.book (bID, customer, hotelID, day, new BigDecimal (price.trim ()));
+         changed ("Booking");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+         return bID;
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end bookRoom
+
+   /**
+    * Books a number of free rooms of a type for the customer with the
+    * given name, all of them or none.  The free rooms are found in one
+    * query over Room and Booking, locked in the reservation ledger, and
+    * booked in a single transaction that sends the bookings as one batch
+    * and counts them in the rollups at once.
+    *
+    * @param count the number of rooms to book
+    * @param noOfPeople the people staying in each room
+    * @param price the price of each room
+    * @return the numbers of the booked rooms, lowest first
+    * @throws java.sql.SQLException when the hotel has fewer free rooms of
+    *         the type on the date, no customer or several customers have
+    *         the name, or the insert fails
+    * @throws java.lang.IllegalArgumentException when the count, date or
+    *         price is malformed
+    */
+   public int[] bookRooms (int hotelID, String firstName, String lastName, String roomType,
+                           String bookingDate, int count, int noOfPeople, String price) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("bookRooms");
+      try{
+         if (count <= 0)
+            throw new IllegalArgumentException ("The number of rooms must be positive");
+         int day = EpochDays.parse (bookingDate);
+         BigDecimal amount = new BigDecimal (price.trim ());
+         String date = EpochDays.format (day);
+         int customer = this._customers.resolve (firstName, lastName);
+
+         for (int attempt = 1; ; ++attempt){
+            int[] rooms = freeRooms (hotelID, roomType, date, day, count);
+            List<Lock> locks = this._ledger.lockAll (hotelID, rooms);
+            try{
+               // a booking of this program may have taken a room since the query
+               AvailabilityIndex availability = this._availability;
+               boolean taken = false;
+               for (int roomNo : rooms)
+                  taken |= availability.isBooked (hotelID, roomNo, day);
+               int[] bIDs = taken ? null : insertGroup (hotelID, customer, rooms, date, noOfPeople, price);
+               if (bIDs != null){
+                  AnalyticsStore analytics = this._analytics;
+                  for (int i = 0; i < rooms.length; ++i){
+                     availability.book (hotelID, rooms[i], day);
+                     this._topPrices.book (bIDs[i], customer, hotelID, rooms[i], day, noOfPeople, price);
+                     if (analytics != null)
+                        analytics.book (bIDs[i], customer, hotelID, day, amount);
+                  }//end for
+                  changed ("Booking");
+                  ReplicaRouter.wrote ();
+                  timer.success (rooms.length);
+                  return rooms;
+               }//end if
+            }finally{
+               ReservationLedger.unlockAll (locks);
+            }//end try
+            if (attempt == GROUP_BOOKING_ATTEMPTS)
+               throw new SQLException ("The rooms chosen in hotel " + hotelID + " kept being booked by others;"
+                                       + " try again");
+         }//end for
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end bookRooms
+
+   /**
+    * Assigns a house cleaning staff member to a room.
+    *
+    * @return the ID of the new assignment
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("assignHouseCleaningToRoom");
+      try{
+         int asgID = this._ids.nextId ("Assigned");
+         GroupCommitter writes = this._writes;
+         if (writes != null)
+            writes.commit (new GroupCommitter.Write ().add (ASSIGN_SQL, asgID, staffID, hotelID, roomNo));
+         else if (this._serverFunctions)
+            this._db.executeQueryForResult (ASSIGN_FUNCTION_SQL, asgID, staffID, hotelID, roomNo);
+         else
+            this._db.executeUpdate (ASSIGN_SQL, asgID, staffID, hotelID, roomNo);
+         changed ("Assigned");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+         return asgID;
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   /**
+    * Raises a repair request for an existing repair.
+    *
+    * @return the ID of the new request
+    */
+   public int repairRequest (int repairID, int managerID, String requestDate) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("repairRequest");
+      try{
+         int reqID = this._ids.nextId ("Request");
+         if (this._serverFunctions)
+            this._db.executeQueryForResult (REPAIR_REQUEST_FUNCTION_SQL, reqID, managerID, repairID, requestDate);
+         else
+            this._db.executeUpdate (REPAIR_REQUEST_SQL, reqID, managerID, repairID, requestDate);
+         changed ("Request");
+         ReplicaRouter.wrote ();
+         timer.success (1);
+         return reqID;
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end repairRequest
+
+   /*
+    * The read operations pass their rows to the given handler and return
+    * the number of rows.  Operations whose result grows with the data are
+    * streamed through a cursor; single row aggregates are read at once.
+    */
+
+   /**
+    * Counts the rooms of the hotel that have no booking on the given date,
+    * answered from the availability index.
+    */
+   public int numberOfAvailableRooms (int hotelID, String date, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("numberOfAvailableRooms");
+      try{
+         int count = this._availability.availableCount (hotelID, EpochDays.parse (date));
+         out.start ("count");
+         out.row (count);
+         out.end ();
+         return timer.success (1);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end numberOfAvailableRooms
+
+   /**
+    * Lists the rooms of the hotel that have no booking on the given date,
+    * answered from the availability index.
+    */
+   public int listAvailableRooms (int hotelID, String date, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("listAvailableRooms");
+      try{
+         int[] rooms = this._availability.availableRooms (hotelID, EpochDays.parse (date));
+         out.start ("roomno");
+         for (int roomNo : rooms)
+            out.row (roomNo);
+         out.end ();
+         return timer.success (rooms.length);
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end listAvailableRooms
+
+   public int numberOfBookedRooms (int hotelID, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("numberOfBookedRooms");
+      try{
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            return timer.success (analytics.bookedRooms (hotelID, out));
+         return timer.success (cachedRead ("numberOfBookedRooms", BOOKING_TABLES, BOOKED_ROOMS_SQL, 0, out,
+                                           hotelID));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end numberOfBookedRooms
+
+   public int listHotelRoomBookingsForAWeek (int hotelID, String date, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("listHotelRoomBookingsForAWeek");
+      try{
+         return timer.success (cachedRead ("listHotelRoomBookingsForAWeek", BOOKING_TABLES, BOOKINGS_FOR_A_WEEK_SQL,
+                                           DBProject.FETCH_SIZE, out, hotelID, date, date));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * Lists the k highest priced bookings between two dates, answered from
+    * the top k price index.
+    */
+   public int topKHighestRoomPriceForADateRange (int k, String date1, String date2,
+                                                 RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("topKHighestRoomPriceForADateRange");
+      try{
+         return timer.success (this._topPrices.topK (k, EpochDays.parse (date1), EpochDays.parse (date2), out));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestPriceBookingsForACustomer (String firstName, String lastName, int k,
+                                                    RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("topKHighestPriceBookingsForACustomer");
+      try{
+         int customer = this._customers.resolve (firstName, lastName);
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            return timer.success (analytics.topKCustomerPrices (customer, k, out));
+         return timer.success (cachedRead ("topKHighestPriceBookingsForACustomer", BOOKING_TABLES,
+                                           TOP_K_CUSTOMER_BOOKINGS_SQL, DBProject.FETCH_SIZE, out, customer, k));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   public int totalCostForCustomer (int hotelID, String firstName, String lastName,
+                                    String date1, String date2, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("totalCostForCustomer");
+      try{
+         int customer = this._customers.resolve (firstName, lastName);
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            return timer.success (analytics.totalCost (hotelID, customer, EpochDays.parse (date1),
+                                                       EpochDays.parse (date2), out));
+         return timer.success (cachedRead ("totalCostForCustomer", BOOKING_TABLES, TOTAL_COST_SQL, 0, out,
+                                           hotelID, customer, date1, date2));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end totalCostForCustomer
+
+   public int listRepairsMade (String companyName, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("listRepairsMade");
+      try{
+         return timer.success (cachedRead ("listRepairsMade", REPAIR_COMPANY_TABLES, REPAIRS_MADE_SQL,
+                                           DBProject.FETCH_SIZE, out, companyName));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end listRepairsMade
+
+   public int topKMaintenanceCompany (int k, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("topKMaintenanceCompany");
+      try{
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            return timer.success (analytics.topKCompanies (k, out));
+         return timer.success (cachedRead ("topKMaintenanceCompany", REPAIR_COMPANY_TABLES,
+                                           TOP_K_MAINTENANCE_COMPANY_SQL, 0, out, k));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, RowHandler out) throws SQLException {
+      Metrics.Timer timer = this._metrics.start ("numberOfRepairsForEachRoomPerYear");
+      try{
+         AnalyticsStore analytics = this._analytics;
+         if (analytics != null)
+            return timer.success (analytics.repairsPerYear (hotelID, roomNo, out));
+         return timer.success (cachedRead ("numberOfRepairsForEachRoomPerYear", REPAIR_TABLES,
+                                           REPAIRS_PER_YEAR_SQL, 0, out, hotelID, roomNo));
+      }finally{
+         timer.stop ();
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   /*
+    * Reads a report through the result cache when one is set
+    */
+   private int cachedRead (String operation, String[] tables, final String sql, final int fetchSize,
+                           RowHandler out, final Object... params) throws SQLException {
+      ResultCache cache = this._cache;
+      if (cache == null)
+         return this._db.readQuery (sql, fetchSize, out, params);
+      return cache.read (operation, tables, params, out, new ResultCache.Source () {
+         public int run (RowHandler recorder) throws SQLException {
+            return DBOperations.this._db.readQuery (sql, fetchSize, recorder, params);
+         }
+
+         public boolean holds (long millis) {
+            return ReplicaRouter.lastReadHolds (millis);
+         }
+      });
+   }//end cachedRead
+
+   /*
+    * Returns the lowest numbered count rooms of the type that are free on
+    * the day
+    */
+   private int[] freeRooms (int hotelID, String roomType, String date, int day, int count) throws SQLException {
+      List<Object[]> free = this._db.executeQueryForResult (FREE_ROOMS_SQL, hotelID, roomType, date).getRows ();
+      AvailabilityIndex availability = this._availability;
+      int[] rooms = new int[count];
+      int n = 0;
+      for (int i = 0; i < free.size () && n < count; ++i){
+         int roomNo = intValue (free.get (i)[0]);
+         if (!availability.isBooked (hotelID, roomNo, day))
+            rooms[n++] = roomNo;
+      }//end for
+      if (n < count)
+         throw new SQLException ("Hotel " + hotelID + " has " + n + " free rooms of type " + roomType.trim ()
+                                 + " on " + date + ", " + count + " were asked for");
+      return rooms;
+   }//end freeRooms
+
+   /*
+    * Inserts the bookings of a group and their rollup counts in one
+    * transaction, and returns their keys, or null when one of the rooms
+    * was booked by another program
+    */
+   private int[] insertGroup (int hotelID, int customer, int[] rooms, String date, int noOfPeople,
+                              String price) throws SQLException {
+      int[] bIDs = new int[rooms.length];
+      List<Object[]> bookings = new ArrayList<Object[]>(rooms.length);
+      for (int i = 0; i < rooms.length; ++i){
+         bIDs[i] = this._ids.nextId ("Booking");
+         bookings.add (new Object[] { bIDs[i], customer, hotelID, rooms[i], date, noOfPeople, price });
+      }//end for
+
+      PooledConnection conn = this._db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         conn.executeBatch (BOOK_ROOM_SQL, bookings);
+         conn.executeUpdate (BookingRollups.RECORD_DAY_COUNT_SQL, hotelID, date, rooms.length);
+         conn.executeUpdate (BookingRollups.RECORD_MONTH_COUNT_SQL, hotelID, date, rooms.length);
+         conn.getConnection ().commit ();
+         Metrics.countRoundTrips (1);
+         return bIDs;
+      }catch (SQLException e){
+         if (ReservationLedger.isConflict (e))
+            return null;
+         throw e;
+      }finally{
+         // rolls back what is not committed
+         this._db.release (conn);
+      }//end try
+   }//end insertGroup
+
+   /*
+    * Reads the rows with the given keys, passed as one array parameter per
+    * key column
+    */
+   private List<Object[]> changedRows (String sql, List<String> keys) throws SQLException {
+      if (keys.isEmpty ())
+         return new ArrayList<Object[]>();
+      StringBuilder[] arrays = null;
+      for (String key : keys){
+         String[] parts = key.split (",");
+         if (arrays == null){
+            arrays = new StringBuilder[parts.length];
+            for (int i = 0; i < parts.length; ++i)
+               arrays[i] = new StringBuilder ("{");
+         }//end if
+         for (int i = 0; i < arrays.length; ++i){
+            if (arrays[i].length () > 1)
+               arrays[i].append (',');
+            arrays[i].append ('"').append (i < parts.length ? parts[i] : "").append ('"');
+         }//end for
+      }//end for
+      Object[] params = new Object[arrays.length];
+      for (int i = 0; i < arrays.length; ++i)
+         params[i] = arrays[i].append ('}').toString ();
+      return this._db.executeQueryForResult (sql, params).getRows ();
+   }//end changedRows
+
+   private static int intValue (Object value) {
+      return value == null ? 0 : ((Number) value).intValue ();
+   }//end intValue
+
+   /*
+    * Invalidates the cached reports that read the table
+    */
+   private void changed (String table) {
+      ResultCache cache = this._cache;
+      if (cache != null)
+         cache.changed (table);
+   }//end changed
+
+}//end DBOperations
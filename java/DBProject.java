@@ -11,16 +11,21 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -29,8 +34,63 @@ import java.io.InputStreamReader;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // the login, for the connections to replicas and outside the pool
+   private String _url = null;
+   private String _dbname = null;
+   private String _user = null;
+   private String _passwd = null;
+
+   // sends the reports to replicas, or null if there are none
+   private volatile ReplicaRouter _router = null;
+
+   // the menu operations, callable with their inputs as arguments.
+   private DBOperations _operations = null;
+
+   // number of statements kept open per connection and number of uses
+   // after which a query shape is prepared on the server.
+   static final int STATEMENT_CACHE_SIZE = 64;
+   static final int SERVER_PREPARE_THRESHOLD = 5;
+
+   // rows fetched per round trip when a query result is streamed through a
+   // cursor instead of being read into memory at once.
+   static final int FETCH_SIZE = 500;
+
+   // whether the driver reads results through cursors, or null until a
+   // fetch size has first been asked for.
+   private static volatile Boolean _cursors = null;
+
+   // connection pool sizing and timeouts.
+   static final int POOL_MIN_SIZE = 2;
+   static final int POOL_MAX_SIZE = 16;
+   static final long POOL_IDLE_TIMEOUT_MILLIS = 60000;
+   static final long POOL_BORROW_TIMEOUT_MILLIS = 30000;
+   static final long POOL_LEAK_THRESHOLD_MILLIS = 60000;
+
+   // how often the metrics file given with --metrics is rewritten.
+   static final long METRICS_EXPORT_MILLIS = 10000;
+
+   // operations slower than this are written to the --slowlog file.
+   static final long SLOW_OPERATION_MILLIS = 200;
+
+   // the most writes --group-commit commits in one transaction.
+   static final int GROUP_COMMIT_MAX_WRITES = 256;
+
+   // replica connections, how often replicas are checked for lag, and how
+   // far behind a replica may be known caught up and still take reads.
+   static final int REPLICA_POOL_MAX_SIZE = 8;
+   static final long REPLICA_BORROW_TIMEOUT_MILLIS = 1000;
+   static final long REPLICA_CHECK_MILLIS = 200;
+   static final long REPLICA_MAX_LAG_MILLIS = 1000;
+
+   // the most results --cache keeps, and the most rows of a cached result.
+   static final int CACHE_MAX_ENTRIES = 10000;
+   static final int CACHE_MAX_ROWS = 1000;
+
+   // how long changes are kept in the ChangeLog read by --invalidation.
+   static final long INVALIDATION_RETENTION_MILLIS = 600000;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -53,9 +113,17 @@ public class DBProject {
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         this._url = url;
+         this._dbname = dbname;
+         this._user = user;
+         this._passwd = passwd;
+
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd,
+               POOL_MIN_SIZE, POOL_MAX_SIZE, POOL_IDLE_TIMEOUT_MILLIS,
+               POOL_BORROW_TIMEOUT_MILLIS, POOL_LEAK_THRESHOLD_MILLIS,
+               STATEMENT_CACHE_SIZE, SERVER_PREPARE_THRESHOLD);
+         this._operations = new DBOperations(this, new SequenceIdAllocator(this));
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -72,14 +140,19 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection conn = this._pool.borrow ();
+      try{
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      }finally{
+         this._pool.release (conn);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -92,78 +165,462 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+      PooledConnection conn = this._pool.borrow ();
+      try{
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         int rowCount = handle (rs, new ResultPrinter ());
+         stmt.close ();
+         return rowCount;
+      }finally{
+         this._pool.release (conn);
+      }//end try
+   }//end executeQuery
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-   if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-    System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      System.out.println();
-      outputHeader = false;
-   }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is taken from the per-connection statement cache, so repeated calls with
+    * the same SQL text reuse one prepared statement.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      PooledConnection conn = this._pool.borrow ();
+      try{
+         return conn.executeUpdate (sql, params);
+      }finally{
+         this._pool.release (conn);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized query and output the results to
+    * standard out.  The statement is taken from the per-connection statement
+    * cache.
+    *
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return streamQuery (query, FETCH_SIZE, new ResultPrinter (), params);
    }//end executeQuery
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to execute a parameterized query and pass each row to a row
+    * handler as it is read.  With a positive fetch size, and a driver that
+    * supports it, the rows are read through a cursor, fetchSize rows per
+    * round trip, so large results are never held in memory at once; this
+    * needs a transaction on the connection, which is rolled back when the
+    * connection is released.  Other drivers read the whole result.
+    *
+    * @param query the query string with '?' placeholders
+    * @param fetchSize rows per round trip, or 0 to read the whole result
+    * @param handler receives the rows
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
     */
-   public void cleanup(){
+   public int streamQuery (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      PooledConnection conn = this._pool.borrow ();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         return streamQuery (conn, query, fetchSize, handler, params);
+      }finally{
+         this._pool.release (conn);
+      }//end try
+   }//end streamQuery
+
+   /**
+    * Method to execute a read-only query like streamQuery, on a replica
+    * when one may serve the calling thread, on the primary otherwise.
+    *
+    * @param query the query string with '?' placeholders
+    * @param fetchSize rows per round trip, or 0 to read the whole result
+    * @param handler receives the rows
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int readQuery (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      ReplicaRouter router = this._router;
+      PooledConnection replica = router == null ? null : router.borrow ();
+      if (replica == null)
+         return streamQuery (query, fetchSize, handler, params);
+      try{
+         return streamQuery (replica, query, fetchSize, handler, params);
+      }finally{
+         router.release (replica);
+      }//end try
+   }//end readQuery
+
+   /**
+    * Opens a connection of its own to the database, outside the pool, for
+    * a session that holds server state such as LISTEN.  The caller closes
+    * it.
+    *
+    * @throws java.sql.SQLException when failed to connect
+    */
+   public Connection connect () throws SQLException {
+      return DriverManager.getConnection (this._url, this._user, this._passwd);
+   }//end connect
+
+   /**
+    * Adds a replica the reports may be read from.  It needs the same
+    * database name and login as the primary.
+    *
+    * @param address the replica's port, or host:port
+    * @throws java.sql.SQLException when the replica cannot be connected to
+    */
+   public synchronized void addReplica (String address) throws SQLException {
+      String hostPort = address.indexOf (':') >= 0 ? address : "localhost:" + address;
+      ConnectionPool pool = new ConnectionPool ("jdbc:postgresql://" + hostPort + "/" + this._dbname,
+            this._user, this._passwd, 1, REPLICA_POOL_MAX_SIZE, POOL_IDLE_TIMEOUT_MILLIS,
+            REPLICA_BORROW_TIMEOUT_MILLIS, POOL_LEAK_THRESHOLD_MILLIS,
+            STATEMENT_CACHE_SIZE, SERVER_PREPARE_THRESHOLD);
+      if (this._router == null)
+         this._router = new ReplicaRouter (this, REPLICA_CHECK_MILLIS, REPLICA_MAX_LAG_MILLIS);
+      this._router.addReplica (hostPort, pool);
+   }//end addReplica
+
+   /*
+    * Runs a query on a borrowed connection and passes its rows to the
+    * handler
+    */
+   private int streamQuery (PooledConnection conn, String query, int fetchSize, RowHandler handler,
+                            Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PreparedStatement stmt = conn.prepare (query, params);
+      if (!setFetchSize (stmt, fetchSize))
+         fetchSize = 0;
+      else
+         conn.getConnection ().setAutoCommit (false);
+      long prepared = System.nanoTime ();
+      ResultSet rs = stmt.executeQuery ();
+      long executed = System.nanoTime ();
+      try{
+         int rows = handle (rs, handler);
+         // each further batch of a cursor is another round trip
+         if (fetchSize > 0)
+            Metrics.countRoundTrips (rows / fetchSize);
+         SlowLog.statement (query, params, prepared - start, executed - prepared,
+               System.nanoTime () - executed, rows);
+         return rows;
+      }finally{
+         rs.close ();
+      }//end try
+   }//end streamQuery
+
+   /**
+    * Asks the driver to read the statement's results through a cursor,
+    * fetchSize rows per round trip.  Drivers without cursor support, such
+    * as the bundled 7.3 one, read the whole result instead; they are found
+    * out on the first call and not asked again.  The cursor only works
+    * inside a transaction, which the caller opens.
+    *
+    * @param stmt the statement about to be executed
+    * @param fetchSize rows per round trip, or 0 to read the whole result
+    * @return true if the results will be read through a cursor
+    */
+   static boolean setFetchSize (Statement stmt, int fetchSize) {
+      if (fetchSize <= 0 || Boolean.FALSE.equals (_cursors))
+         return false;
+      try{
+         stmt.setFetchSize (fetchSize);
+         _cursors = Boolean.TRUE;
+         return true;
       }catch (SQLException e){
-         // ignored.
+         _cursors = Boolean.FALSE;
+         return false;
+      }//end try
+   }//end setFetchSize
+
+   /**
+    * Method to execute a parameterized query and return its rows to the
+    * caller instead of printing them.
+    *
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the rows returned by the query
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public QueryResult executeQueryForResult (String query, Object... params) throws SQLException {
+      QueryResult result = new QueryResult ();
+      streamQuery (query, 0, result, params);
+      return result;
+   }//end executeQueryForResult
+
+   /**
+    * Method to execute a parameterized query that returns a single integer,
+    * such as a key lookup or an aggregate.
+    *
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the first column of the first row, or null if there is no row
+    *         or the value is NULL
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer executeScalarInt (String query, Object... params) throws SQLException {
+      PooledConnection conn = this._pool.borrow ();
+      try{
+         long start = System.nanoTime ();
+         PreparedStatement stmt = conn.prepare (query, params);
+         long prepared = System.nanoTime ();
+         ResultSet rs = stmt.executeQuery ();
+         long executed = System.nanoTime ();
+         try{
+            boolean found = rs.next ();
+            int value = found ? rs.getInt (1) : 0;
+            SlowLog.statement (query, params, prepared - start, executed - prepared,
+                  System.nanoTime () - executed, found ? 1 : 0);
+            if (!found)
+               return null;
+            return rs.wasNull () ? null : Integer.valueOf (value);
+         }finally{
+            rs.close ();
+         }//end try
+      }finally{
+         this._pool.release (conn);
       }//end try
+   }//end executeScalarInt
+
+   /**
+    * Borrows a connection from the pool for operations that need to run
+    * several statements on the same connection, such as a transaction.
+    * The connection must be given back with release.
+    *
+    * @return a pooled connection
+    * @throws java.sql.SQLException when no connection is available
+    */
+   public PooledConnection borrow () throws SQLException {
+      return this._pool.borrow ();
+   }//end borrow
+
+   /**
+    * Gives a connection obtained from borrow back to the pool.
+    *
+    * @param conn the pooled connection
+    */
+   public void release (PooledConnection conn) {
+      this._pool.release (conn);
+   }//end release
+
+   /**
+    * Returns the menu operations bound to this database.
+    */
+   public DBOperations getOperations () {
+      return this._operations;
+   }//end getOperations
+
+   /**
+    * Returns the connection pool size and wait time statistics.
+    */
+   public String getPoolStats () {
+      ReplicaRouter router = this._router;
+      return this._pool.getStats () + (router == null ? "" : "; " + router.getStats ());
+   }//end getPoolStats
+
+   /**
+    * Records every parameterized statement sent to the database from now
+    * on, for the index advisor.  A null recorder stops recording.
+    */
+   public void recordWorkload (WorkloadRecorder recorder) {
+      this._pool.setRecorder (recorder);
+   }//end recordWorkload
+
+   /*
+    * Binds the given values to the placeholders of a prepared statement
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      stmt.clearParameters ();
+      for (int i = 0; i < params.length; ++i){
+         Object value = params[i];
+         if (value == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else if (value instanceof Integer)
+            stmt.setInt (i + 1, ((Integer) value).intValue ());
+         else if (value instanceof Long)
+            stmt.setLong (i + 1, ((Long) value).longValue ());
+         else if (value instanceof String)
+            stmt.setString (i + 1, (String) value);
+         else
+            stmt.setObject (i + 1, value);
+      }//end for
+   }//end bind
+
+   /*
+    * Passes every row of a result set to a row handler
+    */
+   private static int handle (ResultSet rs, RowHandler handler) throws SQLException {
+      int rowCount = 0;
+      handler.start (rs.getMetaData ());
+      while (rs.next ()){
+         handler.row (rs);
+         ++rowCount;
+      }//end while
+      handler.end ();
+      return rowCount;
+   }//end handle
+
+   /**
+    * Method to close the pooled physical connections if they are open.
+    */
+   public void cleanup(){
+      if (this._router != null){
+         this._router.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
+   /**
+    * Loads the postgres JDBC driver, which registers itself with the
+    * DriverManager.  Every main method calls this before connecting.
+    *
+    * @throws java.lang.ClassNotFoundException when the driver is not on the classpath
+    */
+   public static void loadDriver () throws ClassNotFoundException {
+      Class.forName ("org.postgresql.Driver");
+   }//end loadDriver
+
    /**
     * The main execution method
     *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    * @param args the command line arguments this inclues the <dbname> <port> <user>
+    *        and optionally --serve <httpPort> to run without the menu and
+    *        --record <file> to save the statements run for the index advisor
+    *        --metrics <file> to write the operation metrics to a file,
+    *        --slowlog <file> to log slow operations with their plans,
+    *        --slow-ms <millis> to set what counts as slow and
+    *        --analytics <refreshMillis> to answer the reports from memory,
+    *        --group-commit <windowMillis> to commit writes in groups,
+    *        --replica <port or host:port>, repeatable, to read the reports
+    *        from replicas,
+    *        --cache <ttlMillis> to cache the report results,
+    *        --invalidation <pollMillis> to apply the changes other
+    *        instances make to the caches
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean serve = false;
+      String httpPort = null;
+      File workload = null;
+      File metrics = null;
+      File slowLog = null;
+      List<String> replicas = new ArrayList<String>();
+      long slowMillis = SLOW_OPERATION_MILLIS;
+      long analyticsMillis = 0;
+      long groupCommitMillis = -1;
+      long cacheMillis = 0;
+      long invalidationMillis = 0;
+      boolean usage = args.length < 3 || args.length % 2 == 0;
+      for (int i = 3; i + 1 < args.length && !usage; i += 2) {
+         if (args[i].equals ("--serve")) {
+            serve = true;
+            httpPort = args[i + 1];
+         }else if (args[i].equals ("--record")) {
+            workload = new File (args[i + 1]);
+         }else if (args[i].equals ("--metrics")) {
+            metrics = new File (args[i + 1]);
+         }else if (args[i].equals ("--slowlog")) {
+            slowLog = new File (args[i + 1]);
+         }else if (args[i].equals ("--slow-ms")) {
+            slowMillis = Long.parseLong (args[i + 1]);
+         }else if (args[i].equals ("--analytics")) {
+            analyticsMillis = Long.parseLong (args[i + 1]);
+         }else if (args[i].equals ("--group-commit")) {
+            groupCommitMillis = Long.parseLong (args[i + 1]);
+         }else if (args[i].equals ("--replica")) {
+            replicas.add (args[i + 1]);
+         }else if (args[i].equals ("--cache")) {
+            cacheMillis = Long.parseLong (args[i + 1]);
+         }else if (args[i].equals ("--invalidation")) {
+            invalidationMillis = Long.parseLong (args[i + 1]);
+         }else {
+            usage = true;
+         }//end if
+      }//end for
+      if (usage) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--serve <httpPort>] [--record <workloadFile>]" +
+            " [--metrics <metricsFile>] [--slowlog <logFile>] [--slow-ms <millis>]" +
+            " [--analytics <refreshMillis>] [--group-commit <windowMillis>] [--replica <port> ...]" +
+            " [--cache <ttlMillis>] [--invalidation <pollMillis>]");
          return;
       }//end if
       
-      Greeting();
+      if (!serve)
+         Greeting();
       DBProject esql = null;
       try{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
+         DBProject.loadDriver ();
          // instantiate the DBProject object and creates a physical
          // connection.
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
          esql = new DBProject (dbname, dbport, user, "");
+         // listen for changes before the caches are loaded, so none is missed
+         InvalidationBus bus = null;
+         if (invalidationMillis > 0)
+            bus = new InvalidationBus (esql, esql.getOperations (), invalidationMillis,
+                  INVALIDATION_RETENTION_MILLIS);
+         esql.getOperations ().loadIndexes ();
+         for (String replica : replicas)
+            esql.addReplica (replica);
+
+         if (workload != null) {
+            // save the recorded statements however the program ends
+            final WorkloadRecorder recorder = new WorkloadRecorder ();
+            final File file = workload;
+            esql.recordWorkload (recorder);
+            Runtime.getRuntime ().addShutdownHook (new Thread () {
+               public void run () {
+                  try{
+                     recorder.save (file);
+                  }catch (IOException e){
+                     System.err.println ("Cannot save workload: " + e.getMessage ());
+                  }//end try
+               }
+            });
+         }//end if
+
+         if (metrics != null)
+            esql.getOperations ().getMetrics ().exportTo (metrics, METRICS_EXPORT_MILLIS);
+         if (slowLog != null)
+            esql.getOperations ().getMetrics ().setSlowLog (new SlowLog (esql, slowLog, slowMillis));
+         if (analyticsMillis > 0) {
+            AnalyticsStore analytics = new AnalyticsStore (esql);
+            analytics.reload ();
+            analytics.refreshEvery (analyticsMillis);
+            esql.getOperations ().setAnalytics (analytics);
+         }//end if
+         if (groupCommitMillis >= 0)
+            esql.getOperations ().setGroupCommitter (
+                  new GroupCommitter (esql, groupCommitMillis, GROUP_COMMIT_MAX_WRITES));
+         if (cacheMillis > 0)
+            esql.getOperations ().setResultCache (
+                  new ResultCache (cacheMillis, CACHE_MAX_ENTRIES, CACHE_MAX_ROWS));
+         if (bus != null) {
+            esql.getOperations ().getMetrics ().setInvalidationBus (bus);
+            bus.start ();
+         }//end if
+
+         if (serve) {
+            // answer requests until the process is stopped
+            new DBService (esql, Integer.parseInt (httpPort)).run ();
+            return;
+         }//end if
 
          boolean keepon = true;
          while(keepon) {
@@ -187,6 +644,7 @@ public class DBProject {
         System.out.println("15. Get top k maintenance companies based on repair count");
         System.out.println("16. Get number of repairs occurred per year for a given hotel room");
         System.out.println("17. < EXIT");
+        System.out.println("18. Book a group of rooms");
 
             switch (readChoice()){
            case 1: addCustomer(esql); break;
@@ -206,6 +664,7 @@ public class DBProject {
            case 15: topKMaintenanceCompany(esql); break;
            case 16: numberOfRepairsForEachRoomPerYear(esql); break;
            case 17: keepon = false; break;
+           case 18: bookRooms(esql); break;
            default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -262,7 +721,6 @@ public class DBProject {
       String phone;
       String dateOfBirth;
       String sex;
-      String query;
 
       while (true)
       {
@@ -384,8 +842,7 @@ public class DBProject {
 
       try
       {
-        query = "INSERT INTO Customer VALUES (" + customerID + "," + "'" + firstName + "', '" + lastName + "', '" + addr + "', " + phone + ", '" + dateOfBirth + "'::date, '" + sex + "')";
-        esql.executeQuery(query);
+        esql.getOperations().addCustomer(customerID, firstName, lastName, addr, phone, dateOfBirth, sex);
       }
       catch (Exception e)
       {
@@ -398,7 +855,6 @@ public class DBProject {
 	int hotelID;
 	int roomNo;
 	String roomType;
-	String query;
 	
     while(true)
     {
@@ -460,8 +916,7 @@ public class DBProject {
     
     try
       {
-        query = "INSERT INTO Room VALUES ('" + hotelID + "', '" + roomNo + "', '" + roomType + "')";
-        esql.executeQuery(query);
+        esql.getOperations().addRoom(hotelID, roomNo, roomType);
       }
       catch (Exception e)
       {
@@ -474,7 +929,6 @@ public class DBProject {
       String address;
       String isCertified;
       String name;
-      String query;
  
       while (true)
       {
@@ -555,8 +1009,7 @@ public class DBProject {
      
       try
       {
-        query = "INSERT INTO MaintenanceCompany VALUES (" + cmpID + ", '" + name + "', '" + address + "', '" + isCertified + "')";
-        esql.executeQuery(query);
+        esql.getOperations().addMaintenanceCompany(cmpID, name, address, isCertified);
       }
       catch (Exception e)
       {
@@ -573,7 +1026,6 @@ public class DBProject {
     String repairDate; 
     String description;
     String repairType; 
-    String query;
 
       while (true)
       {
@@ -690,8 +1142,7 @@ public class DBProject {
 
       try
       {
-        query = "INSERT INTO Repair VALUES (" + rID + "," + hotelID + " , " + roomNo + " , '" + mCompany + "', '" + repairDate + "'::date , '" + description + "', '" + repairType + "')";
-        esql.executeQuery(query);
+        esql.getOperations().addRepair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
       }
       catch (Exception e)
       {
@@ -709,7 +1160,6 @@ public class DBProject {
       String bookingDate;
       int noOfPeople;
       String price;
-      String query;
 
       while (true)
       {
@@ -849,32 +1299,191 @@ public class DBProject {
 
       try
       {
-    	String query2 = "SELECT MAX(bID) FROM Booking";
-        Statement bID_Statement = esql._connection.createStatement();
-        ResultSet bID_ResultSet = bID_Statement.executeQuery(query2);
-        bID_ResultSet.next();
-        int bID_Increment = bID_ResultSet.getInt(1) + 1;
-    	String query3 = "SELECT customerID FROM Customer WHERE fName='" + firstName + "' AND lName='" + lastName + "'";
-        Statement name_Statement = esql._connection.createStatement();
-        ResultSet name_ResultSet = name_Statement.executeQuery(query3);
-        int cid = 0;
-        if (name_ResultSet.next())
+        bID = esql.getOperations().bookRoom(hotelID, firstName, lastName, roomNo, bookingDate, noOfPeople, price);
+        System.out.println("Booking " + bID + " created for room " + roomNo);
+      }
+      catch (Exception e)
+      {
+        System.err.println("Query failed: " + e.getMessage());
+      }
+   }//end bookRoom
+
+   public static void bookRooms(DBProject esql){
+    // Given hotelID, room type, date and number of rooms book that many free rooms for a customer
+      String firstName;
+      String lastName;
+      int hotelID;
+      String roomType;
+      String bookingDate;
+      int count;
+      int noOfPeople;
+      String price;
+
+      while (true)
+      {
+        System.out.print("Please input Hotel ID: ");
+        try 
         {
-        	cid = name_ResultSet.getInt(1);
+          hotelID = Integer.parseInt(in.readLine());
+		if (hotelID < 0)
+		{
+			System.out.print("Can't use negative numbers.");
+			continue;
+		}
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
         }
-        else
+      }
+
+      while (true)
+      {
+        System.out.print("Please input Customer First Name: ");
+        try 
         {
-        	System.out.print("User does not exist");
+          firstName = in.readLine();
+          if (firstName.length() <= 0 || firstName.length() > 30) 
+          {
+            throw new RuntimeException("Your input is invalid! First Name cannot be empty, and cannot exceed 30 characters");
+          }
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      while (true)
+      {
+        System.out.print("Please input Customer Last Name: ");
+        try 
+        {
+          lastName = in.readLine();
+          if (lastName.length() <= 0 || lastName.length() > 30) 
+          {
+            throw new RuntimeException("Your input is invalid! Last Name cannot be empty, and cannot exceed 30 characters");
+          }
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      while (true)
+      {
+        System.out.print("Please input roomType: ");
+        try
+        {
+          roomType = in.readLine();
+          if (roomType.length() <= 0 || roomType.length() > 10)
+          {
+            throw new RuntimeException("Your input is invalid! Room type cannot be empty, and cannot exceed 10 characters");
+          }
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      while (true)
+      {
+        System.out.print("Enter the date of booking: ");
+        try 
+        {
+          bookingDate = in.readLine();
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
         }
-        System.out.println(roomNo);
-        query = "INSERT INTO Booking VALUES (" + bID_Increment + ", " + cid + ", " + hotelID + ", " + roomNo + ", '" + bookingDate + "'::date, " + noOfPeople + ", " +  price + ")";
-        esql.executeQuery(query);
+      }
+
+      while (true)
+      {
+        System.out.print("How many rooms? ");
+        try 
+        {
+          count = Integer.parseInt(in.readLine());
+		if (count <= 0)
+		{
+			System.out.print("Book at least one room.");
+			continue;
+		}
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      while (true)
+      {
+        System.out.print("How many people are staying in each room? ");
+        try 
+        {
+          noOfPeople = Integer.parseInt(in.readLine());
+		if (noOfPeople < 0)
+		{
+			System.out.print("Can't use negative numbers.");
+			continue;
+		}         
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      while (true)
+      {
+        System.out.print("Enter the price of each room: ");
+        try
+        {
+          price = in.readLine();
+          int integerPlaces = price.indexOf('.');
+          int decPlaces = price.length() - integerPlaces - 1;
+          
+          if (integerPlaces >= 0 && decPlaces > 2)
+          {
+        	  System.out.print("Prices can only have up to 2 decimal places");
+        	  continue;
+          }
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
+      try
+      {
+        int[] rooms = esql.getOperations().bookRooms(hotelID, firstName, lastName, roomType, bookingDate, count, noOfPeople, price);
+        System.out.println("Booked rooms " + Arrays.toString(rooms));
       }
       catch (Exception e)
       {
         System.err.println("Query failed: " + e.getMessage());
       }
-   }//end bookRoom
+   }//end bookRooms
 
    public static void assignHouseCleaningToRoom(DBProject esql){
     // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
@@ -882,7 +1491,6 @@ public class DBProject {
 	    int hotelID;
 	    int roomNo; 
 	    int asgID; 
-	    String query; 
 
 
 	      while (true)
@@ -946,13 +1554,7 @@ public class DBProject {
 	      }
 	      try
 	      { 
-	    	String query2 = "SELECT MAX(asgID) FROM Assigned";
-	        Statement asgID_Statement = esql._connection.createStatement();
-	        ResultSet asgID_ResultSet = asgID_Statement.executeQuery(query2);
-	        asgID_ResultSet.next();
-	        int asgID_Increment = asgID_ResultSet.getInt(1) + 1; 
-	        query = "INSERT INTO Assigned VALUES (" + asgID_Increment + ", " + staffID + ", " + hotelID + ", " + roomNo + ");";
-	        esql.executeQuery(query);
+	        esql.getOperations().assignHouseCleaningToRoom(staffID, hotelID, roomNo);
 	      }
 	      catch (Exception e)
 	      {
@@ -962,10 +1564,9 @@ public class DBProject {
    
    public static void repairRequest(DBProject esql){
     // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
-	  int repairDate;
+	  String repairDate;
       int managerID; 
       int repairID; 
-      String query;  
 
       while (true)
       {
@@ -1012,7 +1613,7 @@ public class DBProject {
         System.out.print("Please input Repair Date: ");
         try 
         {
-          repairDate = Integer.parseInt(in.readLine());
+          repairDate = in.readLine();
           break;
         }
         catch (Exception e)
@@ -1024,13 +1625,7 @@ public class DBProject {
 
       try
       {
-        String query_reqID = "SELECT MAX(reqID) FROM Request";
-        Statement reqID_Statement = esql._connection.createStatement();
-        ResultSet reqID_ResultSet = reqID_Statement.executeQuery(query_reqID);
-        reqID_ResultSet.next();
-        int reqID_Increment = reqID_ResultSet.getInt(1) + 1;
-        query = "INSERT INTO Request VALUES (" + reqID_Increment + managerID + ", '" + repairID + "', '" + repairDate + "');";
-        esql.executeQuery(query);
+        esql.getOperations().repairRequest(repairID, managerID, repairDate);
       }
       catch (Exception e)
       {
@@ -1039,10 +1634,9 @@ public class DBProject {
    }//end repairRequest
    
    public static void numberOfAvailableRooms(DBProject esql){
-    // Given a hotelID, get the count of rooms available 
-      // Your code goes here.
+    // Given a hotelID and date, get the count of rooms available on that date
 	  int hotelID;
-      String query;
+	  String date;
 
       while (true)
       {
@@ -1064,10 +1658,25 @@ public class DBProject {
         }
       }
 
+      while (true)
+      {
+        System.out.print("Enter the date: ");
+        try
+        {
+          date = in.readLine();
+          EpochDays.parse(date);
+          break;
+        }
+        catch (Exception e)
+        {
+          System.out.println("Invalid input! Your exception is: " + e.getMessage());
+          continue;
+        }
+      }
+
       try
       {
-        query = "SELECT COUNT(*) FROM Room, Booking WHERE Room.hotelID='" + hotelID + "' AND Booking.hotelID='" + hotelID + "' AND Room.roomNo NOT IN (SELECT Room.roomNo FROM Booking WHERE Room.roomNo=Booking.roomNo)"; 
-        esql.executeQuery(query);
+        esql.getOperations().numberOfAvailableRooms(hotelID, date, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1078,7 +1687,6 @@ public class DBProject {
    public static void numberOfBookedRooms(DBProject esql){
     // Given a hotelID, get the count of rooms booked
       int hotelID;
-      String query;
 
       while (true)
       {
@@ -1102,8 +1710,7 @@ public class DBProject {
 
       try
       {
-        query = "SELECT COUNT(*) FROM Booking B WHERE B.hotelID = " + hotelID;
-        esql.executeQuery(query);
+        esql.getOperations().numberOfBookedRooms(hotelID, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1115,7 +1722,6 @@ public class DBProject {
     // Given a hotelID, date - list all the rooms available for a week(including the input date) 
       int hotelID;
       String bookingDate;
-      String query;
 
       while (true)
       {
@@ -1154,8 +1760,7 @@ public class DBProject {
 
       try
       {
-        query = "SELECT Booking.roomNo FROM Booking WHERE (Booking.hotelID=" + hotelID + " AND Booking.bookingDate BETWEEN '" + bookingDate + "'::date AND '" + bookingDate + "'::date + interval '1 week') GROUP BY Booking.roomNo";
-        esql.executeQuery(query);
+        esql.getOperations().listHotelRoomBookingsForAWeek(hotelID, bookingDate, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1165,7 +1770,6 @@ public class DBProject {
    
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
     // List Top K Rooms with the highest price for a given date range
-	  String query;
 	  String date1;
       String date2;
       int k; 
@@ -1222,8 +1826,7 @@ public class DBProject {
 
        try
       {
-        query = "SELECT * FROM Booking B, Room R WHERE R.roomNo=B.roomNo AND R.hotelID=B.hotelID AND B.bookingDate BETWEEN '" + date1 + "'::date AND '" + date2 + "'::date ORDER By B.price DESC Limit " + k;
-        esql.executeQuery(query);
+        esql.getOperations().topKHighestRoomPriceForADateRange(k, date1, date2, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1236,7 +1839,6 @@ public class DBProject {
       String firstName;
       String lastName;
       int k;
-      String query;
 
       while (true)
       {
@@ -1290,8 +1892,7 @@ public class DBProject {
 
       try
       {
-        query = "SELECT b.price FROM Booking AS b WHERE b.customer=(SELECT customerID FROM Customer WHERE Customer.fName='" + firstName + "' AND Customer.lName='" + lastName +"') ORDER BY b.price DESC LIMIT "+ k;
-        esql.executeQuery(query);
+        esql.getOperations().topKHighestPriceBookingsForACustomer(firstName, lastName, k, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1306,7 +1907,6 @@ public class DBProject {
 	  String lastName;
 	  String date1;
 	  String date2;
-	  String query;
 
       while (true)
       {
@@ -1390,8 +1990,7 @@ public class DBProject {
       
       try
       {
-        query = "SELECT SUM(price) FROM Booking WHERE Booking.hotelID='" + hotelID + "' AND Booking.customer=(SELECT customerID FROM Customer WHERE Customer.fName='" + firstName + "' AND Customer.lName='" + lastName + "') AND Booking.bookingDate BETWEEN '" + date1 + "'::date AND '" + date2 + "'::date";
-        esql.executeQuery(query);
+        esql.getOperations().totalCostForCustomer(hotelID, firstName, lastName, date1, date2, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1402,7 +2001,6 @@ public class DBProject {
    public static void listRepairsMade(DBProject esql){
     // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
 	  String mName;
-	  String query;
 
       while (true)
       {
@@ -1421,8 +2019,7 @@ public class DBProject {
       
       try
       {
-        query = "SELECT repairType, hotelID, roomNo FROM Repair WHERE Repair.mCompany=(SELECT cmpID FROM MaintenanceCompany WHERE MaintenanceCompany.name='" + mName + "')";
-        esql.executeQuery(query);
+        esql.getOperations().listRepairsMade(mName, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1432,7 +2029,6 @@ public class DBProject {
    
    public static void topKMaintenanceCompany(DBProject esql){
     // List Top K Maintenance Company Names based on total repair count (descending order)
-	String query;
 	int k; 
 
        while (true)
@@ -1457,8 +2053,7 @@ public class DBProject {
 
       try
       {
-        query = "SELECT M.name FROM maintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY COUNT(*) DESC LIMIT "+ k;
-        esql.executeQuery(query);
+        esql.getOperations().topKMaintenanceCompany(k, new ResultPrinter());
       }
       catch (Exception e)
       {
@@ -1470,7 +2065,6 @@ public class DBProject {
     // Given a hotelID, roomNo, get the count of repairs per year
 	  int hotelID;
 	  int roomNo;
-	  String query;
 
       while (true)
       {
@@ -1514,8 +2108,7 @@ public class DBProject {
       
       try
       {
-        query = "SELECT DATE_PART('year', repairDate), COUNT(*) FROM Repair WHERE Repair.hotelID='" + hotelID + "' AND Repair.roomNo='" + roomNo + "' GROUP BY DATE_PART('year', repairDate)";
-        esql.executeQuery(query);
+        esql.getOperations().numberOfRepairsForEachRoomPerYear(hotelID, roomNo, new ResultPrinter());
       }
       catch (Exception e)
       {
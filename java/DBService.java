@@ -0,0 +1,348 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class runs DBProject without the interactive menu.  It exposes the
+ * sixteen menu operations as a local HTTP/JSON API, one path per operation:
+ *
+ *    GET or POST /api/<operation>?<name>=<value>&...
+ *
+ * for example /api/numberOfBookedRooms?hotelID=5.  Parameters can also be
+ * sent as a form encoded POST body.  Reads answer with the columns and rows
+ * of the result, writes with the number of the created record if they
+ * allocate one.  Each request runs on its own thread (a virtual thread when
+ * the JVM supports them) and borrows a pooled connection for its queries.
+ * The operation metrics are served in the Prometheus text format at
+ * /metrics.
+ *
+ * A write answers with a lastWrite cookie holding its time.  A client that
+ * sends it back with its later requests has them read from the primary or
+ * from replicas that hold the write, as the menu does for its own writes.
+ *
+ */
+public class DBService {
+
+   // the cookie carrying the time of a client's last write
+   static final String LAST_WRITE_COOKIE = "lastWrite";
+
+   // the operations requests are dispatched to
+   private final DBOperations _operations;
+
+   // the database, for pool statistics
+   private final DBProject _db;
+
+   // the local port the API listens on
+   private final int _port;
+
+   /**
+    * Creates a new service for the given database
+    *
+    * @param db the connected database
+    * @param port the local port to listen on
+    */
+   public DBService (DBProject db, int port) {
+      this._db = db;
+      this._operations = db.getOperations ();
+      this._port = port;
+   }//end DBService
+
+   /**
+    * Starts the HTTP server and blocks until the process is stopped.
+    *
+    * @throws java.io.IOException when the port cannot be opened
+    */
+   public void run () throws IOException {
+      HttpServer server = HttpServer.create (new InetSocketAddress ("localhost", this._port), 0);
+      server.createContext ("/api/", new HttpHandler () {
+         public void handle (HttpExchange exchange) throws IOException {
+            handleOperation (exchange);
+         }
+      });
+      server.createContext ("/metrics", new HttpHandler () {
+         public void handle (HttpExchange exchange) throws IOException {
+            byte[] bytes = DBService.this._operations.getMetrics ().toPrometheus ().getBytes ("UTF-8");
+            exchange.getResponseHeaders ().set ("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders (200, bytes.length);
+            OutputStream out = exchange.getResponseBody ();
+            out.write (bytes);
+            out.close ();
+         }
+      });
+      server.createContext ("/health", new HttpHandler () {
+         public void handle (HttpExchange exchange) throws IOException {
+            respond (exchange, 200, "{\"status\":\"ok\",\"pool\":" + json (DBService.this._db.getPoolStats ()) + "}");
+         }
+      });
+      server.setExecutor (newRequestExecutor ());
+      server.start ();
+      System.out.println ("Serving operations on http://localhost:" + this._port + "/api/");
+
+      try{
+         Thread.currentThread ().join ();
+      }catch (InterruptedException e){
+         server.stop (0);
+      }//end try
+   }//end run
+
+   /*
+    * Returns an executor that starts a virtual thread per request when the
+    * JVM provides them, and a thread pool otherwise.
+    */
+   private static ExecutorService newRequestExecutor () {
+      try{
+         return (ExecutorService) Executors.class
+            .getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+      }catch (Exception e){
+         return Executors.newFixedThreadPool (DBProject.POOL_MAX_SIZE * 4);
+      }//end try
+   }//end newRequestExecutor
+
+   private void handleOperation (HttpExchange exchange) throws IOException {
+      String operation = exchange.getRequestURI ().getPath ().substring ("/api/".length ());
+      long lastWrite = lastWrite (exchange);
+      ReplicaRouter.setLastWrite (lastWrite);
+      int status = 200;
+      String body;
+      try{
+         Map<String, String> params = parseParams (exchange);
+         body = dispatch (operation, params);
+      }catch (IllegalArgumentException e){
+         status = 400;
+         body = "{\"error\":" + json (e.getMessage ()) + "}";
+      }catch (SQLException e){
+         status = 500;
+         body = "{\"error\":" + json ("Query failed: " + e.getMessage ()) + "}";
+      }//end try
+      if (ReplicaRouter.getLastWrite () > lastWrite)
+         exchange.getResponseHeaders ().add ("Set-Cookie",
+               LAST_WRITE_COOKIE + "=" + ReplicaRouter.getLastWrite () + "; Path=/api/");
+      respond (exchange, status, body);
+   }//end handleOperation
+
+   /*
+    * Returns the time of the client's last write from its cookie, or 0
+    */
+   private static long lastWrite (HttpExchange exchange) {
+      List<String> headers = exchange.getRequestHeaders ().get ("Cookie");
+      if (headers == null)
+         return 0;
+      for (String header : headers)
+         for (String cookie : header.split (";")){
+            String[] pair = cookie.trim ().split ("=", 2);
+            if (pair.length == 2 && pair[0].equals (LAST_WRITE_COOKIE)){
+               try{
+                  return Long.parseLong (pair[1].trim ());
+               }catch (NumberFormatException e){
+                  return 0;
+               }//end try
+            }//end if
+         }//end for
+      return 0;
+   }//end lastWrite
+
+   /*
+    * Runs one operation and returns its JSON answer
+    */
+   private String dispatch (String operation, Map<String, String> p) throws SQLException {
+      DBOperations ops = this._operations;
+      QueryResult result = new QueryResult ();
+      switch (operation){
+      case "addCustomer":
+         ops.addCustomer (intParam (p, "customerID"), param (p, "fName"), param (p, "lName"),
+               param (p, "address"), param (p, "phNo"), param (p, "DOB"), param (p, "gender"));
+         return "{\"ok\":true}";
+      case "addRoom":
+         ops.addRoom (intParam (p, "hotelID"), intParam (p, "roomNo"), param (p, "roomType"));
+         return "{\"ok\":true}";
+      case "addMaintenanceCompany":
+         ops.addMaintenanceCompany (intParam (p, "cmpID"), param (p, "name"), param (p, "address"),
+               param (p, "isCertified"));
+         return "{\"ok\":true}";
+      case "addRepair":
+         ops.addRepair (intParam (p, "rID"), intParam (p, "hotelID"), intParam (p, "roomNo"),
+               intParam (p, "mCompany"), param (p, "repairDate"), param (p, "description"),
+               param (p, "repairType"));
+         return "{\"ok\":true}";
+      case "bookRoom":
+         return "{\"bID\":" + ops.bookRoom (intParam (p, "hotelID"), param (p, "fName"),
+               param (p, "lName"), intParam (p, "roomNo"), param (p, "bookingDate"),
+               intParam (p, "noOfPeople"), param (p, "price")) + "}";
+      case "bookRooms":
+         return "{\"rooms\":" + Arrays.toString (ops.bookRooms (intParam (p, "hotelID"), param (p, "fName"),
+               param (p, "lName"), param (p, "roomType"), param (p, "bookingDate"), intParam (p, "count"),
+               intParam (p, "noOfPeople"), param (p, "price"))).replace (" ", "") + "}";
+      case "assignHouseCleaningToRoom":
+         return "{\"asgID\":" + ops.assignHouseCleaningToRoom (intParam (p, "staffID"),
+               intParam (p, "hotelID"), intParam (p, "roomNo")) + "}";
+      case "repairRequest":
+         return "{\"reqID\":" + ops.repairRequest (intParam (p, "repairID"),
+               intParam (p, "managerID"), param (p, "requestDate")) + "}";
+      case "numberOfAvailableRooms":
+         ops.numberOfAvailableRooms (intParam (p, "hotelID"), param (p, "date"), result);
+         return json (result);
+      case "listAvailableRooms":
+         ops.listAvailableRooms (intParam (p, "hotelID"), param (p, "date"), result);
+         return json (result);
+      case "numberOfBookedRooms":
+         ops.numberOfBookedRooms (intParam (p, "hotelID"), result);
+         return json (result);
+      case "listHotelRoomBookingsForAWeek":
+         ops.listHotelRoomBookingsForAWeek (intParam (p, "hotelID"), param (p, "date"), result);
+         return json (result);
+      case "topKHighestRoomPriceForADateRange":
+         ops.topKHighestRoomPriceForADateRange (intParam (p, "k"), param (p, "date1"),
+               param (p, "date2"), result);
+         return json (result);
+      case "topKHighestPriceBookingsForACustomer":
+         ops.topKHighestPriceBookingsForACustomer (param (p, "fName"), param (p, "lName"),
+               intParam (p, "k"), result);
+         return json (result);
+      case "totalCostForCustomer":
+         ops.totalCostForCustomer (intParam (p, "hotelID"), param (p, "fName"), param (p, "lName"),
+               param (p, "date1"), param (p, "date2"), result);
+         return json (result);
+      case "listRepairsMade":
+         ops.listRepairsMade (param (p, "name"), result);
+         return json (result);
+      case "topKMaintenanceCompany":
+         ops.topKMaintenanceCompany (intParam (p, "k"), result);
+         return json (result);
+      case "numberOfRepairsForEachRoomPerYear":
+         ops.numberOfRepairsForEachRoomPerYear (intParam (p, "hotelID"), intParam (p, "roomNo"), result);
+         return json (result);
+      default:
+         throw new IllegalArgumentException ("Unknown operation: " + operation);
+      }//end switch
+   }//end dispatch
+
+   private static String param (Map<String, String> params, String name) {
+      String value = params.get (name);
+      if (value == null)
+         throw new IllegalArgumentException ("Missing parameter: " + name);
+      return value;
+   }//end param
+
+   private static int intParam (Map<String, String> params, String name) {
+      String value = param (params, name);
+      try{
+         int number = Integer.parseInt (value.trim ());
+         if (number < 0)
+            throw new IllegalArgumentException ("Can't use negative numbers: " + name);
+         return number;
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException ("Invalid number for " + name + ": " + value);
+      }//end try
+   }//end intParam
+
+   /*
+    * Collects the parameters of the query string and of a form encoded body
+    */
+   private static Map<String, String> parseParams (HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String>();
+      parseForm (exchange.getRequestURI ().getRawQuery (), params);
+      if ("POST".equals (exchange.getRequestMethod ())){
+         InputStream body = exchange.getRequestBody ();
+         ByteArrayOutputStream buf = new ByteArrayOutputStream ();
+         byte[] chunk = new byte[4096];
+         int n;
+         while ((n = body.read (chunk)) > 0)
+            buf.write (chunk, 0, n);
+         parseForm (buf.toString ("UTF-8"), params);
+      }//end if
+      return params;
+   }//end parseParams
+
+   private static void parseForm (String form, Map<String, String> params) throws UnsupportedEncodingException {
+      if (form == null || form.isEmpty ())
+         return;
+      for (String pair : form.split ("&")){
+         int eq = pair.indexOf ('=');
+         if (eq <= 0)
+            continue;
+         params.put (URLDecoder.decode (pair.substring (0, eq), "UTF-8"),
+                     URLDecoder.decode (pair.substring (eq + 1), "UTF-8"));
+      }//end for
+   }//end parseForm
+
+   private static void respond (HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes ("UTF-8");
+      exchange.getResponseHeaders ().set ("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders (status, bytes.length);
+      OutputStream out = exchange.getResponseBody ();
+      out.write (bytes);
+      out.close ();
+   }//end respond
+
+   /*
+    * Encodes a query result as {"columns":[...],"rows":[[...],...]}
+    */
+   static String json (QueryResult result) {
+      StringBuilder sb = new StringBuilder ("{\"columns\":[");
+      String[] columns = result.getColumns ();
+      for (int i = 0; i < columns.length; ++i){
+         if (i > 0) sb.append (',');
+         sb.append (json (columns[i]));
+      }//end for
+      sb.append ("],\"rows\":[");
+      List<Object[]> rows = result.getRows ();
+      for (int r = 0; r < rows.size (); ++r){
+         if (r > 0) sb.append (',');
+         sb.append ('[');
+         Object[] row = rows.get (r);
+         for (int i = 0; i < row.length; ++i){
+            if (i > 0) sb.append (',');
+            Object value = row[i];
+            if (value == null)
+               sb.append ("null");
+            else if (value instanceof Number || value instanceof Boolean)
+               sb.append (value);
+            else
+               sb.append (json (value.toString ().trim ()));
+         }//end for
+         sb.append (']');
+      }//end for
+      return sb.append ("]}").toString ();
+   }//end json
+
+   /*
+    * Encodes a string as a JSON string literal
+    */
+   static String json (String value) {
+      if (value == null)
+         return "null";
+      StringBuilder sb = new StringBuilder (value.length () + 2).append ('"');
+      for (int i = 0; i < value.length (); ++i){
+         char c = value.charAt (i);
+         switch (c){
+         case '"': sb.append ("\\\""); break;
+         case '\\': sb.append ("\\\\"); break;
+         case '\n': sb.append ("\\n"); break;
+         case '\r': sb.append ("\\r"); break;
+         case '\t': sb.append ("\\t"); break;
+         default:
+            if (c < 0x20)
+               sb.append (String.format ("\\u%04x", (int) c));
+            else
+               sb.append (c);
+         }//end switch
+      }//end for
+      return sb.append ('"').toString ();
+   }//end json
+
+}//end DBService
@@ -0,0 +1,466 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic dataset for the nine tables of
+ * sql/create.sql, in the format of the files in data/, at any scale.  At
+ * scale 1 the row counts match data/: 1000 hotels, 10000 rooms, 2000
+ * customers, 4000 bookings, 2000 repairs and so on.  Customers, bookings,
+ * repairs, requests and assignments grow linearly with the scale; hotels,
+ * their rooms and staff, and maintenance companies grow with its square
+ * root, so scale 100000 gives 400 million bookings over 316000 hotels.
+ *
+ * Every foreign key refers to a generated row, and no room is booked twice
+ * on a day, so the unique index on Booking (hotelID, roomNo, bookingDate)
+ * builds on every dataset.  The values are skewed the
+ * way real bookings are: low hotel IDs are booked far more often than the
+ * rest, bookings cluster in the summer and around December, prices depend
+ * on the room type and season, and a few maintenance companies do most of
+ * the repairs.
+ *
+ * Each table is written in chunks of a million rows, all chunks of all
+ * tables in parallel, each from its own seeded random source, so the same
+ * scale and seed always give the same files.  Load them with
+ * "java BulkLoader <dbname> <port> <user> <outDir>".
+ *
+ * Usage: java DataGenerator <outDir> [scale=1] [threads=<cpus>] [seed=166]
+ *
+ */
+public class DataGenerator {
+
+   // rows per chunk file written by one task
+   static final int CHUNK_ROWS = 1000000;
+
+   // staff of each hotel: SSNs (h-1)*5+1 .. (h-1)*5+5 in this order
+   static final String[] STAFF_ROLES = {
+      "Manager", "Receptionist", "Receptionist", "HouseCleaning", "HouseCleaning"
+   };
+
+   // bookings per month, January first; summer and December are busiest
+   static final int[] MONTH_WEIGHTS = { 6, 5, 7, 7, 9, 12, 14, 13, 8, 6, 5, 8 };
+
+   // the days dates are drawn from, 2000-01-01 to 2019-12-31
+   static final int FIRST_DAY = EpochDays.of (2000, 1, 1);
+   static final int DAYS = EpochDays.of (2020, 1, 1) - FIRST_DAY;
+
+   private final File _outDir;
+   private final long _seed;
+
+   private final int _hotels;
+   private final int _roomsPerHotel = 10;
+   private final int _companies;
+   private final int _customers;
+   private final int _bookings;
+   private final int _repairs;
+   private final int _requests;
+   private final int _assigned;
+
+   // cumulative MONTH_WEIGHTS, for drawing a month
+   private final int[] _monthTotals = new int[12];
+
+   /**
+    * Creates a generator for the given scale.
+    *
+    * @param outDir the folder the CSV files are written to
+    * @param scale the scale factor, 1 for the size of data/
+    * @param seed the seed every random source is derived from
+    */
+   public DataGenerator (File outDir, double scale, long seed) {
+      this._outDir = outDir;
+      this._seed = seed;
+      double root = Math.sqrt (scale);
+      this._hotels = count (1000 * root);
+      this._companies = count (20 * root);
+      this._customers = count (2000 * scale);
+      this._bookings = count (4000 * scale);
+      this._repairs = count (2000 * scale);
+      this._requests = count (2000 * scale);
+      this._assigned = count (2000 * scale);
+      int total = 0;
+      for (int m = 0; m < 12; ++m)
+         this._monthTotals[m] = total += MONTH_WEIGHTS[m];
+   }//end DataGenerator
+
+   /**
+    * Returns the tables, in the order of sql/create.sql.
+    */
+   List<Table> tables () {
+      List<Table> tables = new ArrayList<Table>();
+      tables.add (new Table ("hotel.csv", this._hotels, "0,default,\\N") {
+         void row (long id, Random r, StringBuilder sb) {
+            sb.append (id).append (',');
+            word (r, sb, 6).append (",\\N");
+         }
+      });
+      tables.add (new Table ("staff.csv", (long) this._hotels * STAFF_ROLES.length,
+                             "0,default,default,default,Manager,0") {
+         void row (long id, Random r, StringBuilder sb) {
+            sb.append (id).append (',');
+            word (r, sb, 4).append (',');
+            word (r, sb, 4).append (',');
+            word (r, sb, 6).append (',');
+            sb.append (STAFF_ROLES[(int) ((id - 1) % STAFF_ROLES.length)]).append (',')
+              .append ((id - 1) / STAFF_ROLES.length + 1);
+         }
+      });
+      tables.add (new Table ("room.csv", (long) this._hotels * this._roomsPerHotel, "0,0,default") {
+         void row (long id, Random r, StringBuilder sb) {
+            int hotel = (int) ((id - 1) / _roomsPerHotel + 1);
+            int roomNo = (int) ((id - 1) % _roomsPerHotel + 1);
+            sb.append (hotel).append (',').append (roomNo).append (',').append (roomType (hotel, roomNo));
+         }
+      });
+      tables.add (new Table ("customer.csv", this._customers, "0,default,default,default,0,1/1/2000,Male") {
+         void row (long id, Random r, StringBuilder sb) {
+            sb.append (id).append (',');
+            word (r, sb, 4).append (',');
+            word (r, sb, 4).append (',');
+            word (r, sb, 6).append (',');
+            sb.append (1000000000L + (long) (r.nextDouble () * 8999999999L)).append (',');
+            date (sb, EpochDays.of (1930, 1, 1) + r.nextInt (70 * 365)).append (',');
+            sb.append (r.nextInt (3) == 0 ? "Other" : (r.nextBoolean () ? "Male" : "Female"));
+         }
+      });
+      tables.add (new Table ("maintenanceCompany.csv", this._companies, "0,default,default,TRUE") {
+         void row (long id, Random r, StringBuilder sb) {
+            sb.append (id).append (',');
+            word (r, sb, 4).append (',');
+            word (r, sb, 6).append (',');
+            sb.append (r.nextInt (10) == 0 ? "FALSE" : "TRUE");
+         }
+      });
+      tables.add (new Bookings (0, 1));
+      tables.add (new Table ("repair.csv", this._repairs, "0,0,0,0,1/1/2000,default,Small") {
+         void row (long id, Random r, StringBuilder sb) {
+            sb.append (id).append (',').append (hotHotel (r)).append (',')
+              .append (1 + r.nextInt (_roomsPerHotel)).append (',')
+              .append (1 + skewed (r, _companies, 4.0)).append (',');
+            date (sb, seasonalDay (r)).append (',');
+            word (r, sb, 4).append (',');
+            int size = r.nextInt (10);
+            sb.append (size < 5 ? "Small" : (size < 8 ? "Medium" : "Large"));
+         }
+      });
+      tables.add (new Table ("request.csv", this._requests, "0,0,0,1/1/2000,default") {
+         void row (long id, Random r, StringBuilder sb) {
+            int hotel = 1 + r.nextInt (_hotels);
+            sb.append (id).append (',').append (staffSSN (hotel, 0)).append (',')
+              .append (1 + r.nextInt (_repairs)).append (',');
+            date (sb, seasonalDay (r)).append (',');
+            word (r, sb, 4);
+         }
+      });
+      tables.add (new Table ("assigned.csv", this._assigned, "0,0,0,0") {
+         void row (long id, Random r, StringBuilder sb) {
+            int hotel = hotHotel (r);
+            sb.append (id).append (',').append (staffSSN (hotel, 3 + r.nextInt (2))).append (',')
+              .append (hotel).append (',').append (1 + r.nextInt (_roomsPerHotel));
+         }
+      });
+      return tables;
+   }//end tables
+
+   /**
+    * Writes every table, using the given number of threads.
+    *
+    * @throws java.lang.Exception when a file cannot be written
+    */
+   public void generate (int threads) throws Exception {
+      if (!this._outDir.isDirectory () && !this._outDir.mkdirs ())
+         throw new IOException ("Cannot create " + this._outDir);
+
+      ExecutorService workers = Executors.newFixedThreadPool (threads);
+      try{
+         List<Table> tables = tables ();
+         List<List<Future<File>>> parts = new ArrayList<List<Future<File>>>();
+         for (int t = 0; t < tables.size (); ++t){
+            final Table table = tables.get (t);
+            final int tableNo = t;
+            List<Future<File>> chunks = new ArrayList<Future<File>>();
+            for (long first = 0; first <= table.rows; first += CHUNK_ROWS){
+               final long from = first;
+               final long to = Math.min (table.rows, first + CHUNK_ROWS - 1);
+               chunks.add (workers.submit (new Callable<File>() {
+                  public File call () throws IOException {
+                     return writeChunk (table, tableNo, from, to);
+                  }
+               }));
+            }//end for
+            parts.add (chunks);
+         }//end for
+
+         for (int t = 0; t < tables.size (); ++t){
+            List<File> files = new ArrayList<File>();
+            for (Future<File> chunk : parts.get (t)){
+               try{
+                  files.add (chunk.get ());
+               }catch (ExecutionException e){
+                  throw (Exception) e.getCause ();
+               }//end try
+            }//end for
+            Table table = tables.get (t);
+            concatenate (files, new File (this._outDir, table.file));
+            System.out.printf ("  %-24s %12d rows%n", table.file, table.rows + 1);
+         }//end for
+      }finally{
+         workers.shutdownNow ();
+      }//end try
+   }//end generate
+
+   /*
+    * Writes rows from..to of a table to a part file; row 0 is the default
+    * row every table starts with
+    */
+   private File writeChunk (Table table, int tableNo, long from, long to) throws IOException {
+      Random r = new Random (this._seed * 1000003L + tableNo * 7919L + from / CHUNK_ROWS);
+      table = table.forChunk (from / CHUNK_ROWS, table.rows / CHUNK_ROWS + 1);
+      File part = new File (this._outDir, table.file + ".part" + (from / CHUNK_ROWS));
+      Writer out = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (part), "UTF-8"), 1 << 20);
+      try{
+         StringBuilder sb = new StringBuilder (256);
+         for (long id = from; id <= to; ++id){
+            sb.setLength (0);
+            if (id == 0)
+               sb.append (table.defaultRow);
+            else
+               table.row (id, r, sb);
+            sb.append ('\n');
+            out.append (sb);
+         }//end for
+      }finally{
+         out.close ();
+      }//end try
+      return part;
+   }//end writeChunk
+
+   private static void concatenate (List<File> parts, File target) throws IOException {
+      FileChannel out = new FileOutputStream (target).getChannel ();
+      try{
+         for (File part : parts){
+            FileChannel in = new FileInputStream (part).getChannel ();
+            try{
+               long size = in.size ();
+               for (long done = 0; done < size; )
+                  done += in.transferTo (done, size - done, out);
+            }finally{
+               in.close ();
+            }//end try
+            part.delete ();
+         }//end for
+      }finally{
+         out.close ();
+      }//end try
+   }//end concatenate
+
+   /*
+    * A hotel ID with low IDs much more likely than high ones
+    */
+   private int hotHotel (Random r) {
+      return 1 + skewed (r, this._hotels, 2.5);
+   }//end hotHotel
+
+   /*
+    * A day between 2000 and 2019 with busy and quiet months
+    */
+   private int seasonalDay (Random r) {
+      int pick = r.nextInt (this._monthTotals[11]);
+      int month = 0;
+      while (this._monthTotals[month] <= pick)
+         ++month;
+      int year = EpochDays.year (FIRST_DAY) + r.nextInt (20);
+      int first = EpochDays.of (year, month + 1, 1);
+      int next = month == 11 ? EpochDays.of (year + 1, 1, 1) : EpochDays.of (year, month + 2, 1);
+      return first + r.nextInt (next - first);
+   }//end seasonalDay
+
+   /*
+    * The room type of a room, fixed by its key so bookings agree with Room
+    */
+   private static String roomType (int hotel, int roomNo) {
+      int h = (hotel * 31 + roomNo) * 0x9E3779B1;
+      int bucket = ((h >>> 16) & 0x7fff) % 10;
+      return bucket < 5 ? "Economy" : (bucket < 8 ? "Suite" : "Deluxe");
+   }//end roomType
+
+   private static String price (Random r, String roomType, int day) {
+      int base = roomType.equals ("Economy") ? 80 : (roomType.equals ("Suite") ? 250 : 500);
+      int month = EpochDays.month (day);
+      double season = month >= 6 && month <= 8 || month == 12 ? 1.4 : 1.0;
+      long cents = Math.round (base * season * (0.8 + 0.4 * r.nextDouble ()) * 100);
+      return cents / 100 + "." + (cents % 100 < 10 ? "0" : "") + cents % 100;
+   }//end price
+
+   private int staffSSN (int hotel, int role) {
+      return (hotel - 1) * STAFF_ROLES.length + role + 1;
+   }//end staffSSN
+
+   /*
+    * A value in 0..n-1, concentrated near 0 more strongly for larger
+    * exponents
+    */
+   private static int skewed (Random r, int n, double exponent) {
+      return Math.min (n - 1, (int) (n * Math.pow (r.nextDouble (), exponent)));
+   }//end skewed
+
+   private static StringBuilder word (Random r, StringBuilder sb, int length) {
+      for (int i = 0; i < length; ++i)
+         sb.append ((char) ('a' + r.nextInt (26)));
+      return sb;
+   }//end word
+
+   private static StringBuilder date (StringBuilder sb, int epochDay) {
+      int year = EpochDays.year (epochDay), month = EpochDays.month (epochDay);
+      int day = epochDay - EpochDays.of (year, month, 1) + 1;
+      return sb.append (month).append ('/').append (day).append ('/').append (year);
+   }//end date
+
+   private static int count (double rows) {
+      return (int) Math.max (1, Math.min (Integer.MAX_VALUE - CHUNK_ROWS, Math.round (rows)));
+   }//end count
+
+   /**
+    * One generated table: the file name, the number of rows after the
+    * default row, and how to write row id.
+    */
+   abstract static class Table {
+      final String file;
+      final long rows;
+      final String defaultRow;
+
+      Table (String file, long rows, String defaultRow) {
+         this.file = file;
+         this.rows = rows;
+         this.defaultRow = defaultRow;
+      }
+
+      abstract void row (long id, Random r, StringBuilder sb);
+
+      /**
+       * Returns the table that writes the given chunk of this one; tables
+       * that keep state across their rows return a fresh one.
+       */
+      Table forChunk (long chunk, long chunks) {
+         return this;
+      }
+   }//end Table
+
+   /**
+    * The bookings.  Every (hotel, room, day) is a slot, numbered hotel by
+    * hotel, day by day and room by room, and chunk c of k books only the
+    * slots whose number is c modulo k, so no two chunks book the same
+    * slot.  A booking draws a hotel, a day and a room as skewed as before
+    * and moves to the nearest slot of its chunk, at most k / 2 slots or
+    * k / 20 days away; a slot the chunk booked already is drawn again.
+    */
+   class Bookings extends Table {
+      final long chunk;
+      final long chunks;
+      final SlotSet booked;
+
+      Bookings (long chunk, long chunks) {
+         super ("booking.csv", _bookings, "0,0,0,0,1/1/2000,0,0");
+         this.chunk = chunk;
+         this.chunks = chunks;
+         this.booked = new SlotSet (Math.min (rows, CHUNK_ROWS));
+      }
+
+      Table forChunk (long chunk, long chunks) {
+         return new Bookings (chunk, chunks);
+      }
+
+      void row (long id, Random r, StringBuilder sb) {
+         long slotsPerHotel = (long) DAYS * _roomsPerHotel;
+         int hotel;
+         long slot;
+         do{
+            hotel = hotHotel (r);
+            long first = (hotel - 1) * slotsPerHotel;
+            slot = first + (long) (seasonalDay (r) - FIRST_DAY) * _roomsPerHotel + r.nextInt (_roomsPerHotel);
+            long offset = ((this.chunk - slot) % this.chunks + this.chunks) % this.chunks;
+            if (offset > this.chunks / 2)
+               offset -= this.chunks;
+            slot += offset;
+            if (slot < first)
+               slot += this.chunks;
+            else if (slot >= first + slotsPerHotel)
+               slot -= this.chunks;
+         }while (!this.booked.add (slot));
+
+         int roomNo = (int) (slot % _roomsPerHotel) + 1;
+         int day = FIRST_DAY + (int) (slot / _roomsPerHotel % DAYS);
+         sb.append (id).append (',').append (1 + r.nextInt (_customers)).append (',')
+           .append (hotel).append (',').append (roomNo).append (',');
+         date (sb, day).append (',').append (1 + r.nextInt (4)).append (',')
+           .append (price (r, roomType (hotel, roomNo), day));
+      }
+   }//end Bookings
+
+   /**
+    * A set of non-negative longs in one array, open addressed, for the
+    * slots a chunk booked; a HashSet of a million Longs per thread would
+    * take several times the memory.
+    */
+   static class SlotSet {
+      private final long[] _slots;
+
+      SlotSet (long expected) {
+         int size = 16;
+         while (size < expected * 2)
+            size <<= 1;
+         this._slots = new long[size];
+         Arrays.fill (this._slots, -1);
+      }
+
+      /**
+       * Adds the slot and returns true, or returns false if it is in the
+       * set already.
+       */
+      boolean add (long slot) {
+         int mask = this._slots.length - 1;
+         for (int i = (int) ((slot * 0x9E3779B97F4A7C15L) >>> 40) & mask; ; i = (i + 1) & mask){
+            if (this._slots[i] == slot)
+               return false;
+            if (this._slots[i] < 0){
+               this._slots[i] = slot;
+               return true;
+            }//end if
+         }//end for
+      }
+   }//end SlotSet
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 4) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + DataGenerator.class.getName () +
+            " <outDir> [scale=1] [threads=<cpus>] [seed=166]");
+         return;
+      }//end if
+      try{
+         double scale = args.length > 1 ? Double.parseDouble (args[1]) : 1;
+         int threads = args.length > 2 ? Integer.parseInt (args[2]) : Runtime.getRuntime ().availableProcessors ();
+         long seed = args.length > 3 ? Long.parseLong (args[3]) : 166;
+         long start = System.nanoTime ();
+         System.out.println ("Generating scale " + scale + " into " + args[0] + "...");
+         new DataGenerator (new File (args[0]), scale, seed).generate (threads);
+         System.out.printf ("Done in %.1f s%n", (System.nanoTime () - start) / 1e9);
+      }catch (Exception e){
+         System.err.println ("Generation failed: " + e.getMessage ());
+      }//end try
+   }//end main
+
+}//end DataGenerator
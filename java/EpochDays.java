@@ -0,0 +1,107 @@
+/**
+ * This class converts calendar dates to and from day numbers counted from
+ * 1970-01-01, which the in-memory indexes use as compact date keys.
+ *
+ */
+public class EpochDays {
+
+   private EpochDays () {
+   }//end EpochDays
+
+   /**
+    * Parses a date written as YYYY-MM-DD (the form Postgres returns) or
+    * M/D/YYYY (the form used in the data files).
+    *
+    * @param date the date string
+    * @return the number of days since 1970-01-01
+    * @throws java.lang.IllegalArgumentException when the date is malformed
+    */
+   public static int parse (String date) {
+      try{
+         String s = date.trim ();
+         int year, month, day;
+         if (s.indexOf ('/') > 0){
+            String[] parts = s.split ("/");
+            if (parts.length != 3)
+               throw new IllegalArgumentException ("Invalid date: " + date);
+            month = Integer.parseInt (parts[0]);
+            day = Integer.parseInt (parts[1]);
+            year = Integer.parseInt (parts[2]);
+         }else{
+            String[] parts = s.split ("-");
+            if (parts.length != 3)
+               throw new IllegalArgumentException ("Invalid date: " + date);
+            year = Integer.parseInt (parts[0]);
+            month = Integer.parseInt (parts[1]);
+            day = Integer.parseInt (parts[2]);
+         }//end if
+         if (month < 1 || month > 12 || day < 1 || day > daysInMonth (year, month))
+            throw new IllegalArgumentException ("Invalid date: " + date);
+         return of (year, month, day);
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException ("Invalid date: " + date);
+      }//end try
+   }//end parse
+
+   /**
+    * Returns the day number of the given calendar date.
+    */
+   public static int of (int year, int month, int day) {
+      // shift the year to start in March so the leap day is last
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end of
+
+   /**
+    * Formats a day number as YYYY-MM-DD.
+    */
+   public static String format (int epochDay) {
+      int[] ymd = civil (epochDay);
+      return String.format ("%04d-%02d-%02d", ymd[0], ymd[1], ymd[2]);
+   }//end format
+
+   /**
+    * Returns the calendar year of a day number.
+    */
+   public static int year (int epochDay) {
+      return civil (epochDay)[0];
+   }//end year
+
+   /**
+    * Returns the calendar month (1 to 12) of a day number.
+    */
+   public static int month (int epochDay) {
+      return civil (epochDay)[1];
+   }//end month
+
+   // returns {year, month, day} of a day number
+   private static int[] civil (int epochDay) {
+      int z = epochDay + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int day = doy - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+      return new int[] { year, month, day };
+   }//end civil
+
+   private static int daysInMonth (int year, int month) {
+      switch (month){
+      case 2:
+         boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+         return leap ? 29 : 28;
+      case 4: case 6: case 9: case 11:
+         return 30;
+      default:
+         return 31;
+      }//end switch
+   }//end daysInMonth
+
+}//end EpochDays
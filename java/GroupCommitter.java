@@ -0,0 +1,245 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class commits the writes of many callers together.  A caller hands
+ * over a write, the statements that must commit together, and waits.  A
+ * background thread collects the writes that arrive within a short window
+ * of the first one, or up to a maximum number, and runs them in a single
+ * transaction: the statements of all writes with the same SQL are sent as
+ * one JDBC batch, so a group costs one commit and a few round trips
+ * instead of one commit per write.
+ *
+ * Every caller gets its own result.  When the group transaction fails,
+ * it is rolled back and each write of the group is run again in a
+ * transaction of its own, so a bad write fails alone and the others
+ * commit.
+ *
+ * The statements of a group run batch by batch, in the order each SQL
+ * first appears in the group, so the statements of a write must not depend
+ * on one another.
+ *
+ */
+public class GroupCommitter {
+
+   private final DBProject _db;
+   private final long _windowNanos;
+   private final int _maxWrites;
+
+   private final LinkedBlockingQueue<Write> _queue = new LinkedBlockingQueue<Write>();
+   private final Thread _flusher;
+   private volatile boolean _closed = false;
+
+   // writes committed, groups committed and groups that were retried one by one
+   private final AtomicLong _writes = new AtomicLong ();
+   private final AtomicLong _groups = new AtomicLong ();
+   private final AtomicLong _retried = new AtomicLong ();
+
+   /**
+    * Creates a committer and starts its background thread.
+    *
+    * @param db the database written to
+    * @param windowMillis how long a group waits for more writes after its
+    *        first one
+    * @param maxWrites the most writes committed in one group
+    */
+   public GroupCommitter (DBProject db, long windowMillis, int maxWrites) {
+      this._db = db;
+      this._windowNanos = windowMillis * 1000000L;
+      this._maxWrites = maxWrites;
+      this._flusher = new Thread ("group-commit") {
+         public void run () {
+            flushLoop ();
+         }
+      };
+      this._flusher.setDaemon (true);
+      this._flusher.start ();
+   }//end GroupCommitter
+
+   /**
+    * Commits a write with the next group and waits for its result.
+    *
+    * @param write the statements to commit together
+    * @throws java.sql.SQLException when the write failed; nothing of it
+    *         was committed
+    */
+   public void commit (Write write) throws SQLException {
+      if (this._closed)
+         throw new SQLException ("The group committer is closed");
+      this._queue.add (write);
+      if (this._closed && this._queue.remove (write))
+         write.finish (new SQLException ("The group committer is closed"));
+
+      // the write may commit after an interrupt, so wait for it anyway
+      boolean interrupted = false;
+      while (true){
+         try{
+            write.done.await ();
+            break;
+         }catch (InterruptedException e){
+            interrupted = true;
+         }//end try
+      }//end while
+      if (interrupted)
+         Thread.currentThread ().interrupt ();
+      if (write.error != null)
+         throw write.error;
+   }//end commit
+
+   /**
+    * Stops the background thread; writes still queued fail.
+    */
+   public void close () {
+      this._closed = true;
+      this._flusher.interrupt ();
+   }//end close
+
+   /**
+    * Returns the number of writes and groups committed.
+    */
+   public String getStats () {
+      long groups = this._groups.get ();
+      return String.format ("%d writes in %d groups (%.1f per group), %d groups retried one by one",
+                            this._writes.get (), groups, groups == 0 ? 0.0 : this._writes.get () / (double) groups,
+                            this._retried.get ());
+   }//end getStats
+
+   /*
+    * Collects groups from the queue and commits them until closed
+    */
+   private void flushLoop () {
+      List<Write> group = new ArrayList<Write>();
+      try{
+         while (!this._closed){
+            group.add (this._queue.take ());
+            long deadline = System.nanoTime () + this._windowNanos;
+            while (group.size () < this._maxWrites){
+               long left = deadline - System.nanoTime ();
+               Write next = left > 0 ? this._queue.poll (left, TimeUnit.NANOSECONDS) : this._queue.poll ();
+               if (next == null)
+                  break;
+               group.add (next);
+            }//end while
+            flush (group);
+            group.clear ();
+         }//end while
+      }catch (InterruptedException e){
+         // closed.
+      }//end try
+
+      SQLException closed = new SQLException ("The group committer is closed");
+      for (Write write : group)
+         write.finish (closed);
+      for (Write write = this._queue.poll (); write != null; write = this._queue.poll ())
+         write.finish (closed);
+   }//end flushLoop
+
+   /*
+    * Commits a group in one transaction, or its writes one by one when
+    * that fails
+    */
+   private void flush (List<Write> group) {
+      PooledConnection conn;
+      try{
+         conn = this._db.borrow ();
+      }catch (SQLException e){
+         for (Write write : group)
+            write.finish (e);
+         return;
+      }//end try
+
+      try{
+         // the statements of the group by SQL, in the order first seen
+         Map<String, List<Object[]>> batches = new LinkedHashMap<String, List<Object[]>>();
+         for (Write write : group){
+            for (int i = 0; i < write.sql.size (); ++i){
+               List<Object[]> batch = batches.get (write.sql.get (i));
+               if (batch == null){
+                  batch = new ArrayList<Object[]>();
+                  batches.put (write.sql.get (i), batch);
+               }//end if
+               batch.add (write.params.get (i));
+            }//end for
+         }//end for
+
+         try{
+            conn.getConnection ().setAutoCommit (false);
+            for (Map.Entry<String, List<Object[]>> batch : batches.entrySet ())
+               conn.executeBatch (batch.getKey (), batch.getValue ());
+            conn.getConnection ().commit ();
+            this._groups.incrementAndGet ();
+            this._writes.addAndGet (group.size ());
+            for (Write write : group)
+               write.finish (null);
+            return;
+         }catch (SQLException e){
+            rollback (conn);
+            if (group.size () == 1){
+               group.get (0).finish (e);
+               return;
+            }//end if
+         }//end try
+
+         this._retried.incrementAndGet ();
+         for (Write write : group){
+            try{
+               for (int i = 0; i < write.sql.size (); ++i)
+                  conn.executeUpdate (write.sql.get (i), write.params.get (i));
+               conn.getConnection ().commit ();
+               this._writes.incrementAndGet ();
+               write.finish (null);
+            }catch (SQLException e){
+               rollback (conn);
+               write.finish (e);
+            }//end try
+         }//end for
+      }catch (RuntimeException e){
+         // fail the writes still waiting rather than leaving them blocked
+         for (Write write : group)
+            if (write.done.getCount () > 0)
+               write.finish (new SQLException ("Group commit failed: " + e));
+      }finally{
+         this._db.release (conn);
+      }//end try
+   }//end flush
+
+   private static void rollback (PooledConnection conn) {
+      try{
+         conn.getConnection ().rollback ();
+      }catch (SQLException e){
+         // the connection is checked when it is released.
+      }//end try
+   }//end rollback
+
+   /**
+    * The statements of one write, committed together or not at all.
+    */
+   public static class Write {
+      final List<String> sql = new ArrayList<String>(4);
+      final List<Object[]> params = new ArrayList<Object[]>(4);
+      final CountDownLatch done = new CountDownLatch (1);
+      volatile SQLException error = null;
+
+      /**
+       * Adds a statement to the write.
+       */
+      public Write add (String sql, Object... params) {
+         this.sql.add (sql);
+         this.params.add (params);
+         return this;
+      }
+
+      void finish (SQLException error) {
+         this.error = error;
+         this.done.countDown ();
+      }
+   }//end Write
+
+}//end GroupCommitter
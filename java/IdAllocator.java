@@ -0,0 +1,19 @@
+import java.sql.SQLException;
+
+/**
+ * This interface hands out new primary keys for the tables whose keys are
+ * generated by the application rather than entered by the user.
+ *
+ */
+public interface IdAllocator {
+
+   /**
+    * Returns a key that has not been handed out before for the given table.
+    *
+    * @param table the table the key is for, e.g. "Booking"
+    * @return the new key
+    * @throws java.sql.SQLException when a new key cannot be obtained
+    */
+   int nextId (String table) throws SQLException;
+
+}//end IdAllocator
@@ -0,0 +1,558 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class recommends indexes for a recorded workload.  It reads the
+ * statements the program ran, as saved by "java DBProject ... --record
+ * <file>", derives candidate indexes from their predicates, and chooses
+ * among them greedily: each round it creates every remaining candidate in
+ * turn, prices the whole workload with EXPLAIN, and keeps the candidate
+ * that saves the most planner cost after charging it for the writes it
+ * slows down.  It stops when no candidate pays for itself, and writes the
+ * chosen indexes as a DDL script.
+ *
+ * For every statement the candidates are
+ *
+ *    1. each column compared for equality, alone
+ *    2. the equality columns followed by the first range or ORDER BY column
+ *    3. for single table statements, (2) extended with the other columns
+ *       the statement reads, so it can be answered from the index alone
+ *
+ * Candidates that an existing index already starts with are skipped.  The
+ * write cost of an index is the number of recorded inserts, updates and
+ * deletes of its table times writeCost planner units.
+ *
+ * Each candidate is built inside a transaction that is rolled back once
+ * the workload is priced, so it is never committed, but its table still
+ * refuses writes while the index builds.  Chosen indexes are built with
+ * CREATE INDEX CONCURRENTLY and dropped the same way at the end.  Prefer
+ * a copy of the production database all the same: without a workload file
+ * the advisor records one by running every operation through DBBenchmark,
+ * which adds rows.  Reads that cannot be explained are reported and left
+ * out of the workload; an EXPLAIN that fails later aborts the advice.
+ *
+ * Usage: java IndexAdvisor <dbname> <port> <user> [workload=../sql/workload.txt]
+ *        [out=../sql/recommended_indexes.sql] [max=8] [writeCost=4] [seconds=2]
+ *
+ */
+public class IndexAdvisor {
+
+   // [qualifier.]column <op> ? | ( subquery
+   private static final Pattern PREDICATE = Pattern.compile (
+      "(?i)(?:(\\w+)\\.)?(\\w+)\\s*(<=|>=|=|<|>|\\bBETWEEN\\b)\\s*(?:\\?|\\()");
+
+   // ORDER BY [qualifier.]column [DESC]
+   private static final Pattern ORDER_BY = Pattern.compile (
+      "(?i)\\bORDER\\s+BY\\s+(?:(\\w+)\\.)?(\\w+)(\\s+DESC)?");
+
+   // FROM <table list> up to the next clause
+   private static final Pattern FROM = Pattern.compile (
+      "(?is)\\bFROM\\s+(.+?)(?=\\bWHERE\\b|\\bGROUP\\b|\\bORDER\\b|\\bLIMIT\\b|\\)|$)");
+
+   // <table> [AS] [alias]
+   private static final Pattern TABLE = Pattern.compile ("(?i)^(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?$");
+
+   private static final Pattern WRITE = Pattern.compile (
+      "(?i)^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(\\w+).*", Pattern.DOTALL);
+
+   private static final Pattern COST = Pattern.compile ("cost=[0-9.]+\\.\\.([0-9.]+)");
+
+   private static final Pattern IDENTIFIER = Pattern.compile ("\\b([A-Za-z_]\\w*)\\b");
+
+   private final DBProject _db;
+
+   // planner cost units charged per index per recorded write
+   private final double _writeCost;
+
+   // table -> column names, lower case
+   private final Map<String, Set<String>> _columns = new HashMap<String, Set<String>>();
+
+   // table -> column lists of its existing indexes, lower case
+   private final Map<String, List<String>> _indexes = new HashMap<String, List<String>>();
+
+   private final List<WorkloadRecorder.Statement> _reads = new ArrayList<WorkloadRecorder.Statement>();
+
+   // table -> recorded writes
+   private final Map<String, Long> _writes = new HashMap<String, Long>();
+
+   /**
+    * Creates an advisor for the given database.
+    *
+    * @param db the connected database
+    * @param writeCost planner cost units charged per index per write
+    */
+   public IndexAdvisor (DBProject db, double writeCost) {
+      this._db = db;
+      this._writeCost = writeCost;
+   }//end IndexAdvisor
+
+   /**
+    * Reads the schema, the existing indexes and the workload.
+    */
+   public void prepare (WorkloadRecorder workload) throws SQLException {
+      for (Object[] row : this._db.executeQueryForResult (
+            "SELECT table_name, column_name FROM information_schema.columns WHERE table_schema = 'public'").getRows ()){
+         String table = row[0].toString ().toLowerCase (Locale.ROOT);
+         Set<String> columns = this._columns.get (table);
+         if (columns == null){
+            columns = new HashSet<String>();
+            this._columns.put (table, columns);
+         }//end if
+         columns.add (row[1].toString ().toLowerCase (Locale.ROOT));
+      }//end for
+
+      for (Object[] row : this._db.executeQueryForResult (
+            "SELECT tablename, indexdef FROM pg_indexes WHERE schemaname = 'public'").getRows ()){
+         String table = row[0].toString ().toLowerCase (Locale.ROOT);
+         String def = row[1].toString ();
+         String columns = def.substring (def.lastIndexOf ('(') + 1, def.lastIndexOf (')'));
+         List<String> list = this._indexes.get (table);
+         if (list == null){
+            list = new ArrayList<String>();
+            this._indexes.put (table, list);
+         }//end if
+         list.add (columns.replace (" ", "").toLowerCase (Locale.ROOT));
+      }//end for
+
+      for (WorkloadRecorder.Statement statement : workload.getStatements ()){
+         Matcher write = WRITE.matcher (statement.sql);
+         if (write.matches ()){
+            String table = write.group (1).toLowerCase (Locale.ROOT);
+            Long writes = this._writes.get (table);
+            this._writes.put (table, (writes == null ? 0 : writes) + statement.count.get ());
+         }else if (statement.sql.trim ().toUpperCase (Locale.ROOT).startsWith ("SELECT")){
+            this._reads.add (statement);
+         }//end if
+      }//end for
+      this._db.executeUpdate ("ANALYZE");
+   }//end prepare
+
+   /**
+    * Returns the candidate indexes of the recorded reads.
+    */
+   List<Candidate> candidates () {
+      Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+      for (WorkloadRecorder.Statement statement : this._reads){
+         String sql = statement.sql;
+         List<FromClause> froms = fromClauses (sql);
+
+         // table -> equality columns, range columns, order column
+         Map<String, List<String>> equal = new LinkedHashMap<String, List<String>>();
+         Map<String, List<String>> range = new HashMap<String, List<String>>();
+         Matcher predicate = PREDICATE.matcher (sql);
+         while (predicate.find ()){
+            String table = resolve (froms, predicate.start (), predicate.group (1), predicate.group (2));
+            if (table == null)
+               continue;
+            boolean isEqual = predicate.group (3).equals ("=");
+            add (isEqual ? equal : range, table, predicate.group (2).toLowerCase (Locale.ROOT));
+            if (!equal.containsKey (table))
+               equal.put (table, new ArrayList<String>());
+         }//end while
+         Matcher order = ORDER_BY.matcher (sql);
+         String orderTable = null, orderColumn = null;
+         if (order.find ()){
+            orderTable = resolve (froms, order.start (), order.group (1), order.group (2));
+            orderColumn = order.group (2).toLowerCase (Locale.ROOT) + (order.group (3) != null ? " DESC" : "");
+         }//end if
+
+         for (Map.Entry<String, List<String>> entry : equal.entrySet ()){
+            String table = entry.getKey ();
+            List<String> key = new ArrayList<String>(entry.getValue ());
+            for (String column : entry.getValue ())
+               offer (candidates, table, single (column), sql);
+            if (range.containsKey (table))
+               key.add (range.get (table).get (0));
+            else if (table.equals (orderTable))
+               key.add (orderColumn);
+            if (key.isEmpty ())
+               continue;
+            offer (candidates, table, key, sql);
+
+            if (froms.size () == 1 && froms.get (0).tables.size () == 1){
+               List<String> covering = new ArrayList<String>(key);
+               Matcher identifier = IDENTIFIER.matcher (sql);
+               while (identifier.find ()){
+                  String column = identifier.group (1).toLowerCase (Locale.ROOT);
+                  if (this._columns.get (table).contains (column) && !contains (covering, column))
+                     covering.add (column);
+               }//end while
+               if (covering.size () > key.size () && covering.size () <= 4)
+                  offer (candidates, table, covering, sql);
+            }//end if
+         }//end for
+      }//end for
+      return new ArrayList<Candidate>(candidates.values ());
+   }//end candidates
+
+   /**
+    * Chooses candidates greedily and returns them in the order chosen.
+    *
+    * @param max the most indexes to recommend
+    */
+   public List<Candidate> advise (List<Candidate> candidates, int max) throws SQLException {
+      List<Candidate> chosen = new ArrayList<Candidate>();
+      List<Candidate> remaining = new ArrayList<Candidate>(candidates);
+      dropUnexplainable ();
+      double current = workloadCost (null);
+      double baseline = current;
+      System.out.printf ("Workload: %d reads, cost %.0f without new indexes%n", this._reads.size (), baseline);
+      try{
+         while (chosen.size () < max && !remaining.isEmpty ()){
+            Candidate best = null;
+            double bestNet = 0;
+            for (Candidate candidate : remaining){
+               measure (candidate, current);
+               double net = candidate.readSaving - candidate.writeCost;
+               System.out.printf ("  %-60s saves %12.0f, writes %10.0f%n", candidate, candidate.readSaving,
+                     candidate.writeCost);
+               if (net > bestNet){
+                  best = candidate;
+                  bestNet = net;
+               }//end if
+            }//end for
+            if (best == null)
+               break;
+            this._db.executeUpdate (create (best, "CONCURRENTLY advisor_chosen_" + chosen.size ()));
+            chosen.add (best);
+            remaining.remove (best);
+            current -= best.readSaving;
+            System.out.println ("Chose " + best);
+         }//end while
+      }finally{
+         // a failed concurrent build leaves an invalid index behind, drop it too
+         for (int i = 0; i <= chosen.size (); ++i)
+            this._db.executeUpdate ("DROP INDEX CONCURRENTLY IF EXISTS advisor_chosen_" + i);
+      }//end try
+      System.out.printf ("Workload: cost %.0f with %d new indexes%n", current, chosen.size ());
+      return chosen;
+   }//end advise
+
+   /**
+    * Writes the chosen indexes as a DDL script.
+    */
+   public void write (List<Candidate> chosen, File workload, File out) throws IOException {
+      PrintWriter writer = new PrintWriter (new OutputStreamWriter (new FileOutputStream (out), "UTF-8"));
+      try{
+         writer.println ("-- Recommended indexes, generated by IndexAdvisor on " + new Date ());
+         writer.println ("-- from the workload in " + workload.getName () + ".  Regenerate it when the");
+         writer.println ("-- query mix changes; costs are in planner units weighted by run count.");
+         if (chosen.isEmpty ())
+            writer.println ("-- No candidate saved more than it costs to maintain.");
+         for (Candidate candidate : chosen){
+            writer.println ();
+            writer.printf ("-- saves %.0f read cost, adds %.0f write cost (%d writes), %d KB%n",
+                  candidate.readSaving, candidate.writeCost, writes (candidate.table), candidate.bytes / 1024);
+            for (String sql : candidate.statements)
+               writer.println ("--    " + sql);
+            String name = ("Advised_" + candidate.table + "_" + join (candidate.columns, "_")
+                           .replace (" desc", "")).replaceAll ("\\W", "_");
+            writer.println ("CREATE INDEX " + (name.length () > 63 ? name.substring (0, 63) : name));
+            writer.println ("ON " + candidate.table);
+            writer.println ("USING BTREE");
+            writer.println ("(" + join (candidate.columns, ", ") + ");");
+         }//end for
+      }finally{
+         writer.close ();
+      }//end try
+   }//end write
+
+   /*
+    * Builds the candidate in a transaction, prices the workload and its
+    * size there, and rolls the index back
+    */
+   private void measure (Candidate candidate, double current) throws SQLException {
+      PooledConnection conn = this._db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         Statement stmt = conn.getConnection ().createStatement ();
+         try{
+            stmt.executeUpdate (create (candidate, "advisor_candidate"));
+            candidate.readSaving = current - workloadCost (conn);
+            ResultSet size = stmt.executeQuery ("SELECT pg_relation_size('advisor_candidate')");
+            candidate.bytes = size.next () ? size.getLong (1) : 0;
+            size.close ();
+         }finally{
+            stmt.close ();
+            conn.getConnection ().rollback ();
+         }//end try
+      }finally{
+         this._db.release (conn);
+      }//end try
+   }//end measure
+
+   /*
+    * Reports the reads the planner rejects and leaves them out, so every
+    * later price covers the same statements
+    */
+   private void dropUnexplainable () {
+      for (int i = this._reads.size () - 1; i >= 0; --i){
+         WorkloadRecorder.Statement statement = this._reads.get (i);
+         try{
+            this._db.executeQueryForResult ("EXPLAIN " + statement.sql, statement.sample);
+         }catch (SQLException e){
+            System.err.println ("Cannot explain, left out: " + statement.sql + ": " + e.getMessage ());
+            this._reads.remove (i);
+         }//end try
+      }//end for
+   }//end dropUnexplainable
+
+   /*
+    * Returns the sum over the reads of run count times plan cost, planned
+    * on the given connection, or on any pooled one when it is null
+    */
+   private double workloadCost (PooledConnection conn) throws SQLException {
+      double total = 0;
+      for (WorkloadRecorder.Statement statement : this._reads){
+         String plan;
+         try{
+            if (conn == null){
+               plan = this._db.executeQueryForResult ("EXPLAIN " + statement.sql, statement.sample)
+                  .getRows ().get (0)[0].toString ();
+            }else{
+               ResultSet rs = conn.prepare ("EXPLAIN " + statement.sql, statement.sample).executeQuery ();
+               try{
+                  rs.next ();
+                  plan = rs.getString (1);
+               }finally{
+                  rs.close ();
+               }//end try
+            }//end if
+         }catch (SQLException e){
+            throw new SQLException ("Cannot explain " + statement.sql + ": " + e.getMessage (), e);
+         }//end try
+         Matcher cost = COST.matcher (plan);
+         if (!cost.find ())
+            throw new SQLException ("No cost in the plan of " + statement.sql + ": " + plan);
+         total += statement.count.get () * Double.parseDouble (cost.group (1));
+      }//end for
+      return total;
+   }//end workloadCost
+
+   private static String create (Candidate candidate, String name) {
+      return "CREATE INDEX " + name + " ON " + candidate.table + " (" + join (candidate.columns, ", ") + ")";
+   }//end create
+
+   /*
+    * Adds a candidate unless an existing index starts with its columns
+    */
+   private void offer (Map<String, Candidate> candidates, String table, List<String> columns, String sql) {
+      String key = join (columns, ",").replace (" ", "");
+      List<String> existing = this._indexes.get (table);
+      if (existing != null)
+         for (String index : existing)
+            if ((index + ",").startsWith (key + ","))
+               return;
+      Candidate candidate = candidates.get (table + "(" + key + ")");
+      if (candidate == null){
+         candidate = new Candidate (table, columns, writes (table) * this._writeCost);
+         candidates.put (table + "(" + key + ")", candidate);
+      }//end if
+      candidate.statements.add (sql);
+   }//end offer
+
+   private long writes (String table) {
+      Long writes = this._writes.get (table);
+      return writes == null ? 0 : writes.longValue ();
+   }//end writes
+
+   /*
+    * Returns the table a column reference at the given position belongs to
+    */
+   private String resolve (List<FromClause> froms, int position, String qualifier, String column) {
+      column = column.toLowerCase (Locale.ROOT);
+      FromClause nearest = null;
+      for (FromClause from : froms)
+         if (from.start < position || nearest == null)
+            nearest = from;
+      List<FromClause> order = new ArrayList<FromClause>(froms);
+      if (nearest != null){
+         order.remove (nearest);
+         order.add (0, nearest);
+      }//end if
+      for (FromClause from : order){
+         String table;
+         if (qualifier != null){
+            table = from.aliases.get (qualifier.toLowerCase (Locale.ROOT));
+            if (table == null)
+               continue;
+         }else{
+            table = null;
+            for (String candidate : from.tables)
+               if (this._columns.containsKey (candidate) && this._columns.get (candidate).contains (column))
+                  table = candidate;
+            if (table == null)
+               continue;
+         }//end if
+         if (this._columns.containsKey (table) && this._columns.get (table).contains (column))
+            return table;
+      }//end for
+      return null;
+   }//end resolve
+
+   private static List<FromClause> fromClauses (String sql) {
+      List<FromClause> froms = new ArrayList<FromClause>();
+      Matcher from = FROM.matcher (sql);
+      while (from.find ()){
+         FromClause clause = new FromClause (from.start ());
+         for (String item : from.group (1).split (",")){
+            Matcher table = TABLE.matcher (item.trim ());
+            if (!table.matches ())
+               continue;
+            String name = table.group (1).toLowerCase (Locale.ROOT);
+            clause.tables.add (name);
+            clause.aliases.put (name, name);
+            if (table.group (2) != null)
+               clause.aliases.put (table.group (2).toLowerCase (Locale.ROOT), name);
+         }//end for
+         froms.add (clause);
+      }//end while
+      return froms;
+   }//end fromClauses
+
+   private static void add (Map<String, List<String>> map, String table, String column) {
+      List<String> columns = map.get (table);
+      if (columns == null){
+         columns = new ArrayList<String>();
+         map.put (table, columns);
+      }//end if
+      if (!columns.contains (column))
+         columns.add (column);
+   }//end add
+
+   private static boolean contains (List<String> columns, String column) {
+      for (String c : columns)
+         if (c.equals (column) || c.startsWith (column + " "))
+            return true;
+      return false;
+   }//end contains
+
+   private static List<String> single (String column) {
+      List<String> columns = new ArrayList<String>();
+      columns.add (column);
+      return columns;
+   }//end single
+
+   private static String join (List<String> values, String separator) {
+      StringBuilder sb = new StringBuilder ();
+      for (String value : values)
+         sb.append (sb.length () > 0 ? separator : "").append (value);
+      return sb.toString ();
+   }//end join
+
+   /**
+    * One candidate index and what it was measured to save and cost.
+    */
+   static class Candidate {
+      final String table;
+      final List<String> columns;
+      final double writeCost;
+      final Set<String> statements = new HashSet<String>();
+      double readSaving = 0;
+      long bytes = 0;
+
+      Candidate (String table, List<String> columns, double writeCost) {
+         this.table = table;
+         this.columns = columns;
+         this.writeCost = writeCost;
+      }
+
+      public String toString () {
+         return this.table + "(" + join (this.columns, ", ") + ")";
+      }
+   }//end Candidate
+
+   /**
+    * The tables of one FROM clause and their aliases.
+    */
+   private static class FromClause {
+      final int start;
+      final List<String> tables = new ArrayList<String>();
+      final Map<String, String> aliases = new HashMap<String, String>();
+
+      FromClause (int start) {
+         this.start = start;
+      }
+   }//end FromClause
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + IndexAdvisor.class.getName () +
+            " <dbname> <port> <user> [workload=../sql/workload.txt] [out=../sql/recommended_indexes.sql]" +
+            " [max=8] [writeCost=4] [seconds=2]");
+         return;
+      }//end if
+
+      File workloadFile = new File ("../sql/workload.txt");
+      File out = new File ("../sql/recommended_indexes.sql");
+      int max = 8, seconds = 2;
+      double writeCost = 4;
+      for (int i = 3; i < args.length; ++i){
+         String[] option = args[i].split ("=", 2);
+         if (option.length == 2 && option[0].equals ("workload"))
+            workloadFile = new File (option[1]);
+         else if (option.length == 2 && option[0].equals ("out"))
+            out = new File (option[1]);
+         else if (option.length == 2 && option[0].equals ("max"))
+            max = Integer.parseInt (option[1]);
+         else if (option.length == 2 && option[0].equals ("writeCost"))
+            writeCost = Double.parseDouble (option[1]);
+         else if (option.length == 2 && option[0].equals ("seconds"))
+            seconds = Integer.parseInt (option[1]);
+         else{
+            System.err.println ("Unrecognized option: " + args[i]);
+            return;
+         }//end if
+      }//end for
+
+      DBProject esql = null;
+      try{
+         DBProject.loadDriver ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         WorkloadRecorder workload = new WorkloadRecorder ();
+         if (workloadFile.exists ()){
+            workload.load (workloadFile);
+         }else{
+            System.out.println ("No workload in " + workloadFile + ", recording one with DBBenchmark...");
+            esql.getOperations ().loadIndexes ();
+            DBBenchmark bench = new DBBenchmark (esql);
+            bench.prepare (10000);
+            esql.recordWorkload (workload);
+            for (DBBenchmark.Operation op : bench.operations ())
+               bench.run (op, 1, 0, seconds);
+            esql.recordWorkload (null);
+            workload.save (workloadFile);
+         }//end if
+
+         IndexAdvisor advisor = new IndexAdvisor (esql, writeCost);
+         advisor.prepare (workload);
+         List<Candidate> chosen = advisor.advise (advisor.candidates (), max);
+         advisor.write (chosen, workloadFile, out);
+         System.out.println ("Recommended indexes written to " + out);
+      }catch (Exception e){
+         System.err.println ("Advice failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end IndexAdvisor
@@ -0,0 +1,318 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps the caches of this program fresh when other instances
+ * of it, or anything else, write to the same database.  The triggers of
+ * sql/invalidation.sql record every change of a cached table as (table,
+ * operation, key) in ChangeLog and NOTIFY the hotel_changes channel.  A
+ * background thread listens on the channel over a connection of its own,
+ * reads the changes it has not seen yet and applies them through
+ * DBOperations.applyChanges: cached report results of the table are
+ * dropped and inserted rows are added to the in-memory indexes.  A write of
+ * this instance comes back too; applying it again changes nothing.
+ *
+ * The driver only receives notifications with the reply to a query, so
+ * the thread polls: every period it sends a trivial query and reads the log
+ * when it was notified, and every few periods regardless, which bounds the
+ * delay of a change to about the period.
+ *
+ * The log is read by transaction rather than by sequence number, since a
+ * transaction that took its number earlier may commit later: each read
+ * returns every change of the transactions that were still running at the
+ * previous read or started since, and skips the ones already applied.
+ *
+ * When changes may have been lost, because the connection failed or the
+ * thread fell behind further than the log is kept, every cache is
+ * reloaded from the database instead.
+ *
+ */
+public class InvalidationBus {
+
+   static final String CHANNEL = "hotel_changes";
+
+   // the changes of the transactions from the given one on, with the
+   // oldest transaction still running
+   static final String READ_CHANGES_SQL =
+      "WITH s AS (SELECT txid_snapshot_xmin(txid_current_snapshot()) AS xmin) " +
+      "SELECT s.xmin, c.seq, c.txid, c.tableName, c.op, c.key, " +
+      "EXTRACT(EPOCH FROM clock_timestamp() - c.changedAt) " +
+      "FROM s LEFT JOIN ChangeLog c ON c.txid >= ? ORDER BY c.seq";
+   static final String PRUNE_SQL =
+      "DELETE FROM ChangeLog WHERE changedAt < clock_timestamp() - ?::interval AND txid < ?";
+
+   // the log is read every this many polls even without a notification,
+   // and pruned every this many reads
+   static final int READ_EVERY = 10;
+   static final int PRUNE_EVERY = 100;
+
+   private final DBProject _db;
+   private final DBOperations _ops;
+   private final long _retentionMillis;
+
+   // the listening connection, or null after it failed
+   private Connection _conn = null;
+
+   // the oldest transaction running at the last read, the changes read
+   // since then and the time of the last read
+   private long _xmin = 0;
+   private Set<Long> _seen = new HashSet<Long>();
+   private long _lastRead = 0;
+   private int _polls = 0;
+   private int _reads = 0;
+
+   private final AtomicLong _events = new AtomicLong ();
+   private final AtomicLong _flushes = new AtomicLong ();
+   private final LatencyHistogram _lag = new LatencyHistogram ();
+   private final Thread _listener;
+
+   /**
+    * Starts listening and takes the current end of the log as the
+    * position changes are applied from.  Create it before the caches are
+    * loaded, so no change falls between the two, and start it after.
+    *
+    * @param db the database listened to
+    * @param ops the operations whose caches are kept fresh
+    * @param pollMillis the time between two polls
+    * @param retentionMillis how long changes are kept in the log
+    * @throws java.sql.SQLException when sql/invalidation.sql is not
+    *         installed or the connection fails
+    */
+   public InvalidationBus (DBProject db, DBOperations ops, final long pollMillis, long retentionMillis)
+         throws SQLException {
+      this._db = db;
+      this._ops = ops;
+      this._retentionMillis = retentionMillis;
+      connect ();
+      try{
+         read (false);
+      }catch (SQLException e){
+         disconnect ();
+         throw e;
+      }//end try
+      this._listener = new Thread ("invalidation-listener") {
+         public void run () {
+            while (true){
+               try{
+                  Thread.sleep (pollMillis);
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+               poll ();
+            }//end while
+         }
+      };
+      this._listener.setDaemon (true);
+   }//end InvalidationBus
+
+   /**
+    * Starts applying changes from a background thread.
+    */
+   public void start () {
+      this._listener.start ();
+   }//end start
+
+   /**
+    * Stops listening.
+    */
+   public void close () {
+      this._listener.interrupt ();
+   }//end close
+
+   /**
+    * Returns the number of changes applied, the reloads and the lag.
+    */
+   public String getStats () {
+      return String.format ("%d changes applied, %d full reloads, lag p50=%.1fms p99=%.1fms max=%.1fms",
+                            this._events.get (), this._flushes.get (), this._lag.getPercentile (50) / 1e6,
+                            this._lag.getPercentile (99) / 1e6, this._lag.getMax () / 1e6);
+   }//end getStats
+
+   /**
+    * Appends the change counters and the lag histogram in the Prometheus
+    * text format.
+    */
+   void toPrometheus (StringBuilder sb) {
+      sb.append ("# HELP hotel_invalidation_events_total Changes read from the change log and applied.\n");
+      sb.append ("# TYPE hotel_invalidation_events_total counter\n");
+      sb.append ("hotel_invalidation_events_total ").append (this._events.get ()).append ('\n');
+      sb.append ("# HELP hotel_invalidation_flushes_total Reloads of every cache after changes may have been lost.\n");
+      sb.append ("# TYPE hotel_invalidation_flushes_total counter\n");
+      sb.append ("hotel_invalidation_flushes_total ").append (this._flushes.get ()).append ('\n');
+      sb.append ("# HELP hotel_invalidation_lag_seconds Time from a change to its being applied here.\n");
+      sb.append ("# TYPE hotel_invalidation_lag_seconds histogram\n");
+      for (double bound : Metrics.BUCKETS)
+         sb.append ("hotel_invalidation_lag_seconds_bucket{le=\"")
+           .append (BigDecimal.valueOf (bound).toPlainString ()).append ("\"} ")
+           .append (this._lag.getCountAtMost ((long) (bound * 1e9))).append ('\n');
+      sb.append ("hotel_invalidation_lag_seconds_bucket{le=\"+Inf\"} ").append (this._lag.getCount ()).append ('\n');
+      sb.append ("hotel_invalidation_lag_seconds_sum ").append (this._lag.getSum () / 1e9).append ('\n');
+      sb.append ("hotel_invalidation_lag_seconds_count ").append (this._lag.getCount ()).append ('\n');
+   }//end toPrometheus
+
+   /*
+    * Applies the new changes, reconnecting and reloading the caches when
+    * changes may have been lost
+    */
+   private void poll () {
+      try{
+         if (this._conn == null){
+            connect ();
+            flush ();
+            return;
+         }//end if
+         if (System.currentTimeMillis () - this._lastRead > this._retentionMillis / 2){
+            flush ();
+            return;
+         }//end if
+         if (++this._polls % READ_EVERY == 0 || notified ())
+            read (true);
+         if (this._reads >= PRUNE_EVERY){
+            this._reads = 0;
+            prune ();
+         }//end if
+      }catch (SQLException e){
+         System.err.println ("Cannot apply database changes: " + e.getMessage ());
+         disconnect ();
+      }//end try
+   }//end poll
+
+   private void connect () throws SQLException {
+      this._conn = this._db.connect ();
+      Statement stmt = this._conn.createStatement ();
+      try{
+         stmt.execute ("LISTEN " + CHANNEL);
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end connect
+
+   private void disconnect () {
+      try{
+         if (this._conn != null)
+            this._conn.close ();
+      }catch (SQLException e){
+         // already broken.
+      }//end try
+      this._conn = null;
+   }//end disconnect
+
+   /*
+    * Returns true if a notification arrived since the last query
+    */
+   private boolean notified () throws SQLException {
+      Statement stmt = this._conn.createStatement ();
+      try{
+         stmt.execute ("SELECT 1");
+      }finally{
+         stmt.close ();
+      }//end try
+      PGNotification[] notifications = ((PGConnection) this._conn).getNotifications ();
+      return notifications != null && notifications.length > 0;
+   }//end notified
+
+   /*
+    * Moves the position to the end of the log, then reloads every cache;
+    * changes made during the reload are applied again by the next read
+    */
+   private void flush () throws SQLException {
+      read (false);
+      this._ops.reloadCaches ();
+      this._flushes.incrementAndGet ();
+   }//end flush
+
+   /*
+    * Reads the changes not seen yet and applies them, or only records them
+    * as seen
+    */
+   private void read (boolean apply) throws SQLException {
+      long started = System.nanoTime ();
+      Map<String, List<String>> inserted = new LinkedHashMap<String, List<String>>();
+      Set<String> rewritten = new HashSet<String>();
+      List<Double> lags = new ArrayList<Double>();
+      Set<Long> seen = new HashSet<Long>();
+      long xmin = this._xmin;
+
+      PreparedStatement stmt = this._conn.prepareStatement (READ_CHANGES_SQL);
+      try{
+         stmt.setLong (1, this._xmin);
+         ResultSet rs = stmt.executeQuery ();
+         List<long[]> changes = new ArrayList<long[]>();
+         while (rs.next ()){
+            xmin = rs.getLong (1);
+            String table = rs.getString (4);
+            if (table == null)
+               continue;
+            long seq = rs.getLong (2);
+            changes.add (new long[] { seq, rs.getLong (3) });
+            if (this._seen.contains (seq))
+               continue;
+            String op = rs.getString (5);
+            if (op.equals ("I")){
+               List<String> keys = inserted.get (table);
+               if (keys == null){
+                  keys = new ArrayList<String>();
+                  inserted.put (table, keys);
+               }//end if
+               keys.add (rs.getString (6));
+            }else{
+               rewritten.add (table);
+            }//end if
+            lags.add (rs.getDouble (7));
+         }//end while
+         rs.close ();
+
+         // the transactions older than the new xmin are all finished, so
+         // only the changes of newer ones can be returned again
+         for (long[] change : changes)
+            if (change[1] >= xmin)
+               seen.add (change[0]);
+      }finally{
+         stmt.close ();
+      }//end try
+
+      this._xmin = xmin;
+      this._seen = seen;
+      this._lastRead = System.currentTimeMillis ();
+      ++this._reads;
+      if (!apply || lags.isEmpty ())
+         return;
+
+      if (this._ops.applyChanges (inserted, rewritten))
+         this._flushes.incrementAndGet ();
+      long applied = System.nanoTime () - started;
+      for (double lag : lags)
+         this._lag.record ((long) (lag * 1e9) + applied);
+      this._events.addAndGet (lags.size ());
+   }//end read
+
+   /*
+    * Drops the changes older than the retention whose transactions had
+    * finished at the last read
+    */
+   private void prune () throws SQLException {
+      PreparedStatement stmt = this._conn.prepareStatement (PRUNE_SQL);
+      try{
+         stmt.setString (1, this._retentionMillis + " milliseconds");
+         stmt.setLong (2, this._xmin);
+         stmt.executeUpdate ();
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end prune
+
+}//end InvalidationBus
@@ -0,0 +1,307 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class compares index sets by the latency of the query shapes the
+ * application sends to the database.  For every configuration, either
+ * "none" or an index script such as sql/create_indexes.sql, it creates the
+ * indexes and analyzes the tables, runs every query shape many times with
+ * parameters drawn at random from the data, and reports p50/p95/p99
+ * latencies.  It then saves the EXPLAIN (ANALYZE, BUFFERS) plan of every
+ * shape, so the numbers can be checked against the plan that produced
+ * them.  The indexes of a configuration are dropped before the next one.
+ *
+ * The plans are written to <out>/<configuration>/<shape>.txt and the
+ * latencies to <out>/latencies.txt.
+ *
+ * Usage: java LatencyHarness <dbname> <port> <user> [runs=200] [out=plans]
+ *        [none] [indexScript ...]
+ *
+ */
+public class LatencyHarness {
+
+   // CREATE [UNIQUE] INDEX [IF NOT EXISTS] <name>
+   private static final Pattern CREATE_INDEX = Pattern.compile (
+      "(?is)CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+).*");
+
+   private final DBProject _db;
+   private final Random _random = new Random (166);
+
+   // parameter values sampled from the database
+   private int[] _hotels;
+   private int[][] _rooms;
+   private int[] _customers;
+   private String[] _companies;
+   private int _firstDay;
+   private int _lastDay;
+
+   /**
+    * Creates a harness for the given database.
+    *
+    * @param db the connected database
+    */
+   public LatencyHarness (DBProject db) {
+      this._db = db;
+   }//end LatencyHarness
+
+   /**
+    * Returns the query shapes, each with a source of random parameters.
+    */
+   List<Shape> shapes () {
+      List<Shape> shapes = new ArrayList<Shape>();
+      shapes.add (new Shape ("numberOfBookedRooms", DBOperations.BOOKED_ROOMS_SQL) {
+         Object[] params (Random r) {
+            return new Object[] { pick (r, _hotels) };
+         }
+      });
+      shapes.add (new Shape ("listHotelRoomBookingsForAWeek", DBOperations.BOOKINGS_FOR_A_WEEK_SQL) {
+         Object[] params (Random r) {
+            String date = EpochDays.format (day (r));
+            return new Object[] { pick (r, _hotels), date, date };
+         }
+      });
+      shapes.add (new Shape ("topKHighestPriceBookingsForACustomer", DBOperations.TOP_K_CUSTOMER_BOOKINGS_SQL) {
+         Object[] params (Random r) {
+            return new Object[] { pick (r, _customers), 10 };
+         }
+      });
+      shapes.add (new Shape ("totalCostForCustomer", DBOperations.TOTAL_COST_SQL) {
+         Object[] params (Random r) {
+            int first = day (r);
+            return new Object[] { pick (r, _hotels), pick (r, _customers), EpochDays.format (first),
+                                  EpochDays.format (first + 365) };
+         }
+      });
+      shapes.add (new Shape ("listRepairsMade", DBOperations.REPAIRS_MADE_SQL) {
+         Object[] params (Random r) {
+            return new Object[] { _companies[r.nextInt (_companies.length)] };
+         }
+      });
+      shapes.add (new Shape ("topKMaintenanceCompany", DBOperations.TOP_K_MAINTENANCE_COMPANY_SQL) {
+         Object[] params (Random r) {
+            return new Object[] { 10 };
+         }
+      });
+      shapes.add (new Shape ("numberOfRepairsForEachRoomPerYear", DBOperations.REPAIRS_PER_YEAR_SQL) {
+         Object[] params (Random r) {
+            int room = r.nextInt (_rooms[0].length);
+            return new Object[] { _rooms[0][room], _rooms[1][room] };
+         }
+      });
+      return shapes;
+   }//end shapes
+
+   /**
+    * Samples the parameter values from the database.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void prepare (int sample) throws SQLException {
+      this._hotels = ints (this._db.executeQueryForResult (
+            "SELECT hotelID FROM Hotel ORDER BY random() LIMIT ?", sample), 0);
+      QueryResult rooms = this._db.executeQueryForResult (
+            "SELECT hotelID, roomNo FROM Room ORDER BY random() LIMIT ?", sample);
+      this._rooms = new int[][] { ints (rooms, 0), ints (rooms, 1) };
+      this._customers = ints (this._db.executeQueryForResult (
+            "SELECT customerID FROM Customer ORDER BY random() LIMIT ?", sample), 0);
+      QueryResult companies = this._db.executeQueryForResult (
+            "SELECT name FROM MaintenanceCompany GROUP BY name HAVING COUNT(*) = 1 ORDER BY random() LIMIT ?",
+            sample);
+      this._companies = new String[companies.getRowCount ()];
+      for (int i = 0; i < this._companies.length; ++i)
+         this._companies[i] = companies.getRows ().get (i)[0].toString ();
+
+      Object[] range = this._db.executeQueryForResult (
+            "SELECT MIN(bookingDate), MAX(bookingDate) FROM Booking").getRows ().get (0);
+      this._firstDay = range[0] == null ? EpochDays.of (2000, 1, 1) : EpochDays.parse (range[0].toString ());
+      this._lastDay = range[1] == null ? EpochDays.of (2020, 12, 31) : EpochDays.parse (range[1].toString ());
+      if (this._hotels.length == 0 || this._rooms[0].length == 0 || this._customers.length == 0
+          || this._companies.length == 0)
+         throw new SQLException ("The database has no rows to draw parameters from");
+   }//end prepare
+
+   /**
+    * Measures every shape under one index configuration and saves the
+    * plans.
+    *
+    * @param name the configuration name used in the report and file names
+    * @param indexScript the index script, or null for no extra indexes
+    * @param runs the measured executions per shape
+    * @param out the folder results are written to
+    * @param report receives one line per shape
+    */
+   public void measure (String name, File indexScript, int runs, File out,
+                        PrintWriter report) throws SQLException, IOException {
+      if (indexScript != null)
+         for (String sql : BulkLoader.readStatements (indexScript))
+            this._db.executeUpdate (sql);
+      this._db.executeUpdate ("ANALYZE");
+
+      try{
+         File plans = new File (out, name);
+         if (!plans.isDirectory () && !plans.mkdirs ())
+            throw new IOException ("Cannot create " + plans);
+         DBBenchmark.Sink sink = new DBBenchmark.Sink ();
+         for (Shape shape : shapes ()){
+            for (int i = 0; i < Math.max (1, runs / 10); ++i)
+               this._db.streamQuery (shape.sql, 0, sink, shape.params (this._random));
+
+            LatencyHistogram latencies = new LatencyHistogram ();
+            for (int i = 0; i < runs; ++i){
+               Object[] params = shape.params (this._random);
+               long start = System.nanoTime ();
+               this._db.streamQuery (shape.sql, 0, sink, params);
+               latencies.record (System.nanoTime () - start);
+            }//end for
+
+            String line = String.format ("%-24s %-36s %9.3f %9.3f %9.3f %9.3f %9.3f", name, shape.name,
+                  latencies.getPercentile (50) / 1e6, latencies.getPercentile (95) / 1e6,
+                  latencies.getPercentile (99) / 1e6, latencies.getMean () / 1e6,
+                  latencies.getMax () / 1e6);
+            System.out.println (line);
+            report.println (line);
+            explain (shape, new File (plans, shape.name + ".txt"));
+         }//end for
+      }finally{
+         if (indexScript != null)
+            dropIndexes (indexScript);
+      }//end try
+   }//end measure
+
+   /**
+    * Drops every index an index script creates, if it exists.
+    */
+   public void dropIndexes (File indexScript) throws SQLException, IOException {
+      for (String sql : BulkLoader.readStatements (indexScript)){
+         Matcher index = CREATE_INDEX.matcher (sql);
+         if (index.matches ())
+            this._db.executeUpdate ("DROP INDEX IF EXISTS " + index.group (1));
+      }//end for
+   }//end dropIndexes
+
+   /*
+    * Saves the plan of one execution of the shape
+    */
+   private void explain (Shape shape, File file) throws SQLException, IOException {
+      Object[] params = shape.params (this._random);
+      QueryResult plan = this._db.executeQueryForResult ("EXPLAIN (ANALYZE, BUFFERS) " + shape.sql, params);
+      PrintWriter writer = new PrintWriter (new OutputStreamWriter (new FileOutputStream (file), "UTF-8"));
+      try{
+         writer.println ("-- " + shape.sql);
+         StringBuilder sb = new StringBuilder ("-- parameters:");
+         for (Object param : params)
+            sb.append (' ').append (param);
+         writer.println (sb);
+         for (Object[] row : plan.getRows ())
+            writer.println (row[0]);
+      }finally{
+         writer.close ();
+      }//end try
+   }//end explain
+
+   private int day (Random r) {
+      return this._firstDay + r.nextInt (Math.max (1, this._lastDay - this._firstDay + 1));
+   }//end day
+
+   private static int pick (Random r, int[] values) {
+      return values[r.nextInt (values.length)];
+   }//end pick
+
+   private static int[] ints (QueryResult result, int column) {
+      int[] values = new int[result.getRowCount ()];
+      for (int i = 0; i < values.length; ++i)
+         values[i] = ((Number) result.getRows ().get (i)[column]).intValue ();
+      return values;
+   }//end ints
+
+   /**
+    * One query shape and how to draw its parameters.
+    */
+   abstract static class Shape {
+      final String name;
+      final String sql;
+
+      Shape (String name, String sql) {
+         this.name = name;
+         this.sql = sql;
+      }
+
+      abstract Object[] params (Random r);
+   }//end Shape
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + LatencyHarness.class.getName () +
+            " <dbname> <port> <user> [runs=200] [out=plans] [none] [indexScript ...]");
+         return;
+      }//end if
+
+      int runs = 200;
+      File out = new File ("plans");
+      Set<String> configurations = new LinkedHashSet<String>();
+      for (int i = 3; i < args.length; ++i){
+         if (args[i].startsWith ("runs="))
+            runs = Integer.parseInt (args[i].substring (5));
+         else if (args[i].startsWith ("out="))
+            out = new File (args[i].substring (4));
+         else
+            configurations.add (args[i]);
+      }//end for
+      if (configurations.isEmpty ()){
+         configurations.add ("none");
+         configurations.add ("../sql/create_indexes.sql");
+      }//end if
+
+      DBProject esql = null;
+      PrintWriter report = null;
+      try{
+         DBProject.loadDriver ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         LatencyHarness harness = new LatencyHarness (esql);
+         harness.prepare (10000);
+
+         // start from the tables without any of the indexes being compared
+         for (String configuration : configurations)
+            if (!configuration.equals ("none"))
+               harness.dropIndexes (new File (configuration));
+
+         if (!out.isDirectory () && !out.mkdirs ())
+            throw new IOException ("Cannot create " + out);
+         report = new PrintWriter (new OutputStreamWriter (
+               new FileOutputStream (new File (out, "latencies.txt")), "UTF-8"));
+         String header = String.format ("%-24s %-36s %9s %9s %9s %9s %9s", "configuration", "shape",
+               "p50 ms", "p95 ms", "p99 ms", "mean ms", "max ms");
+         System.out.println (header);
+         report.println (header);
+         for (String configuration : configurations){
+            if (configuration.equals ("none")){
+               harness.measure ("none", null, runs, out, report);
+            }else{
+               File script = new File (configuration);
+               harness.measure (script.getName ().replaceFirst ("\\.sql$", ""), script, runs, out, report);
+            }//end if
+         }//end for
+         System.out.println ("Plans written to " + out);
+      }catch (Exception e){
+         System.err.println ("Measurement failed: " + e.getMessage ());
+      }finally{
+         if (report != null)
+            report.close ();
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end LatencyHarness
@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in logarithmic buckets so percentiles can be
+ * reported without keeping every sample.  Each power of two is split into
+ * 32 buckets, so a reported percentile is at most about 3% above the true
+ * value, and the histogram takes the same 16KB whether it holds ten
+ * samples or ten billion.
+ *
+ * Recording is lock free and safe from any number of threads.
+ *
+ */
+public class LatencyHistogram {
+
+   // buckets per power of two, as a number of bits
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+
+   private final AtomicLongArray _buckets = new AtomicLongArray (64 * SUB_COUNT);
+   private final AtomicLong _count = new AtomicLong ();
+   private final AtomicLong _sum = new AtomicLong ();
+   private final AtomicLong _max = new AtomicLong ();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record (long nanos) {
+      if (nanos < 0)
+         nanos = 0;
+      this._buckets.incrementAndGet (bucket (nanos));
+      this._count.incrementAndGet ();
+      this._sum.addAndGet (nanos);
+      long max = this._max.get ();
+      while (nanos > max && !this._max.compareAndSet (max, nanos))
+         max = this._max.get ();
+   }//end record
+
+   public long getCount () {
+      return this._count.get ();
+   }//end getCount
+
+   /**
+    * Returns the sum of all recorded latencies in nanoseconds.
+    */
+   public long getSum () {
+      return this._sum.get ();
+   }//end getSum
+
+   public long getMax () {
+      return this._max.get ();
+   }//end getMax
+
+   public double getMean () {
+      long count = this._count.get ();
+      return count == 0 ? 0 : (double) this._sum.get () / count;
+   }//end getMean
+
+   /**
+    * Returns the latency in nanoseconds below which the given percent of
+    * the recorded latencies fall, or 0 when nothing was recorded.
+    *
+    * @param percent a percentile between 0 and 100, e.g. 99.9
+    */
+   public long getPercentile (double percent) {
+      long count = this._count.get ();
+      if (count == 0)
+         return 0;
+      long rank = Math.max (1, (long) Math.ceil (percent / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < this._buckets.length (); ++i){
+         seen += this._buckets.get (i);
+         if (seen >= rank)
+            return Math.min (upperBound (i), this._max.get ());
+      }//end for
+      return this._max.get ();
+   }//end getPercentile
+
+   /**
+    * Returns the number of recorded latencies of at most the given value.
+    * Latencies sharing a bucket with the value are counted as below it.
+    *
+    * @param nanos the bound in nanoseconds
+    */
+   public long getCountAtMost (long nanos) {
+      if (nanos < 0)
+         return 0;
+      int last = bucket (nanos);
+      long seen = 0;
+      for (int i = 0; i <= last; ++i)
+         seen += this._buckets.get (i);
+      return seen;
+   }//end getCountAtMost
+
+   /**
+    * Forgets every recorded latency.
+    */
+   public void reset () {
+      for (int i = 0; i < this._buckets.length (); ++i)
+         this._buckets.set (i, 0);
+      this._count.set (0);
+      this._sum.set (0);
+      this._max.set (0);
+   }//end reset
+
+   private static int bucket (long value) {
+      if (value < SUB_COUNT)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+      int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+      return (shift + 1) * SUB_COUNT + sub;
+   }//end bucket
+
+   private static long upperBound (int bucket) {
+      if (bucket < SUB_COUNT)
+         return bucket;
+      int shift = bucket / SUB_COUNT - 1;
+      long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+      return lower + (1L << shift) - 1;
+   }//end upperBound
+
+}//end LatencyHistogram
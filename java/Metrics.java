@@ -0,0 +1,251 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps per-operation metrics: a latency histogram and counts
+ * of calls, errors, rows returned and JDBC round trips.  The metrics are
+ * exported in the Prometheus text format, from the /metrics path of the
+ * service mode or to a file rewritten periodically.
+ *
+ * An operation is measured with a timer:
+ *
+ *    Metrics.Timer timer = metrics.start ("bookRoom");
+ *    try{
+ *       ...
+ *       timer.success (rows);
+ *    }finally{
+ *       timer.stop ();
+ *    }
+ *
+ * A timer stopped without success counts as an error.  Round trips are
+ * counted per thread by the code that talks to the server, so a timer
+ * sees those made by its own operation.
+ *
+ */
+public class Metrics {
+
+   // upper bounds of the exported latency buckets, in seconds
+   static final double[] BUCKETS = {
+      0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+   };
+
+   // round trips made by the current thread
+   private static final ThreadLocal<long[]> ROUND_TRIPS = new ThreadLocal<long[]>() {
+      protected long[] initialValue () {
+         return new long[1];
+      }
+   };
+
+   // operation name -> its metrics
+   private final ConcurrentHashMap<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+
+   // receives the operations that take too long, or null
+   private volatile SlowLog _slowLog = null;
+
+   // the result cache whose counters are exported too, or null
+   private volatile ResultCache _cache = null;
+
+   // the invalidation bus whose counters are exported too, or null
+   private volatile InvalidationBus _bus = null;
+
+   /**
+    * Counts round trips to the server made by the current thread.
+    */
+   public static void countRoundTrips (long trips) {
+      ROUND_TRIPS.get ()[0] += trips;
+   }//end countRoundTrips
+
+   /**
+    * Starts timing one call of an operation.
+    */
+   public Timer start (String operation) {
+      Operation metrics = this._operations.get (operation);
+      if (metrics == null){
+         Operation created = new Operation ();
+         metrics = this._operations.putIfAbsent (operation, created);
+         if (metrics == null)
+            metrics = created;
+      }//end if
+      return new Timer (operation, metrics, this._slowLog);
+   }//end start
+
+   /**
+    * Logs the operations that take longer than the slow log's threshold,
+    * or stops logging when the log is null.
+    */
+   public void setSlowLog (SlowLog slowLog) {
+      this._slowLog = slowLog;
+   }//end setSlowLog
+
+   /**
+    * Exports the hit and miss counts of the given result cache with the
+    * operation metrics, or stops when it is null.
+    */
+   public void setCache (ResultCache cache) {
+      this._cache = cache;
+   }//end setCache
+
+   /**
+    * Exports the change counts and lag of the given invalidation bus with
+    * the operation metrics, or stops when it is null.
+    */
+   public void setInvalidationBus (InvalidationBus bus) {
+      this._bus = bus;
+   }//end setInvalidationBus
+
+   /**
+    * Returns the metrics in the Prometheus text exposition format.
+    */
+   public String toPrometheus () {
+      Map<String, Operation> operations = new TreeMap<String, Operation>(this._operations);
+      StringBuilder sb = new StringBuilder (4096);
+
+      sb.append ("# HELP hotel_operation_duration_seconds Time taken by each operation.\n");
+      sb.append ("# TYPE hotel_operation_duration_seconds histogram\n");
+      for (Map.Entry<String, Operation> entry : operations.entrySet ()){
+         LatencyHistogram latency = entry.getValue ().latency;
+         String label = "operation=\"" + entry.getKey () + "\"";
+         for (double bound : BUCKETS)
+            sb.append ("hotel_operation_duration_seconds_bucket{").append (label).append (",le=\"")
+              .append (BigDecimal.valueOf (bound).toPlainString ()).append ("\"} ").append (latency.getCountAtMost ((long) (bound * 1e9))).append ('\n');
+         sb.append ("hotel_operation_duration_seconds_bucket{").append (label).append (",le=\"+Inf\"} ")
+           .append (latency.getCount ()).append ('\n');
+         sb.append ("hotel_operation_duration_seconds_sum{").append (label).append ("} ")
+           .append (latency.getSum () / 1e9).append ('\n');
+         sb.append ("hotel_operation_duration_seconds_count{").append (label).append ("} ")
+           .append (latency.getCount ()).append ('\n');
+      }//end for
+
+      counter (sb, operations, "hotel_operation_calls_total", "Calls of each operation.", 3);
+      counter (sb, operations, "hotel_operation_errors_total", "Calls that failed.", 0);
+      counter (sb, operations, "hotel_operation_rows_total", "Rows returned or written.", 1);
+      counter (sb, operations, "hotel_operation_round_trips_total", "JDBC round trips to the server.", 2);
+      ResultCache cache = this._cache;
+      if (cache != null)
+         cache.toPrometheus (sb);
+      InvalidationBus bus = this._bus;
+      if (bus != null)
+         bus.toPrometheus (sb);
+      return sb.toString ();
+   }//end toPrometheus
+
+   /**
+    * Writes the metrics to a file, replacing it at once so readers never
+    * see a partial file.
+    */
+   public void writeTo (File file) throws IOException {
+      File temp = new File (file.getPath () + ".tmp");
+      Writer out = new OutputStreamWriter (new FileOutputStream (temp), "UTF-8");
+      try{
+         out.write (toPrometheus ());
+      }finally{
+         out.close ();
+      }//end try
+      if (!temp.renameTo (file)){
+         file.delete ();
+         if (!temp.renameTo (file))
+            throw new IOException ("Cannot replace " + file);
+      }//end if
+   }//end writeTo
+
+   /**
+    * Rewrites the metrics file every period from a background thread.
+    */
+   public void exportTo (final File file, final long periodMillis) {
+      Thread exporter = new Thread ("metrics-export") {
+         public void run () {
+            while (true){
+               try{
+                  Thread.sleep (periodMillis);
+                  writeTo (file);
+               }catch (InterruptedException e){
+                  return;
+               }catch (IOException e){
+                  System.err.println ("Cannot write metrics: " + e.getMessage ());
+               }//end try
+            }//end while
+         }
+      };
+      exporter.setDaemon (true);
+      exporter.start ();
+   }//end exportTo
+
+   private static void counter (StringBuilder sb, Map<String, Operation> operations, String name,
+                                String help, int which) {
+      sb.append ("# HELP ").append (name).append (' ').append (help).append ('\n');
+      sb.append ("# TYPE ").append (name).append (" counter\n");
+      for (Map.Entry<String, Operation> entry : operations.entrySet ()){
+         Operation op = entry.getValue ();
+         long value = which == 0 ? op.errors.get () : which == 1 ? op.rows.get ()
+                    : which == 2 ? op.roundTrips.get () : op.latency.getCount ();
+         sb.append (name).append ("{operation=\"").append (entry.getKey ()).append ("\"} ")
+           .append (value).append ('\n');
+      }//end for
+   }//end counter
+
+   /**
+    * The metrics of one operation.  The call count is the latency count.
+    */
+   static class Operation {
+      final LatencyHistogram latency = new LatencyHistogram ();
+      final AtomicLong errors = new AtomicLong ();
+      final AtomicLong rows = new AtomicLong ();
+      final AtomicLong roundTrips = new AtomicLong ();
+   }//end Operation
+
+   /**
+    * Measures one call of an operation.
+    */
+   public static class Timer {
+      private final String _name;
+      private final Operation _operation;
+      private final SlowLog _slowLog;
+      private final long _start;
+      private final long _startTrips;
+      private boolean _success = false;
+      private long _rows = 0;
+
+      Timer (String name, Operation operation, SlowLog slowLog) {
+         this._name = name;
+         this._operation = operation;
+         this._slowLog = slowLog;
+         if (slowLog != null)
+            slowLog.begin ();
+         this._startTrips = ROUND_TRIPS.get ()[0];
+         this._start = System.nanoTime ();
+      }
+
+      /**
+       * Marks the call as successful and returns the row count given.
+       */
+      public int success (int rows) {
+         this._success = true;
+         this._rows = rows;
+         return rows;
+      }
+
+      /**
+       * Records the call.  Must be called once, in a finally block.
+       */
+      public void stop () {
+         long elapsed = System.nanoTime () - this._start;
+         this._operation.latency.record (elapsed);
+         this._operation.roundTrips.addAndGet (ROUND_TRIPS.get ()[0] - this._startTrips);
+         if (this._success)
+            this._operation.rows.addAndGet (this._rows);
+         else
+            this._operation.errors.incrementAndGet ();
+         if (this._slowLog != null)
+            this._slowLog.end (this._name, elapsed, !this._success);
+      }
+   }//end Timer
+
+}//end Metrics
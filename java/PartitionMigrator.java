@@ -0,0 +1,493 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class moves Booking or Repair into a table range partitioned by
+ * year or month on bookingDate or repairDate, while the application keeps
+ * running.  Queries that filter on the date then only scan the partitions
+ * of the dates asked for.
+ *
+ * The migration runs in steps:
+ *
+ *    1. a partitioned copy of the table is created with the same columns,
+ *       foreign keys and indexes, one partition per year or month from the
+ *       first date in the table to some years after the last one, and a
+ *       default partition for the dates outside of them; the primary key
+ *       becomes (key, date) since it must hold the partition column
+ *    2. a trigger on the table mirrors every insert, update and delete
+ *       into the copy from then on
+ *    3. the existing rows are copied in batches of primary keys, one short
+ *       transaction per batch, with a pause between batches; each batch
+ *       share-locks the rows it copies, so a concurrent change waits for
+ *       the batch and is then mirrored on top of it.  After each batch the
+ *       row counts of its key range in both tables are compared, on the
+ *       key indexes and without locking the table
+ *    4. in one transaction the table is locked, the row counts of the keys
+ *       outside the copied ranges, which only the trigger wrote, compared,
+ *       the trigger dropped and the copy renamed to the table's name; the
+ *       old table is kept as <table>_unpartitioned unless dropOld is given
+ *
+ * A foreign key that references the table (Request.repairID references
+ * Repair.rID) cannot reference the partitioned table, whose primary key
+ * also holds the date.  It is replaced by two triggers: one on the
+ * referencing table rejects rows whose key does not exist, key share
+ * locking the referenced row so it cannot be deleted before the check
+ * commits, and one on the partitioned table applies the key's ON DELETE
+ * and ON UPDATE actions (SET DEFAULT for Request) when a referenced key
+ * disappears.
+ *
+ * With extend, the partitions of an already partitioned table are created
+ * up to some years ahead; dates past the last partition land in the
+ * default partition, which has to be emptied before their partition can
+ * be created.
+ *
+ * Usage: java PartitionMigrator <dbname> <port> <user> <Booking|Repair>
+ *        [year|month] [batch=10000] [pause=50] [ahead=2] [dropOld] [extend]
+ *
+ */
+public class PartitionMigrator {
+
+   // table, primary key, partition column; names as the catalog holds them
+   private static final String[][] TABLES = {
+      { "booking", "bid", "bookingdate" },
+      { "repair", "rid", "repairdate" },
+   };
+
+   // CREATE [UNIQUE] INDEX <name> ON [ONLY] <table> USING ...
+   private static final Pattern CREATE_INDEX = Pattern.compile (
+      "(?is)(CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+)(\\w+)\\s+ON\\s+(?:ONLY\\s+)?\\S+(\\s+USING.*)");
+
+   // FOREIGN KEY (<columns>) REFERENCES <table>(<columns>) ...
+   private static final Pattern FOREIGN_KEY = Pattern.compile (
+      "(?is)FOREIGN KEY\\s*\\(([^)]*)\\)\\s*REFERENCES\\s+[^(]+\\(([^)]*)\\).*");
+
+   // ON DELETE <action> or ON UPDATE <action> of a foreign key
+   private static final Pattern ON_DELETE = Pattern.compile (
+      "(?is).*ON DELETE (CASCADE|SET NULL|SET DEFAULT|RESTRICT|NO ACTION).*");
+   private static final Pattern ON_UPDATE = Pattern.compile (
+      "(?is).*ON UPDATE (CASCADE|SET NULL|SET DEFAULT|RESTRICT|NO ACTION).*");
+
+   private final DBProject _db;
+   private final String _table;
+   private final String _key;
+   private final String _column;
+   private final boolean _monthly;
+
+   /**
+    * Creates a migrator for one table.
+    *
+    * @param db the connected database
+    * @param table Booking or Repair
+    * @param monthly true for one partition per month, false for one per year
+    * @throws java.sql.SQLException when the table cannot be partitioned
+    */
+   public PartitionMigrator (DBProject db, String table, boolean monthly) throws SQLException {
+      String[] spec = null;
+      for (String[] candidate : TABLES)
+         if (candidate[0].equalsIgnoreCase (table))
+            spec = candidate;
+      if (spec == null)
+         throw new SQLException ("Only Booking and Repair can be partitioned, not " + table);
+      this._db = db;
+      this._table = spec[0];
+      this._key = spec[1];
+      this._column = spec[2];
+      this._monthly = monthly;
+   }//end PartitionMigrator
+
+   /**
+    * Returns true if the table is already partitioned.
+    */
+   public boolean isPartitioned () throws SQLException {
+      Integer partitioned = this._db.executeScalarInt (
+         "SELECT COUNT(*)::int FROM pg_class WHERE relname = ? AND relkind = 'p' AND pg_table_is_visible(oid)",
+         this._table);
+      return partitioned != null && partitioned > 0;
+   }//end isPartitioned
+
+   /**
+    * Moves the table into partitions.
+    *
+    * @param batch the rows copied per transaction
+    * @param pauseMillis the pause between batches
+    * @param aheadYears the years of partitions created past the last date
+    * @param dropOld true to drop the unpartitioned table at the end
+    * @throws java.sql.SQLException when a step fails; the table is left as
+    *         it was and the migration can be run again
+    * @throws java.lang.InterruptedException when interrupted between batches
+    */
+   public void migrate (int batch, long pauseMillis, int aheadYears, boolean dropOld)
+      throws SQLException, InterruptedException {
+      if (isPartitioned ())
+         throw new SQLException (this._table + " is already partitioned");
+      String copy = this._table + "_part";
+      String mirror = copy + "_mirror";
+
+      // left over by an earlier run that did not finish
+      this._db.executeUpdate ("DROP TRIGGER IF EXISTS " + mirror + " ON " + this._table);
+      this._db.executeUpdate ("DROP TABLE IF EXISTS " + copy + " CASCADE");
+
+      System.out.println ("Creating " + copy + "...");
+      this._db.executeUpdate ("CREATE TABLE " + copy + " (LIKE " + this._table
+                              + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE ("
+                              + this._column + ")");
+      this._db.executeUpdate ("ALTER TABLE " + copy + " ADD PRIMARY KEY (" + this._key + ", "
+                              + this._column + ")");
+      for (Object[] fk : this._db.executeQueryForResult (
+              "SELECT conname::text, pg_get_constraintdef(oid) FROM pg_constraint "
+              + "WHERE conrelid = ?::regclass AND contype = 'f'", this._table).getRows ())
+         this._db.executeUpdate ("ALTER TABLE " + copy + " ADD CONSTRAINT " + fk[0] + " " + fk[1]);
+      for (Object[] index : this._db.executeQueryForResult (
+              "SELECT indexname::text, indexdef FROM pg_indexes WHERE tablename = ? "
+              + "AND schemaname = current_schema() AND indexname NOT IN "
+              + "(SELECT conname FROM pg_constraint WHERE conrelid = ?::regclass)",
+              this._table, this._table).getRows ()){
+         Matcher def = CREATE_INDEX.matcher (index[1].toString ());
+         if (!def.matches ())
+            throw new SQLException ("Cannot copy index " + index[0] + ": " + index[1]);
+         this._db.executeUpdate (def.group (1) + def.group (2) + "_p ON " + copy + def.group (3));
+      }//end for
+
+      Object[] years = this._db.executeQueryForResult (
+         "SELECT EXTRACT(year FROM MIN(" + this._column + "))::int, EXTRACT(year FROM MAX("
+         + this._column + "))::int FROM " + this._table).getRows ().get (0);
+      int thisYear = Calendar.getInstance ().get (Calendar.YEAR);
+      int first = years[0] == null ? thisYear : ((Number) years[0]).intValue ();
+      int last = Math.max (years[1] == null ? thisYear : ((Number) years[1]).intValue (), thisYear);
+      int partitions = createPartitions (copy, first, last + aheadYears);
+      System.out.println ("Created " + partitions + " partitions for " + first + " to " + (last + aheadYears));
+
+      List<String> columns = new ArrayList<String>();
+      for (Object[] row : this._db.executeQueryForResult (
+              "SELECT column_name::text FROM information_schema.columns WHERE table_name = ? "
+              + "AND table_schema = current_schema() ORDER BY ordinal_position", this._table).getRows ())
+         columns.add (row[0].toString ());
+      StringBuilder set = new StringBuilder ();
+      for (String column : columns)
+         if (!column.equals (this._key) && !column.equals (this._column))
+            set.append (set.length () > 0 ? ", " : "").append (column).append (" = EXCLUDED.").append (column);
+      this._db.executeUpdate (
+         "CREATE OR REPLACE FUNCTION " + mirror + "() RETURNS trigger AS $$\n"
+         + "BEGIN\n"
+         + "   IF TG_OP <> 'INSERT' THEN\n"
+         + "      DELETE FROM " + copy + " WHERE " + this._key + " = OLD." + this._key
+         + " AND " + this._column + " = OLD." + this._column + ";\n"
+         + "   END IF;\n"
+         + "   IF TG_OP <> 'DELETE' THEN\n"
+         + "      INSERT INTO " + copy + " SELECT NEW.* ON CONFLICT (" + this._key + ", " + this._column + ") "
+         + (set.length () > 0 ? "DO UPDATE SET " + set : "DO NOTHING") + ";\n"
+         + "   END IF;\n"
+         + "   RETURN NULL;\n"
+         + "END $$ LANGUAGE plpgsql");
+      this._db.executeUpdate ("CREATE TRIGGER " + mirror + " AFTER INSERT OR UPDATE OR DELETE ON "
+                              + this._table + " FOR EACH ROW EXECUTE PROCEDURE " + mirror + "()");
+
+      // keys added from now on are mirrored by the trigger
+      Object[] keys = this._db.executeQueryForResult (
+         "SELECT MIN(" + this._key + ")::bigint, MAX(" + this._key + ")::bigint FROM " + this._table)
+         .getRows ().get (0);
+      long lowest = 0, high = 0;
+      if (keys[0] != null){
+         long low = lowest = ((Number) keys[0]).longValue () - 1;
+         high = ((Number) keys[1]).longValue ();
+         String copySql = "INSERT INTO " + copy + " SELECT * FROM (SELECT * FROM " + this._table
+                          + " WHERE " + this._key + " > ? AND " + this._key + " <= ? FOR SHARE) AS batch "
+                          + "ON CONFLICT DO NOTHING";
+         long copied = 0;
+         long start = System.nanoTime ();
+         while (low < high){
+            long next = Math.min (high, low + batch);
+            copied += this._db.executeUpdate (copySql, low, next);
+            verify (copy, low, next);
+            low = next;
+            System.out.printf ("Copied %d rows, %s up to %d of %d (%.0f rows/s)%n", copied, this._key, low,
+                               high, copied / Math.max (1e-9, (System.nanoTime () - start) / 1e9));
+            if (pauseMillis > 0 && low < high)
+               Thread.sleep (pauseMillis);
+         }//end while
+      }//end if
+
+      swap (copy, mirror, lowest, high);
+      this._db.executeUpdate ("ANALYZE " + this._table);
+      if (dropOld)
+         this._db.executeUpdate ("DROP TABLE " + this._table + "_unpartitioned");
+      System.out.println (this._table + " is partitioned by " + (this._monthly ? "month" : "year")
+                          + (dropOld ? "" : "; the old table is " + this._table + "_unpartitioned"));
+   }//end migrate
+
+   /**
+    * Creates the missing partitions of the already partitioned table up to
+    * some years from now.
+    *
+    * @param aheadYears the years of partitions created past this year
+    * @return the partitions created
+    * @throws java.sql.SQLException when the table is not partitioned, or a
+    *         partition would take rows from the default partition
+    */
+   public int extend (int aheadYears) throws SQLException {
+      if (!isPartitioned ())
+         throw new SQLException (this._table + " is not partitioned");
+      Integer first = this._db.executeScalarInt (
+         "SELECT EXTRACT(year FROM MIN(" + this._column + "))::int FROM " + this._table);
+      int thisYear = Calendar.getInstance ().get (Calendar.YEAR);
+      return createPartitions (this._table, first == null ? thisYear : Math.min (first, thisYear),
+                               thisYear + aheadYears);
+   }//end extend
+
+   /*
+    * Creates the partitions of the years from first to last, by year or by
+    * month, and the default partition, if they do not exist yet.  The
+    * partitions are named after the table, <table>_p2015 or
+    * <table>_p2015_03, so they keep their names when the copy is renamed
+    */
+   private int createPartitions (String parent, int first, int last) throws SQLException {
+      int created = 0;
+      for (int year = first; year <= last; ++year){
+         for (int month = 1; month <= (this._monthly ? 12 : 1); ++month){
+            String name = this._table + "_p" + year + (this._monthly ? String.format ("_%02d", month) : "");
+            String from = this._monthly ? String.format ("%d-%02d-01", year, month) : year + "-01-01";
+            String to = !this._monthly ? (year + 1) + "-01-01"
+                      : month == 12 ? (year + 1) + "-01-01" : String.format ("%d-%02d-01", year, month + 1);
+            if (exists (name))
+               continue;
+            this._db.executeUpdate ("CREATE TABLE " + name + " PARTITION OF " + parent
+                                    + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            ++created;
+         }//end for
+      }//end for
+      if (!exists (this._table + "_pdefault"))
+         this._db.executeUpdate ("CREATE TABLE " + this._table + "_pdefault PARTITION OF " + parent + " DEFAULT");
+      return created;
+   }//end createPartitions
+
+   /*
+    * Compares the row counts of a key range of the table and its copy in
+    * one snapshot; the trigger keeps them equal once the range is copied
+    */
+   private void verify (String copy, long low, long high) throws SQLException {
+      Integer missing = this._db.executeScalarInt (
+         "SELECT ((SELECT COUNT(*) FROM " + this._table + " WHERE " + this._key + " > ? AND " + this._key
+         + " <= ?) - (SELECT COUNT(*) FROM " + copy + " WHERE " + this._key + " > ? AND " + this._key
+         + " <= ?))::int", low, high, low, high);
+      if (missing != null && missing != 0)
+         throw new SQLException (copy + " differs from " + this._table + " by " + missing + " rows with "
+                                 + this._key + " in (" + low + ", " + high + "]; run the migration again");
+   }//end verify
+
+   /*
+    * Replaces the table by its partitioned copy in one transaction.  The
+    * keys in (lowest, high] were copied and verified in batches; only the
+    * rows of the other keys are counted under the lock
+    */
+   private void swap (String copy, String mirror, long lowest, long high) throws SQLException {
+      PooledConnection pooled = this._db.borrow ();
+      try{
+         Connection conn = pooled.getConnection ();
+         conn.setAutoCommit (false);
+         Statement stmt = conn.createStatement ();
+         try{
+            stmt.executeUpdate ("LOCK TABLE " + this._table + " IN ACCESS EXCLUSIVE MODE");
+            // on this connection: the others wait for the lock
+            String outside = " WHERE " + this._key + " <= " + lowest + " OR " + this._key + " > " + high;
+            ResultSet rs = stmt.executeQuery (
+               "SELECT (SELECT COUNT(*) FROM " + this._table + outside + ") - (SELECT COUNT(*) FROM " + copy
+               + outside + ")");
+            rs.next ();
+            long missing = rs.getLong (1);
+            rs.close ();
+            if (missing != 0)
+               throw new SQLException (copy + " differs from " + this._table + " by " + missing
+                                       + " rows; run the migration again");
+
+            // foreign keys of other tables that reference this one
+            List<String[]> references = new ArrayList<String[]>();
+            rs = stmt.executeQuery (
+               "SELECT conname, conrelid::regclass::text, pg_get_constraintdef(oid) FROM pg_constraint "
+               + "WHERE confrelid = '" + this._table + "'::regclass AND contype = 'f'");
+            while (rs.next ()){
+               Matcher def = FOREIGN_KEY.matcher (rs.getString (3));
+               if (!def.matches ())
+                  throw new SQLException ("Cannot replace foreign key " + rs.getString (1) + ": " + rs.getString (3));
+               references.add (new String[] { rs.getString (1), rs.getString (2), def.group (1), def.group (2),
+                                              rs.getString (3) });
+            }//end while
+            rs.close ();
+            for (String[] reference : references)
+               stmt.executeUpdate ("ALTER TABLE " + reference[1] + " DROP CONSTRAINT " + reference[0]);
+
+            stmt.executeUpdate ("DROP TRIGGER " + mirror + " ON " + this._table);
+            stmt.executeUpdate ("DROP FUNCTION " + mirror + "()");
+            stmt.executeUpdate ("ALTER TABLE " + this._table + " RENAME TO " + this._table + "_unpartitioned");
+            stmt.executeUpdate ("ALTER TABLE " + copy + " RENAME TO " + this._table);
+            for (String[] reference : references)
+               for (String sql : keyTriggers (reference[0], reference[1], reference[2], reference[3], reference[4]))
+                  stmt.executeUpdate (sql);
+            conn.commit ();
+         }catch (SQLException e){
+            conn.rollback ();
+            throw e;
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         this._db.release (pooled);
+      }//end try
+   }//end swap
+
+   /*
+    * Returns the statements of the triggers that replace a foreign key of
+    * the referencing table to this table: one checks the referencing rows,
+    * one applies the key's actions when a referenced key goes away
+    */
+   private String[] keyTriggers (String name, String referencing, String columns, String referenced,
+                                 String definition) {
+      String[] from = columns.split (",");
+      String[] to = referenced.split (",");
+      StringBuilder match = new StringBuilder ();
+      StringBuilder isNull = new StringBuilder ();
+      StringBuilder still = new StringBuilder ();
+      StringBuilder old = new StringBuilder ();
+      StringBuilder changed = new StringBuilder ();
+      StringBuilder setDefault = new StringBuilder ();
+      StringBuilder setNull = new StringBuilder ();
+      StringBuilder setNew = new StringBuilder ();
+      for (int i = 0; i < from.length; ++i){
+         String f = from[i].trim (), t = to[i].trim ();
+         String and = i > 0 ? " AND " : "", or = i > 0 ? " OR " : "", comma = i > 0 ? ", " : "";
+         match.append (and).append (t).append (" = NEW.").append (f);
+         isNull.append (or).append ("NEW.").append (f).append (" IS NULL");
+         still.append (and).append (t).append (" = OLD.").append (t);
+         old.append (and).append (f).append (" = OLD.").append (t);
+         changed.append (or).append ("NEW.").append (t).append (" IS DISTINCT FROM OLD.").append (t);
+         setDefault.append (comma).append (f).append (" = DEFAULT");
+         setNull.append (comma).append (f).append (" = NULL");
+         setNew.append (comma).append (f).append (" = NEW.").append (t);
+      }//end for
+      String onDelete = action (ON_DELETE, definition, setDefault, setNull, null, referencing, old);
+      String onUpdate = action (ON_UPDATE, definition, setDefault, setNull, setNew, referencing, old);
+
+      String action = name + "_action";
+      return new String[] {
+         // the key share lock keeps the referenced row until this commits
+         "CREATE OR REPLACE FUNCTION " + name + "() RETURNS trigger AS $$\n"
+         + "BEGIN\n"
+         + "   IF " + isNull + " THEN\n"
+         + "      RETURN NEW;\n"
+         + "   END IF;\n"
+         + "   PERFORM 1 FROM " + this._table + " WHERE " + match + " FOR KEY SHARE;\n"
+         + "   IF NOT FOUND THEN\n"
+         + "      RAISE EXCEPTION 'insert or update on table \"%\" violates foreign key \"%\"', TG_TABLE_NAME, TG_NAME\n"
+         + "         USING ERRCODE = 'foreign_key_violation';\n"
+         + "   END IF;\n"
+         + "   RETURN NEW;\n"
+         + "END $$ LANGUAGE plpgsql",
+         "CREATE TRIGGER " + name + " BEFORE INSERT OR UPDATE ON " + referencing
+         + " FOR EACH ROW EXECUTE PROCEDURE " + name + "()",
+
+         // a row moved to another partition by a date change is deleted and
+         // inserted again, so only a key that no row holds any more counts
+         "CREATE OR REPLACE FUNCTION " + action + "() RETURNS trigger AS $$\n"
+         + "BEGIN\n"
+         + "   IF TG_OP = 'UPDATE' AND NOT (" + changed + ") THEN\n"
+         + "      RETURN NULL;\n"
+         + "   END IF;\n"
+         + "   IF EXISTS (SELECT 1 FROM " + this._table + " WHERE " + still + ") THEN\n"
+         + "      RETURN NULL;\n"
+         + "   END IF;\n"
+         + "   IF TG_OP = 'DELETE' THEN\n"
+         + "      " + onDelete + "\n"
+         + "   ELSE\n"
+         + "      " + onUpdate + "\n"
+         + "   END IF;\n"
+         + "   RETURN NULL;\n"
+         + "END $$ LANGUAGE plpgsql",
+         "CREATE TRIGGER " + action + " AFTER DELETE OR UPDATE ON " + this._table
+         + " FOR EACH ROW EXECUTE PROCEDURE " + action + "()"
+      };
+   }//end keyTriggers
+
+   /*
+    * Returns the PL/pgSQL statement that applies a foreign key's ON DELETE
+    * or ON UPDATE action to the rows referencing the old key
+    */
+   private static String action (Pattern clause, String definition, CharSequence setDefault, CharSequence setNull,
+                                 CharSequence setNew, String referencing, CharSequence old) {
+      Matcher m = clause.matcher (definition);
+      String action = m.matches () ? m.group (1).toUpperCase () : "NO ACTION";
+      if (action.equals ("SET DEFAULT"))
+         return "UPDATE " + referencing + " SET " + setDefault + " WHERE " + old + ";";
+      if (action.equals ("SET NULL"))
+         return "UPDATE " + referencing + " SET " + setNull + " WHERE " + old + ";";
+      if (action.equals ("CASCADE"))
+         return setNew == null ? "DELETE FROM " + referencing + " WHERE " + old + ";"
+                               : "UPDATE " + referencing + " SET " + setNew + " WHERE " + old + ";";
+      return "IF EXISTS (SELECT 1 FROM " + referencing + " WHERE " + old + ") THEN\n"
+         + "         RAISE EXCEPTION 'update or delete on table \"%\" violates foreign key \"%\" on table \"" + referencing
+         + "\"', TG_TABLE_NAME, TG_NAME\n"
+         + "            USING ERRCODE = 'foreign_key_violation';\n"
+         + "      END IF;";
+   }//end action
+
+   private boolean exists (String table) throws SQLException {
+      Integer count = this._db.executeScalarInt (
+         "SELECT COUNT(*)::int FROM pg_class WHERE relname = ? AND pg_table_is_visible(oid)", table);
+      return count != null && count > 0;
+   }//end exists
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + PartitionMigrator.class.getName () +
+            " <dbname> <port> <user> <Booking|Repair> [year|month] [batch=10000] [pause=50] [ahead=2]" +
+            " [dropOld] [extend]");
+         return;
+      }//end if
+
+      boolean monthly = false;
+      int batch = 10000;
+      long pause = 50;
+      int ahead = 2;
+      boolean dropOld = false;
+      boolean extend = false;
+      for (int i = 4; i < args.length; ++i){
+         if (args[i].equals ("year") || args[i].equals ("month"))
+            monthly = args[i].equals ("month");
+         else if (args[i].startsWith ("batch="))
+            batch = Integer.parseInt (args[i].substring (6));
+         else if (args[i].startsWith ("pause="))
+            pause = Long.parseLong (args[i].substring (6));
+         else if (args[i].startsWith ("ahead="))
+            ahead = Integer.parseInt (args[i].substring (6));
+         else if (args[i].equals ("dropOld"))
+            dropOld = true;
+         else if (args[i].equals ("extend"))
+            extend = true;
+      }//end for
+
+      DBProject esql = null;
+      try{
+         DBProject.loadDriver ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         PartitionMigrator migrator = new PartitionMigrator (esql, args[3], monthly);
+         long start = System.nanoTime ();
+         if (extend)
+            System.out.println ("Created " + migrator.extend (ahead) + " partitions");
+         else
+            migrator.migrate (batch, pause, ahead, dropOld);
+         System.out.printf ("Done in %.1f s%n", (System.nanoTime () - start) / 1e9);
+      }catch (Exception e){
+         System.err.println ("Migration failed: " + e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end PartitionMigrator
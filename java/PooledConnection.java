@@ -0,0 +1,164 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * This class wraps a physical connection owned by a ConnectionPool together
+ * with its prepared statement cache and the bookkeeping the pool needs for
+ * idle eviction and leak detection.
+ *
+ */
+public class PooledConnection {
+
+   // reference to physical database connection.
+   private final Connection _connection;
+
+   // cached prepared statements for this connection
+   private final StatementCache _statements;
+
+   // time the connection was opened and last returned to the pool
+   final long createdAt;
+   long lastReleasedAt;
+
+   // time and, for sampled borrows, call site of the current borrow, used
+   // for leak detection
+   long borrowedAt;
+   Throwable borrowSite;
+   boolean leakReported;
+
+   // the pool's workload recorder at the time of the borrow, or null
+   WorkloadRecorder recorder;
+
+   /**
+    * Creates a new pooled connection
+    *
+    * @param connection the physical connection
+    * @param statementCacheSize the number of statements kept open
+    * @param serverPrepareThreshold uses after which a statement is prepared
+    *        on the server
+    */
+   PooledConnection (Connection connection, int statementCacheSize, int serverPrepareThreshold) {
+      this._connection = connection;
+      this._statements = new StatementCache (connection, statementCacheSize, serverPrepareThreshold);
+      this.createdAt = System.currentTimeMillis ();
+      this.lastReleasedAt = this.createdAt;
+   }//end PooledConnection
+
+   /**
+    * Returns the physical connection.  It must not be closed by the caller;
+    * give the pooled connection back to the pool instead.
+    */
+   public Connection getConnection () {
+      return this._connection;
+   }//end getConnection
+
+   /**
+    * Returns the cached prepared statement for the given query shape.
+    *
+    * @param sql the parameterized SQL string
+    * @return the cached prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String sql) throws SQLException {
+      return this._statements.prepare (sql);
+   }//end prepare
+
+   /**
+    * Executes a parameterized update on this connection, inside whatever
+    * transaction the connection is in.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PreparedStatement stmt = prepare (sql, params);
+      long prepared = System.nanoTime ();
+      int rows = stmt.executeUpdate ();
+      SlowLog.statement (sql, params, prepared - start, System.nanoTime () - prepared, 0, rows);
+      return rows;
+   }//end executeUpdate
+
+   /**
+    * Executes a parameterized update once per parameter list as one JDBC
+    * batch, inside whatever transaction the connection is in.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values of each execution, at least one
+    * @return the number of rows affected by each execution
+    * @throws java.sql.SQLException when an update failed
+    */
+   public int[] executeBatch (String sql, List<Object[]> params) throws SQLException {
+      long start = System.nanoTime ();
+      PreparedStatement stmt = prepare (sql);
+      try{
+         for (Object[] values : params){
+            DBProject.bind (stmt, values);
+            stmt.addBatch ();
+            if (this.recorder != null)
+               this.recorder.record (sql, values);
+         }//end for
+         long prepared = System.nanoTime ();
+         int[] rows = stmt.executeBatch ();
+         Metrics.countRoundTrips (1);
+         SlowLog.statement (sql, params.get (0), prepared - start, System.nanoTime () - prepared, 0, rows.length);
+         return rows;
+      }finally{
+         // the statement is cached, a failed batch must not stay queued on it
+         stmt.clearBatch ();
+      }//end try
+   }//end executeBatch
+
+   /**
+    * Returns the cached prepared statement for the given query shape with
+    * the values bound to its placeholders.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   PreparedStatement prepare (String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = prepare (sql);
+      DBProject.bind (stmt, params);
+      Metrics.countRoundTrips (1);
+      if (this.recorder != null)
+         this.recorder.record (sql, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Returns true if the connection answers a trivial query.
+    */
+   boolean isValid () {
+      try{
+         if (this._connection.isClosed ())
+            return false;
+         Statement stmt = this._connection.createStatement ();
+         try{
+            stmt.executeQuery ("SELECT 1").close ();
+         }finally{
+            stmt.close ();
+         }//end try
+         return true;
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end isValid
+
+   /**
+    * Closes the cached statements and the physical connection.
+    */
+   void close () {
+      this._statements.close ();
+      try{
+         this._connection.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+}//end PooledConnection
@@ -0,0 +1,68 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class collects the rows returned by a query so they can be handed to
+ * callers that are not printing to standard out, such as the service mode.
+ *
+ */
+public class QueryResult implements RowHandler {
+
+   // column labels, in result order
+   private String[] _columns;
+
+   // one array of column values per row
+   private final List<Object[]> _rows = new ArrayList<Object[]>();
+
+   /**
+    * Creates an empty result with the given column labels.  The labels are
+    * replaced by those of the result set when the result is filled by a
+    * query.
+    *
+    * @param columns the column labels
+    */
+   public QueryResult (String... columns) {
+      this._columns = columns;
+   }//end QueryResult
+
+   public void start (ResultSetMetaData rsmd) throws SQLException {
+      int numCol = rsmd.getColumnCount ();
+      this._columns = new String[numCol];
+      for (int i = 1; i <= numCol; ++i)
+         this._columns[i - 1] = rsmd.getColumnName (i);
+   }//end start
+
+   public void start (String... columns) {
+      this._columns = columns;
+   }//end start
+
+   public void row (ResultSet rs) throws SQLException {
+      Object[] row = new Object[this._columns.length];
+      for (int i = 1; i <= row.length; ++i)
+         row[i - 1] = rs.getObject (i);
+      this._rows.add (row);
+   }//end row
+
+   public void row (Object... values) {
+      this._rows.add (values);
+   }//end row
+
+   public void end () {
+   }//end end
+
+   public String[] getColumns () {
+      return this._columns;
+   }//end getColumns
+
+   public List<Object[]> getRows () {
+      return this._rows;
+   }//end getRows
+
+   public int getRowCount () {
+      return this._rows.size ();
+   }//end getRowCount
+
+}//end QueryResult
@@ -0,0 +1,250 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends the read-only reports to replica databases, so they
+ * scale out without loading the primary that takes the writes.
+ *
+ * A background thread checks every replica periodically: it reads the
+ * primary's current WAL position, then asks each replica whether it has
+ * replayed up to it.  A replica that has is known to hold every write
+ * committed before the check started.  A read goes to a replica, in
+ * turn, when
+ *
+ *    - the replica answered its last check,
+ *    - it was last known to be caught up no longer than the maximum lag
+ *      ago, and
+ *    - it was caught up after the last write of the caller, so a caller
+ *      always reads its own writes
+ *
+ * and to the primary otherwise, or when the replica cannot give a
+ * connection.  A server that is not a standby, such as a second local
+ * instance standing in for a replica in tests, always counts as caught up.
+ *
+ * The caller's last write is kept per thread.  The menu runs on one
+ * thread; DBService runs every request on a thread of its own, so it sets
+ * the time of the client's last write, carried in a cookie, before the
+ * request runs and reads it back afterwards.  The times are compared with
+ * this instance's clock, so behind a load balancer the instances' clocks
+ * must agree to well within the maximum lag.
+ *
+ */
+public class ReplicaRouter {
+
+   // the time of the last write of the caller running on each thread
+   private static final ThreadLocal<long[]> LAST_WRITE = new ThreadLocal<long[]>() {
+      protected long[] initialValue () {
+         return new long[1];
+      }
+   };
+
+   // the time every write the last read of each thread can see had been
+   // committed by: the replica's last catch up, or forever for the primary
+   private static final ThreadLocal<long[]> LAST_READ = new ThreadLocal<long[]>() {
+      protected long[] initialValue () {
+         return new long[] { Long.MAX_VALUE };
+      }
+   };
+
+   private final DBProject _primary;
+   private final long _maxLagMillis;
+   private final List<Replica> _replicas = new CopyOnWriteArrayList<Replica>();
+   private final AtomicInteger _next = new AtomicInteger ();
+   private final AtomicLong _primaryReads = new AtomicLong ();
+
+   // borrowed replica connection -> its replica
+   private final ConcurrentHashMap<PooledConnection, Replica> _lent =
+      new ConcurrentHashMap<PooledConnection, Replica>();
+   private final Thread _monitor;
+
+   /**
+    * Creates a router without replicas and starts checking them.
+    *
+    * @param primary the primary database
+    * @param checkMillis the time between two checks of the replicas
+    * @param maxLagMillis how long ago a replica may have been caught up
+    *        and still take reads
+    */
+   public ReplicaRouter (DBProject primary, final long checkMillis, long maxLagMillis) {
+      this._primary = primary;
+      this._maxLagMillis = maxLagMillis;
+      this._monitor = new Thread ("replica-monitor") {
+         public void run () {
+            while (true){
+               try{
+                  Thread.sleep (checkMillis);
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+               check ();
+            }//end while
+         }
+      };
+      this._monitor.setDaemon (true);
+      this._monitor.start ();
+   }//end ReplicaRouter
+
+   /**
+    * Adds a replica.  It takes reads once its first check succeeds.
+    *
+    * @param name the name shown in the statistics, e.g. host:port
+    * @param pool the connections to the replica
+    */
+   public void addReplica (String name, ConnectionPool pool) {
+      this._replicas.add (new Replica (name, pool));
+   }//end addReplica
+
+   /**
+    * Records that the calling thread wrote to the primary.
+    */
+   public static void wrote () {
+      LAST_WRITE.get ()[0] = System.currentTimeMillis ();
+   }//end wrote
+
+   /**
+    * Returns the time of the last write of the caller on this thread, or 0.
+    */
+   public static long getLastWrite () {
+      return LAST_WRITE.get ()[0];
+   }//end getLastWrite
+
+   /**
+    * Sets the time of the last write of the caller now running on this
+    * thread, e.g. of the client whose request it serves.
+    */
+   public static void setLastWrite (long millis) {
+      LAST_WRITE.get ()[0] = millis;
+   }//end setLastWrite
+
+   /**
+    * Returns true if the last read of the calling thread saw every write
+    * committed on the primary up to the given time.
+    */
+   public static boolean lastReadHolds (long millis) {
+      return LAST_READ.get ()[0] >= millis;
+   }//end lastReadHolds
+
+   /**
+    * Borrows a connection for a read from a replica that may serve the
+    * calling thread, or returns null if the read must go to the primary.
+    * The connection must be given back with release.
+    */
+   public PooledConnection borrow () {
+      long now = System.currentTimeMillis ();
+      long lastWrite = LAST_WRITE.get ()[0];
+      int count = this._replicas.size ();
+      int start = count == 0 ? 0 : (this._next.getAndIncrement () & Integer.MAX_VALUE) % count;
+      for (int i = 0; i < count; ++i){
+         Replica replica = this._replicas.get ((start + i) % count);
+         long caughtUp = replica.caughtUpAt;
+         if (!replica.healthy || caughtUp < lastWrite || now - caughtUp > this._maxLagMillis)
+            continue;
+         try{
+            PooledConnection conn = replica.pool.borrow ();
+            replica.reads.incrementAndGet ();
+            this._lent.put (conn, replica);
+            LAST_READ.get ()[0] = caughtUp;
+            return conn;
+         }catch (SQLException e){
+            // checked again by the monitor.
+            replica.healthy = false;
+         }//end try
+      }//end for
+      this._primaryReads.incrementAndGet ();
+      LAST_READ.get ()[0] = Long.MAX_VALUE;
+      return null;
+   }//end borrow
+
+   /**
+    * Gives a connection obtained from borrow back to its replica.
+    */
+   public void release (PooledConnection conn) {
+      Replica replica = this._lent.remove (conn);
+      if (replica != null)
+         replica.pool.release (conn);
+   }//end release
+
+   /**
+    * Returns the reads served by the primary and by each replica, and the
+    * replicas' lag.
+    */
+   public String getStats () {
+      StringBuilder sb = new StringBuilder ("primary reads=").append (this._primaryReads.get ());
+      long now = System.currentTimeMillis ();
+      for (Replica replica : this._replicas)
+         sb.append (", ").append (replica.name).append (" reads=").append (replica.reads.get ())
+           .append (" lagMs=").append (replica.caughtUpAt == 0 ? "unknown" : String.valueOf (now - replica.caughtUpAt))
+           .append (replica.healthy ? "" : " down");
+      return sb.toString ();
+   }//end getStats
+
+   /**
+    * Stops checking and closes the replica connections.
+    */
+   public void close () {
+      this._monitor.interrupt ();
+      for (Replica replica : this._replicas)
+         replica.pool.close ();
+   }//end close
+
+   /*
+    * Finds out which replicas hold every write committed on the primary
+    * before now
+    */
+   private void check () {
+      long started = System.currentTimeMillis ();
+      String position;
+      try{
+         Object[] row = this._primary.executeQueryForResult ("SELECT pg_current_wal_lsn()::text").getRows ().get (0);
+         position = row[0].toString ();
+      }catch (SQLException e){
+         return;
+      }//end try
+
+      for (Replica replica : this._replicas){
+         try{
+            PooledConnection conn = replica.pool.borrow ();
+            try{
+               PreparedStatement stmt = conn.prepare (
+                  "SELECT pg_last_wal_replay_lsn() IS NULL OR pg_last_wal_replay_lsn() >= ?::pg_lsn");
+               stmt.setString (1, position);
+               ResultSet rs = stmt.executeQuery ();
+               try{
+                  if (rs.next () && rs.getBoolean (1))
+                     replica.caughtUpAt = started;
+               }finally{
+                  rs.close ();
+               }//end try
+               replica.healthy = true;
+            }finally{
+               replica.pool.release (conn);
+            }//end try
+         }catch (SQLException e){
+            replica.healthy = false;
+         }//end try
+      }//end for
+   }//end check
+
+   /**
+    * One replica and what the monitor knows of it.
+    */
+   private static class Replica {
+      final String name;
+      final ConnectionPool pool;
+      final AtomicLong reads = new AtomicLong ();
+      volatile boolean healthy = false;
+      volatile long caughtUpAt = 0;
+
+      Replica (String name, ConnectionPool pool) {
+         this.name = name;
+         this.pool = pool;
+      }
+   }//end Replica
+
+}//end ReplicaRouter
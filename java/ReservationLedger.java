@@ -0,0 +1,131 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class keeps a room from being booked twice on the same day without
+ * making bookings wait for one another.  A booking locks its room, checks
+ * the availability index, inserts and marks the room booked before it
+ * unlocks, so two bookings of the same room and day in this program are
+ * decided one after the other.  The locks are striped: each room maps to
+ * one of a fixed set of locks by a hash of its key, so bookings of
+ * different rooms almost never share a lock and run in parallel.
+ *
+ * Bookings made by other programs are not seen by the locks; the unique
+ * index on Booking (hotelID, roomNo, bookingDate) rejects those, and the
+ * rejection is reported like a conflict found here.
+ *
+ */
+public class ReservationLedger {
+
+   private final ReentrantLock[] _stripes;
+   private final int _mask;
+
+   // locks taken, taken after waiting for another booking, and bookings
+   // refused because the room was taken
+   private final AtomicLong _locked = new AtomicLong ();
+   private final AtomicLong _contended = new AtomicLong ();
+   private final AtomicLong _conflicts = new AtomicLong ();
+
+   /**
+    * Creates a ledger.
+    *
+    * @param stripes the number of locks, rounded up to a power of two;
+    *        a few per core keeps unrelated rooms from colliding
+    */
+   public ReservationLedger (int stripes) {
+      int size = 1;
+      while (size < stripes)
+         size <<= 1;
+      this._stripes = new ReentrantLock[size];
+      for (int i = 0; i < size; ++i)
+         this._stripes[i] = new ReentrantLock ();
+      this._mask = size - 1;
+   }//end ReservationLedger
+
+   /**
+    * Locks the room; unlock the returned lock when the booking is decided.
+    */
+   public Lock lock (int hotelID, int roomNo) {
+      return lock (this._stripes[stripe (hotelID, roomNo)]);
+   }//end lock
+
+   /**
+    * Locks several rooms of a hotel; unlock them with unlockAll.  The
+    * locks are taken in stripe order, so two callers locking overlapping
+    * rooms cannot deadlock.
+    */
+   public List<Lock> lockAll (int hotelID, int[] rooms) {
+      TreeSet<Integer> stripes = new TreeSet<Integer>();
+      for (int roomNo : rooms)
+         stripes.add (stripe (hotelID, roomNo));
+      List<Lock> locked = new ArrayList<Lock>(stripes.size ());
+      for (int stripe : stripes)
+         locked.add (lock (this._stripes[stripe]));
+      return locked;
+   }//end lockAll
+
+   /**
+    * Unlocks the rooms locked by lockAll.
+    */
+   public static void unlockAll (List<Lock> locks) {
+      for (int i = locks.size () - 1; i >= 0; --i)
+         locks.get (i).unlock ();
+   }//end unlockAll
+
+   /**
+    * Returns the error for a booking of a room that is taken on the date.
+    */
+   public SQLException conflict (int hotelID, int roomNo, String date) {
+      this._conflicts.incrementAndGet ();
+      return new SQLException ("Room " + roomNo + " of hotel " + hotelID + " is already booked on " + date);
+   }//end conflict
+
+   /**
+    * Returns true if the error is the unique index on Booking (hotelID,
+    * roomNo, bookingDate) refusing a second booking of a room and day.  On
+    * a table moved by PartitionMigrator the index is reported under the
+    * name of the partition's index.
+    */
+   public static boolean isConflict (SQLException e) {
+      // a failed batch reports the statement's error as the next exception
+      for (; e != null; e = e.getNextException ()){
+         String message = e.getMessage () == null ? "" : e.getMessage ().toLowerCase ();
+         if (message.indexOf ("duplicate key") >= 0
+             && (message.indexOf ("booking_room_date_index") >= 0
+                 || message.indexOf ("hotelid_roomno_bookingdate") >= 0))
+            return true;
+      }//end for
+      return false;
+   }//end isConflict
+
+   private int stripe (int hotelID, int roomNo) {
+      int h = (hotelID * 31 + roomNo) * 0x9E3779B1;
+      return (h ^ (h >>> 16)) & this._mask;
+   }//end stripe
+
+   private ReentrantLock lock (ReentrantLock stripe) {
+      if (!stripe.tryLock ()){
+         this._contended.incrementAndGet ();
+         stripe.lock ();
+      }//end if
+      this._locked.incrementAndGet ();
+      return stripe;
+   }//end lock
+
+   /**
+    * Returns the number of locks taken, how many had to wait and how many
+    * bookings were refused.
+    */
+   public String getStats () {
+      long locked = this._locked.get ();
+      return String.format ("%d stripes, %d locks, %d waited (%.2f%%), %d conflicts", this._stripes.length,
+                            locked, this._contended.get (),
+                            locked == 0 ? 0.0 : 100.0 * this._contended.get () / locked, this._conflicts.get ());
+   }//end getStats
+
+}//end ReservationLedger
@@ -0,0 +1,303 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches the results of read operations, keyed by operation
+ * and parameters, so repeated reads with the same inputs do not reach the
+ * database.
+ *
+ * Every table has a version counter that the write operations bump when
+ * they change the table.  An entry remembers the versions of the tables
+ * its operation reads, taken before the query ran, and is served only
+ * while all of them are unchanged, so a write invalidates exactly the
+ * entries that read its table.  A result read from a replica that may not
+ * hold the last change of one of its tables yet is passed on but not
+ * kept, so stale rows are never served as valid.  Entries also expire
+ * after a time to live,
+ * which bounds how stale a result can be after a change the program did
+ * not make itself, and the least recently used entries are dropped once
+ * the cache is full.  Results with many rows are not cached.
+ *
+ * Hits and misses are counted per operation and exported with the
+ * operation metrics.
+ *
+ */
+public class ResultCache {
+
+   private final long _ttlMillis;
+   private final int _maxEntries;
+   private final int _maxRows;
+
+   // table name in lower case -> version, and the time of its last change
+   private final ConcurrentHashMap<String, AtomicLong> _versions = new ConcurrentHashMap<String, AtomicLong>();
+   private final ConcurrentHashMap<String, Long> _changedAt = new ConcurrentHashMap<String, Long>();
+
+   // bumped by clear, so results read before it are not kept after it
+   private final AtomicLong _generation = new AtomicLong ();
+
+   // key -> entry, least recently used first
+   private final LinkedHashMap<String, Cached> _entries;
+
+   // operation -> {hits, misses}
+   private final ConcurrentHashMap<String, AtomicLong[]> _counts = new ConcurrentHashMap<String, AtomicLong[]>();
+   private final AtomicLong _evictions = new AtomicLong ();
+
+   /**
+    * Creates an empty cache.
+    *
+    * @param ttlMillis how long an entry is served at most
+    * @param maxEntries the most entries kept
+    * @param maxRows the most rows of a result that is cached
+    */
+   public ResultCache (long ttlMillis, int maxEntries, int maxRows) {
+      this._ttlMillis = ttlMillis;
+      this._maxEntries = maxEntries;
+      this._maxRows = maxRows;
+      this._entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, Cached> eldest) {
+            if (size () <= ResultCache.this._maxEntries)
+               return false;
+            ResultCache.this._evictions.incrementAndGet ();
+            return true;
+         }
+      };
+   }//end ResultCache
+
+   /**
+    * Passes the result of an operation to the handler, from the cache
+    * when it holds a valid entry, from the source otherwise.
+    *
+    * @param operation the operation name
+    * @param tables the tables the operation reads
+    * @param params the operation's parameters
+    * @param out receives the rows
+    * @param source runs the operation on a miss
+    * @return the number of rows passed to the handler
+    */
+   public int read (String operation, String[] tables, Object[] params, RowHandler out,
+                    Source source) throws SQLException {
+      String key = operation + '\0' + Arrays.deepToString (params);
+      long now = System.currentTimeMillis ();
+      long[] versions = versions (tables);
+      long changedAt = 0;
+      for (String table : tables){
+         Long at = this._changedAt.get (table.toLowerCase ());
+         if (at != null)
+            changedAt = Math.max (changedAt, at);
+      }//end for
+      Cached entry;
+      synchronized (this._entries){
+         entry = this._entries.get (key);
+         if (entry != null && (entry.expiresAt < now || !Arrays.equals (entry.versions, versions))){
+            this._entries.remove (key);
+            entry = null;
+         }//end if
+      }//end synchronized
+
+      AtomicLong[] counts = counts (operation);
+      if (entry != null){
+         counts[0].incrementAndGet ();
+         out.start (entry.columns);
+         for (Object[] row : entry.rows)
+            out.row (row);
+         out.end ();
+         return entry.rows.size ();
+      }//end if
+
+      counts[1].incrementAndGet ();
+      Recorder recorder = new Recorder (out, this._maxRows);
+      int rows = source.run (recorder);
+      if (!recorder.overflow && source.holds (changedAt)){
+         synchronized (this._entries){
+            this._entries.put (key, new Cached (recorder.columns, recorder.rows, versions, now + this._ttlMillis));
+         }//end synchronized
+      }//end if
+      return rows;
+   }//end read
+
+   /**
+    * Invalidates every entry that read the table.
+    *
+    * @param table the table name, in any case
+    */
+   public void changed (String table) {
+      this._changedAt.put (table.toLowerCase (), System.currentTimeMillis ());
+      version (table).incrementAndGet ();
+   }//end changed
+
+   /**
+    * Drops every entry.
+    */
+   public void clear () {
+      this._generation.incrementAndGet ();
+      synchronized (this._entries){
+         this._entries.clear ();
+      }//end synchronized
+   }//end clear
+
+   /**
+    * Returns the hit rate of every operation, one line each.
+    */
+   public String getStats () {
+      StringBuilder sb = new StringBuilder ();
+      for (Map.Entry<String, AtomicLong[]> op : new TreeMap<String, AtomicLong[]>(this._counts).entrySet ()){
+         long hits = op.getValue ()[0].get (), misses = op.getValue ()[1].get ();
+         sb.append (String.format ("%-36s %8d hits %8d misses %5.1f%% hit rate%n", op.getKey (), hits, misses,
+                                   hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses)));
+      }//end for
+      return sb.toString ();
+   }//end getStats
+
+   /**
+    * Appends the cache counters in the Prometheus text format.
+    */
+   void toPrometheus (StringBuilder sb) {
+      Map<String, AtomicLong[]> counts = new TreeMap<String, AtomicLong[]>(this._counts);
+      String[] names = { "hotel_cache_hits_total", "hotel_cache_misses_total" };
+      String[] help = { "Reads answered from the result cache.", "Reads that missed the result cache." };
+      for (int i = 0; i < names.length; ++i){
+         sb.append ("# HELP ").append (names[i]).append (' ').append (help[i]).append ('\n');
+         sb.append ("# TYPE ").append (names[i]).append (" counter\n");
+         for (Map.Entry<String, AtomicLong[]> op : counts.entrySet ())
+            sb.append (names[i]).append ("{operation=\"").append (op.getKey ()).append ("\"} ")
+              .append (op.getValue ()[i].get ()).append ('\n');
+      }//end for
+      sb.append ("# HELP hotel_cache_evictions_total Entries dropped because the cache was full.\n");
+      sb.append ("# TYPE hotel_cache_evictions_total counter\n");
+      sb.append ("hotel_cache_evictions_total ").append (this._evictions.get ()).append ('\n');
+      int size;
+      synchronized (this._entries){
+         size = this._entries.size ();
+      }//end synchronized
+      sb.append ("# HELP hotel_cache_entries Entries in the result cache.\n");
+      sb.append ("# TYPE hotel_cache_entries gauge\n");
+      sb.append ("hotel_cache_entries ").append (size).append ('\n');
+   }//end toPrometheus
+
+   private long[] versions (String[] tables) {
+      long[] versions = new long[tables.length + 1];
+      versions[0] = this._generation.get ();
+      for (int i = 0; i < tables.length; ++i)
+         versions[i + 1] = version (tables[i]).get ();
+      return versions;
+   }//end versions
+
+   private AtomicLong version (String table) {
+      String name = table.toLowerCase ();
+      AtomicLong version = this._versions.get (name);
+      if (version == null){
+         AtomicLong created = new AtomicLong ();
+         version = this._versions.putIfAbsent (name, created);
+         if (version == null)
+            version = created;
+      }//end if
+      return version;
+   }//end version
+
+   private AtomicLong[] counts (String operation) {
+      AtomicLong[] counts = this._counts.get (operation);
+      if (counts == null){
+         AtomicLong[] created = { new AtomicLong (), new AtomicLong () };
+         counts = this._counts.putIfAbsent (operation, created);
+         if (counts == null)
+            counts = created;
+      }//end if
+      return counts;
+   }//end counts
+
+   /**
+    * Runs an operation on a cache miss.
+    */
+   public interface Source {
+      int run (RowHandler out) throws SQLException;
+
+      /**
+       * Returns true if the rows of the last run hold every change
+       * committed up to the given time.
+       */
+      boolean holds (long millis);
+   }//end Source
+
+   /**
+    * One cached result.
+    */
+   private static class Cached {
+      final String[] columns;
+      final List<Object[]> rows;
+      final long[] versions;
+      final long expiresAt;
+
+      Cached (String[] columns, List<Object[]> rows, long[] versions, long expiresAt) {
+         this.columns = columns;
+         this.rows = rows;
+         this.versions = versions;
+         this.expiresAt = expiresAt;
+      }
+   }//end Cached
+
+   /**
+    * Passes rows on to a handler and keeps a copy of them, up to a limit.
+    */
+   private static class Recorder implements RowHandler {
+      final RowHandler out;
+      final int maxRows;
+      String[] columns;
+      final List<Object[]> rows = new ArrayList<Object[]>();
+      boolean overflow = false;
+
+      Recorder (RowHandler out, int maxRows) {
+         this.out = out;
+         this.maxRows = maxRows;
+      }
+
+      public void start (ResultSetMetaData rsmd) throws SQLException {
+         this.columns = new String[rsmd.getColumnCount ()];
+         for (int i = 1; i <= this.columns.length; ++i)
+            this.columns[i - 1] = rsmd.getColumnName (i);
+         this.out.start (rsmd);
+      }
+
+      public void start (String... columns) {
+         this.columns = columns;
+         this.out.start (columns);
+      }
+
+      public void row (ResultSet rs) throws SQLException {
+         if (keep ()){
+            Object[] row = new Object[this.columns.length];
+            for (int i = 1; i <= row.length; ++i)
+               row[i - 1] = rs.getObject (i);
+            this.rows.add (row);
+         }//end if
+         this.out.row (rs);
+      }
+
+      public void row (Object... values) {
+         if (keep ())
+            this.rows.add (values);
+         this.out.row (values);
+      }
+
+      public void end () throws SQLException {
+         this.out.end ();
+      }
+
+      private boolean keep () {
+         if (this.rows.size () >= this.maxRows){
+            this.overflow = true;
+            this.rows.clear ();
+         }//end if
+         return !this.overflow;
+      }
+   }//end Recorder
+
+}//end ResultCache
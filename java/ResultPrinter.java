@@ -0,0 +1,119 @@
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This class prints query rows to standard out as they arrive.  Rows are
+ * rendered into one reused buffer, integer columns are read with getLong
+ * instead of being converted to strings first, and the buffer is written
+ * out in blocks rather than with one print call per cell.
+ *
+ */
+public class ResultPrinter implements RowHandler {
+
+   // buffer size at which rendered rows are written out
+   static final int FLUSH_CHARS = 1 << 16;
+
+   private final PrintStream _out;
+   private final StringBuilder _buffer = new StringBuilder (FLUSH_CHARS + 1024);
+
+   private String[] _columns;
+   private boolean[] _integer;
+   private int _rowCount = 0;
+
+   public ResultPrinter () {
+      this (System.out);
+   }//end ResultPrinter
+
+   public ResultPrinter (PrintStream out) {
+      this._out = out;
+   }//end ResultPrinter
+
+   public void start (ResultSetMetaData rsmd) throws SQLException {
+      int numCol = rsmd.getColumnCount ();
+      this._columns = new String[numCol];
+      this._integer = new boolean[numCol];
+      for (int i = 0; i < numCol; ++i){
+         this._columns[i] = rsmd.getColumnName (i + 1);
+         switch (rsmd.getColumnType (i + 1)){
+         case Types.SMALLINT:
+         case Types.INTEGER:
+         case Types.BIGINT:
+            this._integer[i] = true;
+            break;
+         default:
+            this._integer[i] = false;
+         }//end switch
+      }//end for
+   }//end start
+
+   public void start (String... columns) {
+      this._columns = columns;
+      this._integer = new boolean[columns.length];
+   }//end start
+
+   public void row (ResultSet rs) throws SQLException {
+      StringBuilder sb = this._buffer;
+      header ();
+      for (int i = 0; i < this._columns.length; ++i){
+         if (this._integer[i]){
+            long value = rs.getLong (i + 1);
+            if (rs.wasNull ())
+               sb.append ("null");
+            else
+               sb.append (value);
+         }else{
+            sb.append (rs.getString (i + 1));
+         }//end if
+         sb.append ('\t');
+      }//end for
+      sb.append ('\n');
+      ++this._rowCount;
+
+      if (sb.length () >= FLUSH_CHARS)
+         flush ();
+   }//end row
+
+   public void row (Object... values) {
+      StringBuilder sb = this._buffer;
+      header ();
+      for (int i = 0; i < values.length; ++i)
+         sb.append (values[i]).append ('\t');
+      sb.append ('\n');
+      ++this._rowCount;
+
+      if (sb.length () >= FLUSH_CHARS)
+         flush ();
+   }//end row
+
+   public void end () {
+      flush ();
+      this._out.flush ();
+   }//end end
+
+   /**
+    * Returns the number of rows printed.
+    */
+   public int getRowCount () {
+      return this._rowCount;
+   }//end getRowCount
+
+   // the header is only printed when there is at least one row
+   private void header () {
+      if (this._rowCount == 0){
+         for (int i = 0; i < this._columns.length; ++i)
+            this._buffer.append (this._columns[i]).append ('\t');
+         this._buffer.append ('\n');
+      }//end if
+   }//end header
+
+   private void flush () {
+      if (this._buffer.length () > 0){
+         this._out.append (this._buffer);
+         this._buffer.setLength (0);
+      }//end if
+   }//end flush
+
+}//end ResultPrinter
@@ -0,0 +1,47 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a query one at a time while the
+ * result set is being read, so results do not have to be buffered before
+ * they are printed or collected.  Operations answered from memory instead
+ * of the database pass their rows as plain values.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once before the first row.
+    *
+    * @param rsmd the metadata of the result set
+    */
+   void start (ResultSetMetaData rsmd) throws SQLException;
+
+   /**
+    * Called once before the first row of a result computed in memory.
+    *
+    * @param columns the column labels
+    */
+   void start (String... columns);
+
+   /**
+    * Called for each row, with the result set positioned on the row.
+    *
+    * @param rs the result set
+    */
+   void row (ResultSet rs) throws SQLException;
+
+   /**
+    * Called for each row of a result computed in memory.
+    *
+    * @param values the column values of the row
+    */
+   void row (Object... values);
+
+   /**
+    * Called once after the last row.
+    */
+   void end () throws SQLException;
+
+}//end RowHandler
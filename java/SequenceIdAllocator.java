@@ -0,0 +1,75 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class allocates keys from database sequences in blocks.  Each
+ * sequence is created with INCREMENT BY BLOCK_SIZE (see sql/create.sql), so
+ * one nextval call reserves BLOCK_SIZE consecutive keys that are then handed
+ * out from memory.  Concurrent writers never receive the same key, and only
+ * one in BLOCK_SIZE inserts pays for the extra round trip.
+ *
+ * Keys left in a block when the process stops are never used, so the keys
+ * of a table can have gaps.
+ *
+ */
+public class SequenceIdAllocator implements IdAllocator {
+
+   // must match the INCREMENT BY of the sequences in sql/create.sql
+   static final int BLOCK_SIZE = 1000;
+
+   // table -> sequence the table's keys come from
+   private static final Map<String, String> SEQUENCES = new HashMap<String, String>();
+   static {
+      SEQUENCES.put ("Booking", "booking_bid_seq");
+      SEQUENCES.put ("Assigned", "assigned_asgid_seq");
+      SEQUENCES.put ("Request", "request_reqid_seq");
+   }
+
+   // the database the sequences live in
+   private final DBProject _db;
+
+   // table -> block of keys currently being handed out
+   private final Map<String, Block> _blocks = new HashMap<String, Block>();
+
+   /**
+    * Creates a new allocator for the given database
+    *
+    * @param db the connected database
+    */
+   public SequenceIdAllocator (DBProject db) {
+      this._db = db;
+      for (String table : SEQUENCES.keySet ())
+         this._blocks.put (table, new Block (SEQUENCES.get (table)));
+   }//end SequenceIdAllocator
+
+   public int nextId (String table) throws SQLException {
+      Block block = this._blocks.get (table);
+      if (block == null)
+         throw new SQLException ("No key sequence for table " + table);
+      return block.next ();
+   }//end nextId
+
+   /**
+    * The keys reserved by the last nextval call on one sequence.
+    */
+   private class Block {
+      final String sql;
+      int next = 0;
+      int end = 0;
+
+      Block (String sequence) {
+         this.sql = "SELECT nextval('" + sequence + "')";
+      }
+
+      synchronized int next () throws SQLException {
+         if (this.next >= this.end){
+            Integer start = SequenceIdAllocator.this._db.executeScalarInt (this.sql);
+            this.next = start.intValue ();
+            this.end = this.next + BLOCK_SIZE;
+         }//end if
+         return this.next++;
+      }
+   }//end Block
+
+}//end SequenceIdAllocator
@@ -0,0 +1,230 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class logs operations that take longer than a threshold.  While an
+ * operation runs, every statement it sends is traced on the operation's
+ * thread with its parameters, its time split into parse (preparing the
+ * statement and binding its parameters), execute and fetch, and its row
+ * count.  When the operation ends over the threshold, one JSON line is
+ * appended to the log with the operation, its statements and the EXPLAIN
+ * plan of its slowest statement, captured right then.
+ *
+ * Parameters are logged by what they hold, not by what they look like:
+ * each statement of the operations lists which of its parameters are kept,
+ * such as keys, booking and repair dates and prices, and which are
+ * replaced by their length, such as customers' names, addresses, phone
+ * numbers and dates of birth.  The parameters of other statements are
+ * kept if they are numbers and replaced otherwise.  The plan is captured
+ * with the real values.
+ *
+ */
+public class SlowLog {
+
+   // the parameters of each statement of the operations, one letter per
+   // parameter: k is logged as it is, r is replaced by its length
+   private static final Map<String, String> PARAMETERS = new HashMap<String, String>();
+   static {
+      // addCustomer: customerID, fName, lName, address, phNo, DOB, gender
+      PARAMETERS.put (DBOperations.ADD_CUSTOMER_SQL, "krrrrrr");
+      // addRoom: hotelID, roomNo, roomType
+      PARAMETERS.put (DBOperations.ADD_ROOM_SQL, "kkk");
+      // addMaintenanceCompany: cmpID, name, address, isCertified
+      PARAMETERS.put (DBOperations.ADD_MAINTENANCE_COMPANY_SQL, "kkrk");
+      // addRepair: rID, hotelID, roomNo, mCompany, repairDate, description, repairType
+      PARAMETERS.put (DBOperations.ADD_REPAIR_SQL, "kkkkkrk");
+      // bookRoom, bookRooms: bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price
+      PARAMETERS.put (DBOperations.BOOK_ROOM_SQL, "kkkkkkk");
+      // bookRoom: bID, hotelID, fName, lName, roomNo, bookingDate, noOfPeople, price
+      PARAMETERS.put (DBOperations.BOOK_ROOM_FUNCTION_SQL, "kkrrkkkk");
+      // bookRooms: hotelID, roomType, bookingDate
+      PARAMETERS.put (DBOperations.FREE_ROOMS_SQL, "kkk");
+      // bookRoom, bookRooms: hotelID, bookingDate[, count]
+      PARAMETERS.put (BookingRollups.RECORD_DAY_SQL, "kk");
+      PARAMETERS.put (BookingRollups.RECORD_MONTH_SQL, "kk");
+      PARAMETERS.put (BookingRollups.RECORD_DAY_COUNT_SQL, "kkk");
+      PARAMETERS.put (BookingRollups.RECORD_MONTH_COUNT_SQL, "kkk");
+      // assignHouseCleaningToRoom: asgID, staffID, hotelID, roomNo
+      PARAMETERS.put (DBOperations.ASSIGN_SQL, "kkkk");
+      PARAMETERS.put (DBOperations.ASSIGN_FUNCTION_SQL, "kkkk");
+      // repairRequest: reqID, managerID, repairID, requestDate
+      PARAMETERS.put (DBOperations.REPAIR_REQUEST_SQL, "kkkk");
+      PARAMETERS.put (DBOperations.REPAIR_REQUEST_FUNCTION_SQL, "kkkk");
+      // listHotelRoomBookingsForAWeek: hotelID, date, date
+      PARAMETERS.put (DBOperations.BOOKINGS_FOR_A_WEEK_SQL, "kkk");
+      // totalCostForCustomer: hotelID, customer, date1, date2
+      PARAMETERS.put (DBOperations.TOTAL_COST_SQL, "kkkk");
+      // listRepairsMade: company name
+      PARAMETERS.put (DBOperations.REPAIRS_MADE_SQL, "k");
+   }
+
+   // the statements of the operation running on this thread
+   private static final ThreadLocal<List<Statement>> TRACE = new ThreadLocal<List<Statement>>();
+
+   private final DBProject _db;
+   private final long _thresholdNanos;
+   private final Writer _out;
+
+   /**
+    * Creates a slow log appending to the given file.
+    *
+    * @param db the database plans are captured from
+    * @param file the log file
+    * @param thresholdMillis the time above which an operation is logged
+    * @throws java.io.IOException when the file cannot be opened
+    */
+   public SlowLog (DBProject db, File file, long thresholdMillis) throws IOException {
+      this._db = db;
+      this._thresholdNanos = thresholdMillis * 1000000L;
+      this._out = new OutputStreamWriter (new FileOutputStream (file, true), "UTF-8");
+   }//end SlowLog
+
+   /**
+    * Records one statement of the operation running on this thread, if
+    * the operation is traced.
+    */
+   public static void statement (String sql, Object[] params, long parseNanos, long executeNanos,
+                                 long fetchNanos, int rows) {
+      List<Statement> trace = TRACE.get ();
+      if (trace != null)
+         trace.add (new Statement (sql, params, parseNanos, executeNanos, fetchNanos, rows));
+   }//end statement
+
+   /**
+    * Starts tracing the statements of an operation on this thread.
+    */
+   void begin () {
+      TRACE.set (new ArrayList<Statement>());
+   }//end begin
+
+   /**
+    * Stops tracing and logs the operation if it was slow.
+    *
+    * @param operation the operation name
+    * @param elapsedNanos the time the operation took
+    * @param failed true if the operation ended with an error
+    */
+   void end (String operation, long elapsedNanos, boolean failed) {
+      List<Statement> trace = TRACE.get ();
+      TRACE.remove ();
+      if (trace == null || elapsedNanos < this._thresholdNanos)
+         return;
+
+      Statement slowest = null;
+      for (Statement statement : trace)
+         if (slowest == null || statement.total () > slowest.total ())
+            slowest = statement;
+      String plan = null;
+      if (slowest != null)
+         plan = explain (slowest);
+
+      StringBuilder sb = new StringBuilder (1024);
+      sb.append ("{\"time\":").append (DBService.json (new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format (new Date ())))
+        .append (",\"operation\":").append (DBService.json (operation))
+        .append (",\"elapsedMs\":").append (millis (elapsedNanos))
+        .append (",\"failed\":").append (failed)
+        .append (",\"statements\":[");
+      for (int i = 0; i < trace.size (); ++i){
+         Statement statement = trace.get (i);
+         sb.append (i > 0 ? "," : "").append ("{\"sql\":").append (DBService.json (statement.sql))
+           .append (",\"params\":[");
+         for (int p = 0; p < statement.params.length; ++p)
+            sb.append (p > 0 ? "," : "").append (redact (statement.sql, p, statement.params[p]));
+         sb.append ("],\"parseMs\":").append (millis (statement.parseNanos))
+           .append (",\"executeMs\":").append (millis (statement.executeNanos))
+           .append (",\"fetchMs\":").append (millis (statement.fetchNanos))
+           .append (",\"rows\":").append (statement.rows).append ('}');
+      }//end for
+      sb.append ("],\"plan\":").append (DBService.json (plan)).append ("}\n");
+
+      synchronized (this._out){
+         try{
+            this._out.write (sb.toString ());
+            this._out.flush ();
+         }catch (IOException e){
+            System.err.println ("Cannot write slow log: " + e.getMessage ());
+         }//end try
+      }//end synchronized
+   }//end end
+
+   /**
+    * Closes the log file.
+    */
+   public void close () {
+      synchronized (this._out){
+         try{
+            this._out.close ();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end synchronized
+   }//end close
+
+   /*
+    * Returns the plan the server picks for the statement now, without
+    * running it again
+    */
+   private String explain (Statement statement) {
+      try{
+         StringBuilder plan = new StringBuilder ();
+         for (Object[] row : this._db.executeQueryForResult ("EXPLAIN " + statement.sql, statement.params).getRows ())
+            plan.append (plan.length () > 0 ? "\n" : "").append (row[0]);
+         return plan.toString ();
+      }catch (SQLException e){
+         return "EXPLAIN failed: " + e.getMessage ();
+      }//end try
+   }//end explain
+
+   /*
+    * Returns parameter p of the statement as it is logged
+    */
+   private static String redact (String sql, int p, Object param) {
+      if (param == null)
+         return "null";
+      String kinds = PARAMETERS.get (sql);
+      boolean kept = kinds == null ? param instanceof Number : p < kinds.length () && kinds.charAt (p) == 'k';
+      String value = param.toString ();
+      if (!kept)
+         return DBService.json ("<redacted " + value.length () + " chars>");
+      return param instanceof Number ? value : DBService.json (value);
+   }//end redact
+
+   private static String millis (long nanos) {
+      return String.format (Locale.ROOT, "%.3f", nanos / 1e6);
+   }//end millis
+
+   /**
+    * One traced statement.
+    */
+   private static class Statement {
+      final String sql;
+      final Object[] params;
+      final long parseNanos, executeNanos, fetchNanos;
+      final int rows;
+
+      Statement (String sql, Object[] params, long parseNanos, long executeNanos, long fetchNanos, int rows) {
+         this.sql = sql;
+         this.params = params;
+         this.parseNanos = parseNanos;
+         this.executeNanos = executeNanos;
+         this.fetchNanos = fetchNanos;
+         this.rows = rows;
+      }
+
+      long total () {
+         return this.parseNanos + this.executeNanos + this.fetchNanos;
+      }
+   }//end Statement
+
+}//end SlowLog
@@ -0,0 +1,120 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a per-connection cache of prepared statements keyed by
+ * the parameterized SQL text (the query shape).  Statements are reused
+ * across calls instead of being re-created for every operation, and once a
+ * shape has been executed often enough it is switched to a server-side
+ * prepared statement so that Postgres stops re-parsing and re-planning it.
+ *
+ */
+public class StatementCache {
+
+   // the connection all cached statements belong to
+   private final Connection _connection;
+
+   // maximum number of statements kept open on the connection
+   private final int _capacity;
+
+   // number of uses after which a statement is prepared on the server
+   private final int _serverPrepareThreshold;
+
+   // query shape -> cached statement, kept in least recently used order
+   private final LinkedHashMap<String, Entry> _statements =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+   /**
+    * Creates a new statement cache for the given connection
+    *
+    * @param connection the connection statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    * @param serverPrepareThreshold uses after which a statement is prepared
+    *        on the server, or 0 to never prepare on the server
+    */
+   public StatementCache (Connection connection, int capacity, int serverPrepareThreshold) {
+      this._connection = connection;
+      this._capacity = capacity;
+      this._serverPrepareThreshold = serverPrepareThreshold;
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for the given query shape, preparing it
+    * on first use.  The returned statement stays owned by the cache and must
+    * not be closed by the caller.
+    *
+    * @param sql the parameterized SQL string
+    * @return the cached prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare (String sql) throws SQLException {
+      Entry entry = this._statements.get (sql);
+      if (entry == null){
+         entry = new Entry (this._connection.prepareStatement (sql));
+         this._statements.put (sql, entry);
+         evict ();
+      }//end if
+
+      ++entry.uses;
+      if (!entry.serverPrepared && this._serverPrepareThreshold > 0
+            && entry.uses >= this._serverPrepareThreshold
+            && entry.statement instanceof PGStatement){
+         ((PGStatement) entry.statement).setUseServerPrepare (true);
+         entry.serverPrepared = true;
+      }//end if
+      return entry.statement;
+   }//end prepare
+
+   /**
+    * Returns the number of statements currently held by the cache.
+    */
+   public synchronized int size () {
+      return this._statements.size ();
+   }//end size
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void close () {
+      for (Entry entry : this._statements.values ())
+         closeQuietly (entry.statement);
+      this._statements.clear ();
+   }//end close
+
+   // closes the least recently used statements above the capacity
+   private void evict () {
+      Iterator<Map.Entry<String, Entry>> it = this._statements.entrySet ().iterator ();
+      while (this._statements.size () > this._capacity && it.hasNext ()){
+         closeQuietly (it.next ().getValue ().statement);
+         it.remove ();
+      }//end while
+   }//end evict
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try{
+         stmt.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+   /**
+    * A cached statement and its usage count.
+    */
+   private static class Entry {
+      final PreparedStatement statement;
+      int uses = 0;
+      boolean serverPrepared = false;
+
+      Entry (PreparedStatement statement) {
+         this.statement = statement;
+      }
+   }//end Entry
+
+}//end StatementCache
@@ -0,0 +1,279 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers "top k booking prices between two dates" from memory.
+ * Bookings are partitioned by booking day, and each day keeps its bookings
+ * ordered by price, highest first.  A query merges the heads of the days
+ * in the range through a heap and stops after k rows, so its cost grows
+ * with k and the number of days in the range rather than with the number
+ * of bookings in it.
+ *
+ * Only bookings of existing rooms are indexed, matching the join of
+ * Booking and Room in the original query.  The index is built when the
+ * program starts and updated by addRoom and bookRoom.  The load appends
+ * the bookings of each day and sorts them once; later bookings are
+ * inserted at their place.
+ *
+ */
+public class TopKPriceIndex {
+
+   // the columns of SELECT * FROM Booking B, Room R
+   static final String[] COLUMNS = {
+      "bid", "customer", "hotelid", "roomno", "bookingdate", "noofpeople", "price",
+      "hotelid", "roomno", "roomtype"
+   };
+
+   // epoch day -> bookings of that day, highest price first
+   private final TreeMap<Integer, List<Booking>> _days = new TreeMap<Integer, List<Booking>>();
+
+   // (hotelID, roomNo) -> room type
+   private final Map<Long, String> _roomTypes = new HashMap<Long, String>();
+
+   // the keys of the indexed bookings
+   private final BitSet _bIDs = new BitSet ();
+
+   // highest price first; the sort is stable, so equal prices keep the
+   // order they were read in
+   private static final Comparator<Booking> BY_PRICE = new Comparator<Booking>() {
+      public int compare (Booking a, Booking b) {
+         return a.cents < b.cents ? 1 : (a.cents > b.cents ? -1 : 0);
+      }
+   };
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock ();
+
+   /**
+    * Reads every room and every booking of an existing room into the index.
+    *
+    * @param db the connected database
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void load (DBProject db) throws SQLException {
+      PooledConnection conn = db.borrow ();
+      try{
+         conn.getConnection ().setAutoCommit (false);
+         Statement stmt = conn.getConnection ().createStatement ();
+         try{
+            DBProject.setFetchSize (stmt, DBProject.FETCH_SIZE * 10);
+            ResultSet rs = stmt.executeQuery ("SELECT hotelID, roomNo, roomType FROM Room");
+            while (rs.next ())
+               addRoom (rs.getInt (1), rs.getInt (2), rs.getString (3));
+            rs.close ();
+            Map<Long, String> roomTypes;
+            this._lock.readLock ().lock ();
+            try{
+               roomTypes = new HashMap<Long, String>(this._roomTypes);
+            }finally{
+               this._lock.readLock ().unlock ();
+            }//end try
+
+            Map<Integer, List<Booking>> loaded = new HashMap<Integer, List<Booking>>();
+            rs = stmt.executeQuery ("SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking");
+            while (rs.next ()){
+               int hotelID = rs.getInt (3), roomNo = rs.getInt (4), epochDay = EpochDays.parse (rs.getString (5));
+               String roomType = roomTypes.get (key (hotelID, roomNo));
+               if (roomType == null)
+                  continue;
+               List<Booking> day = loaded.get (epochDay);
+               if (day == null){
+                  day = new ArrayList<Booking>();
+                  loaded.put (epochDay, day);
+               }//end if
+               day.add (new Booking (rs.getInt (1), rs.getInt (2), hotelID, roomNo, epochDay, rs.getInt (6),
+                                     cents (rs.getString (7)), roomType));
+            }//end while
+            rs.close ();
+            for (List<Booking> day : loaded.values ())
+               Collections.sort (day, BY_PRICE);
+            merge (loaded);
+         }finally{
+            stmt.close ();
+         }//end try
+      }finally{
+         db.release (conn);
+      }//end try
+   }//end load
+
+   /**
+    * Adds a room to the index.
+    */
+   public void addRoom (int hotelID, int roomNo, String roomType) {
+      this._lock.writeLock ().lock ();
+      try{
+         this._roomTypes.put (key (hotelID, roomNo), roomType);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Adds a booking to the index.  Bookings of unknown rooms, and bookings
+    * already indexed, are ignored.
+    *
+    * @param price the price as a decimal string, e.g. "149.99"
+    */
+   public void book (int bID, int customer, int hotelID, int roomNo, int epochDay,
+                     int noOfPeople, String price) {
+      long cents = cents (price);
+      this._lock.writeLock ().lock ();
+      try{
+         String roomType = this._roomTypes.get (key (hotelID, roomNo));
+         if (roomType == null || this._bIDs.get (bID))
+            return;
+         this._bIDs.set (bID);
+         List<Booking> day = this._days.get (epochDay);
+         if (day == null){
+            day = new ArrayList<Booking>();
+            this._days.put (epochDay, day);
+         }//end if
+
+         // insert after every booking with a price at least as high
+         int lo = 0, hi = day.size ();
+         while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (day.get (mid).cents >= cents)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }//end while
+         day.add (lo, new Booking (bID, customer, hotelID, roomNo, epochDay, noOfPeople, cents, roomType));
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end book
+
+   /**
+    * Passes the k highest priced bookings between two days, inclusive, to
+    * the handler, highest first, with the columns of Booking joined with
+    * Room.
+    *
+    * @return the number of rows passed to the handler
+    */
+   public int topK (int k, int firstDay, int lastDay, RowHandler out) throws SQLException {
+      List<Booking> top = new ArrayList<Booking>(Math.min (k, 1024));
+      this._lock.readLock ().lock ();
+      try{
+         if (k > 0 && firstDay <= lastDay){
+            // one cursor per day, ordered by the price at the cursor
+            PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>();
+            NavigableMap<Integer, List<Booking>> range = this._days.subMap (firstDay, true, lastDay, true);
+            for (List<Booking> day : range.values ())
+               heads.add (new Cursor (day));
+
+            while (top.size () < k && !heads.isEmpty ()){
+               Cursor head = heads.poll ();
+               top.add (head.current ());
+               if (++head.position < head.day.size ())
+                  heads.add (head);
+            }//end while
+         }//end if
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+
+      out.start (COLUMNS);
+      for (Booking b : top)
+         out.row (b.bID, b.customer, b.hotelID, b.roomNo, EpochDays.format (b.day), b.noOfPeople,
+                  BigDecimal.valueOf (b.cents, 2), b.hotelID, b.roomNo, b.roomType);
+      out.end ();
+      return top.size ();
+   }//end topK
+
+   /*
+    * Adds the loaded days, each sorted by price, to the index, merging
+    * them with the bookings indexed meanwhile and skipping those already
+    * indexed
+    */
+   private void merge (Map<Integer, List<Booking>> loaded) {
+      this._lock.writeLock ().lock ();
+      try{
+         for (Map.Entry<Integer, List<Booking>> entry : loaded.entrySet ()){
+            List<Booking> fresh = new ArrayList<Booking>(entry.getValue ().size ());
+            for (Booking b : entry.getValue ())
+               if (!this._bIDs.get (b.bID)){
+                  this._bIDs.set (b.bID);
+                  fresh.add (b);
+               }//end if
+            List<Booking> day = this._days.get (entry.getKey ());
+            if (day == null || day.isEmpty ()){
+               this._days.put (entry.getKey (), fresh);
+               continue;
+            }//end if
+            List<Booking> merged = new ArrayList<Booking>(day.size () + fresh.size ());
+            int i = 0, j = 0;
+            while (i < day.size () || j < fresh.size ())
+               merged.add (j >= fresh.size () || (i < day.size () && day.get (i).cents >= fresh.get (j).cents)
+                           ? day.get (i++) : fresh.get (j++));
+            this._days.put (entry.getKey (), merged);
+         }//end for
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end merge
+
+   private static long cents (String price) {
+      return new BigDecimal (price.trim ()).movePointRight (2).longValue ();
+   }//end cents
+
+   private static long key (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end key
+
+   /**
+    * One indexed booking.
+    */
+   private static class Booking {
+      final int bID, customer, hotelID, roomNo, day, noOfPeople;
+      final long cents;
+      final String roomType;
+
+      Booking (int bID, int customer, int hotelID, int roomNo, int day, int noOfPeople,
+               long cents, String roomType) {
+         this.bID = bID;
+         this.customer = customer;
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.day = day;
+         this.noOfPeople = noOfPeople;
+         this.cents = cents;
+         this.roomType = roomType;
+      }
+   }//end Booking
+
+   /**
+    * The next unread booking of one day, for the merge in topK.
+    */
+   private static class Cursor implements Comparable<Cursor> {
+      final List<Booking> day;
+      int position = 0;
+
+      Cursor (List<Booking> day) {
+         this.day = day;
+      }
+
+      Booking current () {
+         return this.day.get (this.position);
+      }
+
+      public int compareTo (Cursor other) {
+         // highest price first
+         long a = current ().cents, b = other.current ().cents;
+         return a < b ? 1 : (a > b ? -1 : 0);
+      }
+   }//end Cursor
+
+}//end TopKPriceIndex
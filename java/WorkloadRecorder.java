@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records the parameterized statements the program sends to
+ * the database: how often each statement shape ran, and the parameters of
+ * its latest run as a sample.  The index advisor reads the saved workload
+ * to decide which indexes pay for themselves.
+ *
+ * The file has one line per statement shape: the count, the SQL, and the
+ * sample parameters, separated by tabs.  Parameters are written as
+ * "i:<int>", "l:<long>", "s:<string>" or "n:" for null, with tabs, line
+ * breaks and backslashes escaped.
+ *
+ */
+public class WorkloadRecorder {
+
+   // SQL -> runs and sample parameters
+   private final ConcurrentHashMap<String, Statement> _statements =
+      new ConcurrentHashMap<String, Statement>();
+
+   /**
+    * Counts one run of a statement.
+    */
+   public void record (String sql, Object[] params) {
+      Statement statement = this._statements.get (sql);
+      if (statement == null){
+         Statement created = new Statement (sql);
+         statement = this._statements.putIfAbsent (sql, created);
+         if (statement == null)
+            statement = created;
+      }//end if
+      statement.count.incrementAndGet ();
+      statement.sample = params;
+   }//end record
+
+   /**
+    * Returns the recorded statements.
+    */
+   public List<Statement> getStatements () {
+      return new ArrayList<Statement>(this._statements.values ());
+   }//end getStatements
+
+   /**
+    * Writes the recorded statements to a file, adding the counts of the
+    * statements the file already holds.
+    *
+    * @param file the workload file
+    * @throws java.io.IOException when the file cannot be read or written
+    */
+   public void save (File file) throws IOException {
+      WorkloadRecorder merged = new WorkloadRecorder ();
+      if (file.exists ())
+         merged.load (file);
+      for (Statement statement : this._statements.values ()){
+         merged.record (statement.sql, statement.sample);
+         merged._statements.get (statement.sql).count.addAndGet (statement.count.get () - 1);
+      }//end for
+
+      PrintWriter out = new PrintWriter (new OutputStreamWriter (new FileOutputStream (file), "UTF-8"));
+      try{
+         for (Statement statement : merged._statements.values ()){
+            StringBuilder sb = new StringBuilder ();
+            sb.append (statement.count.get ()).append ('\t').append (escape (statement.sql));
+            for (Object param : statement.sample){
+               sb.append ('\t');
+               if (param == null)
+                  sb.append ("n:");
+               else if (param instanceof Integer)
+                  sb.append ("i:").append (param);
+               else if (param instanceof Long)
+                  sb.append ("l:").append (param);
+               else
+                  sb.append ("s:").append (escape (param.toString ()));
+            }//end for
+            out.println (sb);
+         }//end for
+      }finally{
+         out.close ();
+      }//end try
+   }//end save
+
+   /**
+    * Adds the statements of a workload file to the recorder.
+    *
+    * @param file the workload file
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public void load (File file) throws IOException {
+      BufferedReader reader = new BufferedReader (new InputStreamReader (new FileInputStream (file), "UTF-8"));
+      try{
+         String line;
+         while ((line = reader.readLine ()) != null){
+            if (line.isEmpty ())
+               continue;
+            String[] fields = line.split ("\t", -1);
+            Object[] params = new Object[fields.length - 2];
+            for (int i = 0; i < params.length; ++i){
+               String field = fields[i + 2];
+               String value = field.substring (2);
+               if (field.startsWith ("i:"))
+                  params[i] = Integer.valueOf (value);
+               else if (field.startsWith ("l:"))
+                  params[i] = Long.valueOf (value);
+               else if (field.startsWith ("s:"))
+                  params[i] = unescape (value);
+            }//end for
+            String sql = unescape (fields[1]);
+            record (sql, params);
+            this._statements.get (sql).count.addAndGet (Long.parseLong (fields[0]) - 1);
+         }//end while
+      }finally{
+         reader.close ();
+      }//end try
+   }//end load
+
+   private static String escape (String s) {
+      return s.replace ("\\", "\\\\").replace ("\t", "\\t").replace ("\n", "\\n").replace ("\r", "\\r");
+   }//end escape
+
+   private static String unescape (String s) {
+      StringBuilder sb = new StringBuilder (s.length ());
+      for (int i = 0; i < s.length (); ++i){
+         char c = s.charAt (i);
+         if (c == '\\' && i + 1 < s.length ()){
+            char next = s.charAt (++i);
+            sb.append (next == 't' ? '\t' : (next == 'n' ? '\n' : (next == 'r' ? '\r' : next)));
+         }else{
+            sb.append (c);
+         }//end if
+      }//end for
+      return sb.toString ();
+   }//end unescape
+
+   /**
+    * One recorded statement shape.
+    */
+   public static class Statement {
+      final String sql;
+      final AtomicLong count = new AtomicLong ();
+      volatile Object[] sample;
+
+      Statement (String sql) {
+         this.sql = sql;
+      }
+   }//end Statement
+
+}//end WorkloadRecorder
@@ -10,7 +10,7 @@ export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
 psql −h localhost −p $PGPORT $USER”_DB” < ../sql/create_index.sql
 
 # compile the java program
-javac DBProject.java
+javac *.java
 
 #run the java program
 #Use your database name, port number and login
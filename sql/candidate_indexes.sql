@@ -0,0 +1,38 @@
+-- Candidate indexes for the query shapes the application still sends to
+-- the database.  Compare them against create_indexes.sql with
+-- "java LatencyHarness ... none ../sql/create_indexes.sql ../sql/candidate_indexes.sql"
+
+-- bookings of a hotel for a week
+CREATE INDEX Booking_Hotel_Date_Index
+ON Booking
+USING BTREE
+(hotelID, bookingDate);
+
+-- top k booking prices of a customer
+CREATE INDEX Booking_Customer_Price_Index
+ON Booking
+USING BTREE
+(customer, price DESC);
+
+-- total cost of a customer at a hotel for a date range
+CREATE INDEX Booking_Customer_Hotel_Date_Index
+ON Booking
+USING BTREE
+(customer, hotelID, bookingDate);
+
+-- repairs made by a company, by company name
+CREATE INDEX MaintenanceCompany_Name_Index
+ON MaintenanceCompany
+USING BTREE
+(name);
+
+CREATE INDEX Repair_Company_Index
+ON Repair
+USING BTREE
+(mCompany);
+
+-- repairs per year of a room
+CREATE INDEX Repair_Room_Index
+ON Repair
+USING BTREE
+(hotelID, roomNo, repairDate);
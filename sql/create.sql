@@ -9,6 +9,13 @@ DROP TABLE IF EXISTS Booking CASCADE;
 DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS BookingDayRollup CASCADE;
+DROP TABLE IF EXISTS BookingMonthRollup CASCADE;
+
+-- The below sql statements drops of the key sequences if they exist
+DROP SEQUENCE IF EXISTS booking_bid_seq;
+DROP SEQUENCE IF EXISTS assigned_asgid_seq;
+DROP SEQUENCE IF EXISTS request_reqid_seq;
 
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
@@ -81,6 +88,19 @@ CREATE TABLE Assigned( asgID Numeric NOT NULL,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The below tables hold the number of bookings per hotel and day and per
+-- hotel and month (month = first day of the month).  They are kept up to
+-- date by the application when it books a room.
+CREATE TABLE BookingDayRollup( hotelID Numeric NOT NULL,
+							   day Date NOT NULL,
+							   booked Numeric NOT NULL DEFAULT 0,
+							   PRIMARY KEY(hotelID, day));
+
+CREATE TABLE BookingMonthRollup( hotelID Numeric NOT NULL,
+								 month Date NOT NULL,
+								 booked Numeric NOT NULL DEFAULT 0,
+								 PRIMARY KEY(hotelID, month));
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -227,5 +247,37 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- A room can be booked once per day; loading data that books a room twice
+-- on a day fails here.  Bookings whose room was deleted are set to room 0
+-- and are left out of the index.
+CREATE UNIQUE INDEX Booking_Room_Date_Index
+ON Booking
+USING BTREE
+(hotelID, roomNo, bookingDate)
+WHERE roomNo <> 0;
+
+-- The below sql statements create the sequences new Booking, Assigned and
+-- Request keys are taken from, starting after the loaded data.  The
+-- application reserves 1000 keys per nextval call, so the increment must
+-- match SequenceIdAllocator.BLOCK_SIZE.
+CREATE SEQUENCE booking_bid_seq INCREMENT BY 1000;
+SELECT setval('booking_bid_seq', (SELECT COALESCE(MAX(bID), 0) + 1 FROM Booking), false);
+
+CREATE SEQUENCE assigned_asgid_seq INCREMENT BY 1000;
+SELECT setval('assigned_asgid_seq', (SELECT COALESCE(MAX(asgID), 0) + 1 FROM Assigned), false);
+
+CREATE SEQUENCE request_reqid_seq INCREMENT BY 1000;
+SELECT setval('request_reqid_seq', (SELECT COALESCE(MAX(reqID), 0) + 1 FROM Request), false);
+
+-- The below sql statements fill the booking rollups from the loaded data.
+INSERT INTO BookingDayRollup
+SELECT hotelID, bookingDate, COUNT(*)
+FROM Booking
+GROUP BY hotelID, bookingDate;
+
+INSERT INTO BookingMonthRollup
+SELECT hotelID, date_trunc('month', bookingDate)::date, COUNT(*)
+FROM Booking
+GROUP BY 1, 2;
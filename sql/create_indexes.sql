@@ -1,7 +1,7 @@
 CREATE INDEX Hotel_Index
 ON Hotel
 USING BTREE 
-(hotel_ID);
+(hotelID);
 
 CREATE INDEX Staff_Index
 ON Staff
@@ -25,8 +25,8 @@ USING BTREE
 
 CREATE INDEX Booking_Index
 ON Booking
-USING BTREE;
-(bookingDate)
+USING BTREE
+(bookingDate);
 
 CREATE INDEX Repair_Index
 ON Repair
@@ -42,3 +42,8 @@ CREATE INDEX Assigned_Index
 ON Assigned
 USING BTREE
 (asgID);
+
+CREATE INDEX Customer_Name_Index
+ON Customer
+USING BTREE
+(fName, lName);
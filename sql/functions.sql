@@ -0,0 +1,65 @@
+-- Server-side functions for the write operations.  Each one runs a whole
+-- operation in a single call: it resolves the references, inserts the row,
+-- updates what has to change with it, and returns the new row.  The
+-- program calls them instead of its chained statements when they exist.
+-- Install them with "psql -d <dbname> -p <port> -f functions.sql".
+--
+-- Keys are passed in by the program, which takes them from the key
+-- sequences in blocks (see SequenceIdAllocator), so calling nextval here
+-- would waste a whole block per row.  The result columns are declared
+-- rather than typed as the table's row, so the tables can be replaced
+-- (see PartitionMigrator) without dropping the functions.
+
+-- books a room for the customer with the given name and counts the
+-- booking in the rollups
+CREATE OR REPLACE FUNCTION book_room(p_bid Numeric, p_hotel Numeric, p_fname Char(30), p_lname Char(30),
+                                     p_room Numeric, p_date Date, p_people Numeric, p_price Numeric)
+RETURNS TABLE(bID Numeric, customer Numeric, hotelID Numeric, roomNo Numeric, bookingDate Date,
+              noOfPeople Numeric, price Numeric(6,2)) AS $$
+#variable_conflict use_column
+DECLARE
+	v_customer Numeric;
+	v_matches Integer;
+BEGIN
+	SELECT MIN(customerID), COUNT(*) INTO v_customer, v_matches
+	FROM Customer
+	WHERE fName = p_fname AND lName = p_lname;
+	IF v_matches = 0 THEN
+		RAISE EXCEPTION 'User does not exist';
+	ELSIF v_matches > 1 THEN
+		RAISE EXCEPTION 'Ambiguous customer name % %: % customers have it',
+			rtrim(p_fname), rtrim(p_lname), v_matches;
+	END IF;
+
+	INSERT INTO Booking VALUES (p_bid, v_customer, p_hotel, p_room, p_date, p_people, p_price)
+	RETURNING * INTO bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price;
+
+	INSERT INTO BookingDayRollup VALUES (p_hotel, p_date, 1)
+	ON CONFLICT (hotelID, day) DO UPDATE SET booked = BookingDayRollup.booked + 1;
+	INSERT INTO BookingMonthRollup VALUES (p_hotel, date_trunc('month', p_date)::date, 1)
+	ON CONFLICT (hotelID, month) DO UPDATE SET booked = BookingMonthRollup.booked + 1;
+	RETURN NEXT;
+END $$ LANGUAGE plpgsql;
+
+-- assigns a house cleaning staff member to a room
+CREATE OR REPLACE FUNCTION assign_house_cleaning(p_asgid Numeric, p_staff Numeric, p_hotel Numeric,
+                                                 p_room Numeric)
+RETURNS TABLE(asgID Numeric, staffID Numeric, hotelID Numeric, roomNo Numeric) AS $$
+#variable_conflict use_column
+BEGIN
+	INSERT INTO Assigned VALUES (p_asgid, p_staff, p_hotel, p_room)
+	RETURNING * INTO asgID, staffID, hotelID, roomNo;
+	RETURN NEXT;
+END $$ LANGUAGE plpgsql;
+
+-- raises a repair request for an existing repair
+CREATE OR REPLACE FUNCTION repair_request(p_reqid Numeric, p_manager Numeric, p_repair Numeric,
+                                          p_date Date)
+RETURNS TABLE(reqID Numeric, managerID Numeric, repairID Numeric, requestDate Date,
+              description Text) AS $$
+#variable_conflict use_column
+BEGIN
+	INSERT INTO Request VALUES (p_reqid, p_manager, p_repair, p_date)
+	RETURNING * INTO reqID, managerID, repairID, requestDate, description;
+	RETURN NEXT;
+END $$ LANGUAGE plpgsql;
@@ -0,0 +1,91 @@
+-- Change log for keeping the caches of several program instances fresh.
+-- A trigger on every table the program caches records each changed row as
+-- (table, operation, key) in ChangeLog, in the transaction that changes it,
+-- and notifies the hotel_changes channel.  Every instance started with
+-- --invalidation listens on the channel and applies the changes it has not
+-- seen yet to its caches (see InvalidationBus).  The log is read rather than
+-- the notification payload because the JDBC driver does not pass payloads
+-- on.  Install it with "psql -d <dbname> -p <port> -f invalidation.sql"; it
+-- can be run again, and must be after PartitionMigrator swaps a table.
+
+CREATE TABLE IF NOT EXISTS ChangeLog( seq BigSerial NOT NULL,
+									  txid Bigint NOT NULL DEFAULT txid_current(),
+									  tableName Text NOT NULL,
+									  op Char(1) NOT NULL,
+									  key Text NOT NULL,
+									  changedAt Timestamptz NOT NULL DEFAULT clock_timestamp(),
+									  PRIMARY KEY(seq));
+CREATE INDEX IF NOT EXISTS ChangeLog_txid ON ChangeLog(txid);
+CREATE INDEX IF NOT EXISTS ChangeLog_changedAt ON ChangeLog(changedAt);
+
+-- records a change of a row; the arguments are the table name and its key
+-- columns, so partitions report the name of their parent
+CREATE OR REPLACE FUNCTION record_change() RETURNS trigger AS $$
+DECLARE
+	v_row jsonb;
+BEGIN
+	IF TG_LEVEL = 'STATEMENT' THEN
+		INSERT INTO ChangeLog(tableName, op, key) VALUES (lower(TG_ARGV[0]), 'T', '');
+	ELSE
+		IF TG_OP = 'DELETE' THEN
+			v_row := to_jsonb(OLD);
+		ELSE
+			v_row := to_jsonb(NEW);
+		END IF;
+		INSERT INTO ChangeLog(tableName, op, key)
+		SELECT lower(TG_ARGV[0]), left(TG_OP, 1), string_agg(v_row ->> lower(col), ',' ORDER BY ord)
+		FROM unnest(TG_ARGV[1:]) WITH ORDINALITY AS k(col, ord);
+	END IF;
+	-- notifications with the same payload are sent once per transaction
+	PERFORM pg_notify('hotel_changes', '');
+	RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS Customer_changes ON Customer;
+CREATE TRIGGER Customer_changes AFTER INSERT OR UPDATE OR DELETE ON Customer
+FOR EACH ROW EXECUTE PROCEDURE record_change('Customer', 'customerID');
+DROP TRIGGER IF EXISTS Customer_truncate ON Customer;
+CREATE TRIGGER Customer_truncate AFTER TRUNCATE ON Customer
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Customer');
+
+DROP TRIGGER IF EXISTS Room_changes ON Room;
+CREATE TRIGGER Room_changes AFTER INSERT OR UPDATE OR DELETE ON Room
+FOR EACH ROW EXECUTE PROCEDURE record_change('Room', 'hotelID', 'roomNo');
+DROP TRIGGER IF EXISTS Room_truncate ON Room;
+CREATE TRIGGER Room_truncate AFTER TRUNCATE ON Room
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Room');
+
+DROP TRIGGER IF EXISTS MaintenanceCompany_changes ON MaintenanceCompany;
+CREATE TRIGGER MaintenanceCompany_changes AFTER INSERT OR UPDATE OR DELETE ON MaintenanceCompany
+FOR EACH ROW EXECUTE PROCEDURE record_change('MaintenanceCompany', 'cmpID');
+DROP TRIGGER IF EXISTS MaintenanceCompany_truncate ON MaintenanceCompany;
+CREATE TRIGGER MaintenanceCompany_truncate AFTER TRUNCATE ON MaintenanceCompany
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('MaintenanceCompany');
+
+DROP TRIGGER IF EXISTS Repair_changes ON Repair;
+CREATE TRIGGER Repair_changes AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE record_change('Repair', 'rID');
+DROP TRIGGER IF EXISTS Repair_truncate ON Repair;
+CREATE TRIGGER Repair_truncate AFTER TRUNCATE ON Repair
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Repair');
+
+DROP TRIGGER IF EXISTS Booking_changes ON Booking;
+CREATE TRIGGER Booking_changes AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE record_change('Booking', 'bID');
+DROP TRIGGER IF EXISTS Booking_truncate ON Booking;
+CREATE TRIGGER Booking_truncate AFTER TRUNCATE ON Booking
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Booking');
+
+DROP TRIGGER IF EXISTS Assigned_changes ON Assigned;
+CREATE TRIGGER Assigned_changes AFTER INSERT OR UPDATE OR DELETE ON Assigned
+FOR EACH ROW EXECUTE PROCEDURE record_change('Assigned', 'asgID');
+DROP TRIGGER IF EXISTS Assigned_truncate ON Assigned;
+CREATE TRIGGER Assigned_truncate AFTER TRUNCATE ON Assigned
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Assigned');
+
+DROP TRIGGER IF EXISTS Request_changes ON Request;
+CREATE TRIGGER Request_changes AFTER INSERT OR UPDATE OR DELETE ON Request
+FOR EACH ROW EXECUTE PROCEDURE record_change('Request', 'reqID');
+DROP TRIGGER IF EXISTS Request_truncate ON Request;
+CREATE TRIGGER Request_truncate AFTER TRUNCATE ON Request
+FOR EACH STATEMENT EXECUTE PROCEDURE record_change('Request');
@@ -1,12 +1,7 @@
 #!/bin/bash
-psql -h localhost -p $PGPORT $DB_NAME < create.sql > /dev/null
-sleep 5
-
-echo "Query time without indexes"
-cat <(echo '\timing') queries.sql | psql -h localhost -p $PGPORT $DB_NAME | grep Time | awk -F "Time" '{print "Query" FNR $2;}'
-
-psql -h localhost -p $PGPORT $DB_NAME < create_indexes.sql > /dev/null
-
-echo "Query time with indexes"
-cat <(echo '\timing') queries.sql |psql -h localhost -p $PGPORT $DB_NAME | grep Time | awk -F "Time" '{print "Query" FNR $2;}'
-
+# Reports p50/p95/p99 latency of every query shape without indexes and
+# with each index script, and saves the EXPLAIN (ANALYZE, BUFFERS) plans to
+# plans/.  Load the database first (java BulkLoader, or create.sql).
+cd ../java
+java -classpath .:pg73jdbc3.jar LatencyHarness $DB_NAME $PGPORT $USER runs=${RUNS:-200} out=../sql/plans \
+     none ../sql/create_indexes.sql ../sql/candidate_indexes.sql